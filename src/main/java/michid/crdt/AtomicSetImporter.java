@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.UUID;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+/**
+ * Streaming import of values into an atomic set. Values are added in chunks
+ * through multi valued {@code add-} properties, each of which is saved on its
+ * own. Only a single chunk of values is held in memory at any time. The names
+ * of these properties are unique per import such that concurrent imports into
+ * the same set do not overwrite each other's chunks.
+ * <p>
+ * Only the client side is bounded by the chunk size. A {@code mix:atomicSet}
+ * keeps all its members in a single {@code values} property, which every
+ * commit reads and rewrites in full. Importing N values thus costs
+ * O(N<sup>2</sup> / chunkSize) on the commit side and does not scale past a
+ * few hundred thousand members. Import larger sets into a {@code mix:orderedSet},
+ * which takes the same {@code add-} properties but keeps its members in bounded
+ * chunks such that a commit only rewrites the chunks it changes and the
+ * index of its chunks.
+ */
+public class AtomicSetImporter {
+    public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    private final Session session;
+    private final String path;
+    private final int chunkSize;
+
+    /**
+     * @param session    session to import through
+     * @param path       path of the {@code mix:atomicSet} node
+     * @param chunkSize  number of values per commit
+     */
+    public AtomicSetImporter(Session session, String path, int chunkSize) {
+        this.session = session;
+        this.path = path;
+        this.chunkSize = chunkSize;
+    }
+
+    public AtomicSetImporter(Session session, String path) {
+        this(session, path, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Add all {@code values} to the set
+     * @param values  values to add
+     * @return  the number of values imported
+     * @throws RepositoryException
+     */
+    public long importValues(Iterator<Value> values) throws RepositoryException {
+        Node set = session.getNode(path);
+        String prefix = ATOMIC_SET_ADD + "import-" + UUID.randomUUID() + '-';
+        Value[] chunk = new Value[chunkSize];
+        long count = 0;
+        int chunkCount = 0;
+        while (values.hasNext()) {
+            int size = 0;
+            while (size < chunkSize && values.hasNext()) {
+                chunk[size++] = values.next();
+            }
+            set.setProperty(prefix + chunkCount++,
+                    size == chunkSize ? chunk : Arrays.copyOf(chunk, size));
+            session.save();
+            count += size;
+        }
+        return count;
+    }
+}
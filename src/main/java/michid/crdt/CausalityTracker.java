@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Causality tokens for reading your own writes (and their causal
+ * predecessors) on other cluster nodes.
+ * <p>
+ * Each cluster node runs a tracker with a unique cluster id. Its
+ * {@link #getCommitHook() commit hook} increments a logical clock for the
+ * cluster node on commits saved through {@link #save(Session)}. The clocks
+ * of all cluster nodes are kept as properties of the hidden {@code :causality}
+ * node below the root. As each cluster node only updates its own property,
+ * concurrent commits from different cluster nodes do not conflict. Other
+ * commits leave the clocks alone such that the {@code :causality} node is
+ * only rewritten for commits a token is requested for.
+ * <p>
+ * As {@link Observer} the tracker keeps the clocks of the latest root state
+ * visible on its cluster node. {@link #save(Session)} returns a {@link Token}
+ * covering the saved changes. The token can be passed to another cluster node
+ * where {@link #await(Token, long, TimeUnit)} blocks until that node has seen
+ * all changes covered by the token. A session refreshed afterwards reads them.
+ * Commits that do not advance the clocks are covered by the tokens of later
+ * commits of the same cluster node.
+ */
+public class CausalityTracker implements Observer {
+    public static final String CAUSALITY = ":causality";
+
+    private static final Pattern CLUSTER_ID = Pattern.compile("[\\w-]+");
+
+    private final String clusterId;
+    private final Object monitor = new Object();
+
+    /**
+     * Clock written by the commit hook for the save in progress on the current
+     * thread: {@code null} outside of {@link #save(Session)}, 0 until written.
+     */
+    private final ThreadLocal<Long> savedClock = new ThreadLocal<Long>();
+
+    private volatile Token current = Token.EMPTY;
+
+    /** Clocks last observed, guarded by {@link #monitor} */
+    private NodeState clocks;
+
+    /**
+     * @param clusterId  id of this cluster node. Must be unique across the
+     *                   cluster and consist of letters, digits, '_' and '-'.
+     */
+    public CausalityTracker(String clusterId) {
+        checkArgument(CLUSTER_ID.matcher(clusterId).matches(), "Invalid cluster id %s", clusterId);
+        this.clusterId = clusterId;
+    }
+
+    /**
+     * Causality token: the clocks of all cluster nodes at a point in time.
+     * A token <em>covers</em> another token if none of its clocks are behind.
+     */
+    public static final class Token {
+        public static final Token EMPTY = new Token(ImmutableSortedMap.<String, Long>of());
+
+        private final ImmutableSortedMap<String, Long> clocks;
+
+        private Token(ImmutableSortedMap<String, Long> clocks) {
+            this.clocks = clocks;
+        }
+
+        /**
+         * Parse a token from its string representation as returned by {@link #toString()}
+         * @throws IllegalArgumentException  if {@code token} is not a valid token
+         */
+        public static Token fromString(String token) {
+            Map<String, Long> clocks = Maps.newHashMap();
+            if (!token.isEmpty()) {
+                for (Map.Entry<String, String> clock : Splitter.on(',').withKeyValueSeparator(':').split(token).entrySet()) {
+                    checkArgument(CLUSTER_ID.matcher(clock.getKey()).matches(), "Invalid token %s", token);
+                    clocks.put(clock.getKey(), Long.parseLong(clock.getValue()));
+                }
+            }
+            return new Token(ImmutableSortedMap.copyOf(clocks));
+        }
+
+        /**
+         * @return  the clock of the given cluster node or 0 if none
+         */
+        public long getClock(String clusterId) {
+            Long clock = clocks.get(clusterId);
+            return clock == null ? 0 : clock;
+        }
+
+        /**
+         * @return  {@code true} if no clock of this token is behind the respective
+         *          clock of {@code other}
+         */
+        public boolean covers(Token other) {
+            for (Map.Entry<String, Long> clock : other.clocks.entrySet()) {
+                if (getClock(clock.getKey()) < clock.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return  a token covering this token and {@code other}. Use for reading the
+         *          writes of several saves.
+         */
+        public Token merge(Token other) {
+            Map<String, Long> clocks = Maps.newHashMap(this.clocks);
+            for (Map.Entry<String, Long> clock : other.clocks.entrySet()) {
+                clocks.put(clock.getKey(), Math.max(getClock(clock.getKey()), clock.getValue()));
+            }
+            return new Token(ImmutableSortedMap.copyOf(clocks));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return this == other || other instanceof Token && clocks.equals(((Token) other).clocks);
+        }
+
+        @Override
+        public int hashCode() {
+            return clocks.hashCode();
+        }
+
+        /**
+         * @return  string representation of this token. E.g. {@code node1:42,node2:7}.
+         */
+        @Override
+        public String toString() {
+            return Joiner.on(',').withKeyValueSeparator(":").join(clocks);
+        }
+    }
+
+    public String getClusterId() {
+        return clusterId;
+    }
+
+    /**
+     * @return  commit hook incrementing the clock of this cluster node on commits
+     *          saved through {@link #save(Session)}. It must be installed on the
+     *          repository along with this tracker and run on the saving thread.
+     */
+    public CommitHook getCommitHook() {
+        return new CommitHook() {
+            @Override
+            public NodeState processCommit(NodeState before, NodeState after, CommitInfo info)
+                    throws CommitFailedException {
+                if (savedClock.get() == null || after.equals(before)) {
+                    return after;
+                }
+                NodeBuilder builder = after.builder();
+                NodeBuilder causality = builder.child(CAUSALITY);
+                PropertyState clock = causality.getProperty(clusterId);
+                long next = clock == null ? 1 : clock.getValue(LONG) + 1;
+                causality.setProperty(clusterId, next);
+                savedClock.set(next);
+                return builder.getNodeState();
+            }
+        };
+    }
+
+    @Override
+    public void contentChanged(NodeState root, CommitInfo info) {
+        NodeState causality = root.getChildNode(CAUSALITY);
+        synchronized (monitor) {
+            if (causality.equals(clocks)) {
+                return;
+            }
+            clocks = causality;
+            current = current.merge(getToken(causality));
+            monitor.notifyAll();
+        }
+    }
+
+    private static Token getToken(NodeState causality) {
+        Map<String, Long> clocks = Maps.newHashMap();
+        for (PropertyState clock : causality.getProperties()) {
+            clocks.put(clock.getName(), clock.getValue(LONG));
+        }
+        return new Token(ImmutableSortedMap.copyOf(clocks));
+    }
+
+    /**
+     * @return  a token covering all changes seen by this cluster node
+     */
+    public Token getToken() {
+        return current;
+    }
+
+    /**
+     * Save a session and return a token covering the saved changes.
+     * @param session  session to save
+     * @return  causality token for the changes of {@code session}
+     * @throws RepositoryException
+     */
+    public Token save(Session session) throws RepositoryException {
+        savedClock.set(0L);
+        try {
+            session.save();
+            long clock = savedClock.get();
+            return clock == 0
+                ? current
+                : current.merge(new Token(ImmutableSortedMap.of(clusterId, clock)));
+        } finally {
+            savedClock.remove();
+        }
+    }
+
+    /**
+     * Wait until this cluster node has seen all changes covered by {@code token}.
+     * @param token    the token to wait for
+     * @param timeout  the maximum time to wait
+     * @param unit     the time unit of {@code timeout}
+     * @return  {@code true} if all changes are seen, {@code false} on timeout
+     * @throws InterruptedException
+     */
+    public boolean await(Token token, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (monitor) {
+            while (!current.covers(token)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Wait until this cluster node has seen all changes covered by {@code token}
+     * and refresh {@code session} such that it reads them.
+     * @return  {@code true} if all changes are seen, {@code false} on timeout
+     * @throws InterruptedException
+     * @throws RepositoryException
+     */
+    public boolean await(Session session, Token token, long timeout, TimeUnit unit)
+            throws InterruptedException, RepositoryException {
+        if (await(token, timeout, unit)) {
+            session.refresh(true);
+            return true;
+        } else {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.StringDictionary.ATOMIC_SET_CODES;
+import static org.apache.jackrabbit.oak.api.Type.STRINGS;
+import static org.apache.jackrabbit.oak.commons.PathUtils.elements;
+import static org.apache.jackrabbit.oak.plugins.memory.PropertyStates.createProperty;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import michid.crdt.plugins.StringDictionary;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.segment.RecordId;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentPropertyState;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+
+/**
+ * Read side cache of the materialized values of CRDTs. Values are read on
+ * the Oak level and converted to immutable {@link MaterializedValue} instances,
+ * bypassing the conversion to {@code javax.jcr.Value}s a JCR session would do.
+ * <p>
+ * The cache is keyed by the identity of the record of the value property in
+ * the segment store. As records are immutable, cached values never need to be
+ * invalidated: a changed value has a new record and thus a new key. Entries are
+ * evicted once the total number of cached values exceeds the configured maximum.
+ * The members of dictionary encoded sets are decoded and cached by the record
+ * of their codes.
+ * Instances are thread safe and can be shared across sessions.
+ */
+public class CrdtValueCache {
+    private final Cache<Key, MaterializedValue> cache;
+    private final NodeStore store;
+    private final StringDictionary dictionary;
+
+    /**
+     * @param store       the node store to read from
+     * @param maxValues   maximal number of values to cache
+     * @param dictionary  dictionary for decoding the members of dictionary encoded sets
+     */
+    public CrdtValueCache(NodeStore store, long maxValues, StringDictionary dictionary) {
+        this.store = store;
+        this.dictionary = dictionary;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxValues)
+                .weigher(new Weigher<Key, MaterializedValue>() {
+                    @Override
+                    public int weigh(Key key, MaterializedValue value) {
+                        return 1 + value.size();
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param store      the node store to read from
+     * @param maxValues  maximal number of values to cache
+     */
+    public CrdtValueCache(NodeStore store, long maxValues) {
+        this(store, maxValues, new StringDictionary());
+    }
+
+    /**
+     * Read the current value of a property
+     * @param path  path of the CRDT node
+     * @param name  name of the property holding the materialized value, e.g.
+     *              {@code values} for an atomic set or {@code value} for a register
+     * @return  the value of the property or {@code null} if it does not exist. The
+     *          {@code values} of a dictionary encoded set are the decoded members.
+     */
+    public MaterializedValue get(String path, String name) {
+        NodeState root = store.getRoot();
+        NodeState node = root;
+        for (String element : elements(path)) {
+            node = node.getChildNode(element);
+        }
+        PropertyState codes = node.getProperty(ATOMIC_SET_CODES);
+        if (codes != null && ATOMIC_SET_VALUES.equals(name) && !node.hasProperty(name)) {
+            return getMembers(root, node, codes);
+        } else {
+            return get(node.getProperty(name));
+        }
+    }
+
+    private MaterializedValue getMembers(final NodeState root, final NodeState set, PropertyState codes) {
+        if (codes instanceof SegmentPropertyState) {
+            // Codes are never reassigned, so the codes record determines the members
+            Key key = new Key(((SegmentPropertyState) codes).getRecordId(), STRINGS, true);
+            try {
+                return cache.get(key, new Callable<MaterializedValue>() {
+                    @Override
+                    public MaterializedValue call() {
+                        return decode(root, set);
+                    }
+                });
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        } else {
+            return decode(root, set);
+        }
+    }
+
+    private MaterializedValue decode(NodeState root, NodeState set) {
+        return MaterializedValue.of(createProperty(ATOMIC_SET_VALUES, dictionary.getMembers(root, set), STRINGS));
+    }
+
+    /**
+     * Read the value of a property
+     * @param property  the property
+     * @return  the value of {@code property} or {@code null} if {@code property} is {@code null}
+     */
+    public MaterializedValue get(final PropertyState property) {
+        if (property == null) {
+            return null;
+        } else if (property instanceof SegmentPropertyState) {
+            Key key = new Key(((SegmentPropertyState) property).getRecordId(), property.getType(), false);
+            try {
+                return cache.get(key, new Callable<MaterializedValue>() {
+                    @Override
+                    public MaterializedValue call() {
+                        return MaterializedValue.of(property);
+                    }
+                });
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        } else {
+            return MaterializedValue.of(property);
+        }
+    }
+
+    /**
+     * @return  number of cache hits so far
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /**
+     * @return  number of cache misses so far
+     */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * The same value record reads differently depending on the type
+     * of the property. Hence the type is part of the key. The decoded
+     * members of a dictionary encoded set are keyed by the record of
+     * their codes, which a plain property might share. Hence whether
+     * the value is decoded is part of the key too.
+     */
+    static final class Key {
+        private final RecordId id;
+        private final Type<?> type;
+        private final boolean decoded;
+
+        Key(RecordId id, Type<?> type, boolean decoded) {
+            this.id = id;
+            this.type = type;
+            this.decoded = decoded;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return id.equals(that.id) && type.equals(that.type) && decoded == that.decoded;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * id.hashCode() + type.hashCode()) + (decoded ? 1 : 0);
+        }
+    }
+}
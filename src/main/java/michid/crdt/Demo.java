@@ -17,48 +17,180 @@ package michid.crdt;/*
  * under the License.
  */
 
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
+import static michid.crdt.SegmentStores.getSnapshotImage;
 import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
 import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET_CND;
+import static michid.crdt.plugins.FlagEditor.MIX_DISABLE_WINS_FLAG;
+import static michid.crdt.plugins.FlagEditor.MIX_DISABLE_WINS_FLAG_CND;
+import static michid.crdt.plugins.FlagEditor.MIX_ENABLE_WINS_FLAG;
+import static michid.crdt.plugins.FlagEditor.MIX_ENABLE_WINS_FLAG_CND;
 import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER;
 import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER_CND;
+import static michid.crdt.plugins.LWWElementSetEditor.MIX_LWW_ELEMENT_SET;
+import static michid.crdt.plugins.LWWElementSetEditor.MIX_LWW_ELEMENT_SET_CND;
 import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER;
 import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER_CND;
+import static michid.crdt.plugins.OrderedSetEditor.MIX_ORDERED_SET;
+import static michid.crdt.plugins.OrderedSetEditor.MIX_ORDERED_SET_CND;
+import static michid.crdt.plugins.TwoPhaseSetEditor.MIX_TWO_PHASE_SET;
+import static michid.crdt.plugins.TwoPhaseSetEditor.MIX_TWO_PHASE_SET_CND;
 import static org.apache.jackrabbit.commons.cnd.CndImporter.registerNodeTypes;
+import static org.apache.jackrabbit.oak.commons.PathUtils.elements;
 import static org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore.newSegmentNodeStore;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Arrays;
+import java.util.List;
 
+import javax.jcr.Credentials;
 import javax.jcr.Node;
 import javax.jcr.Property;
 import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
+import javax.jcr.nodetype.NodeTypeManager;
+import javax.management.ObjectName;
 
 import ammonite.repl.Bind;
 import ammonite.repl.Repl;
 import michid.crdt.plugins.AtomicSetEditorProvider;
+import michid.crdt.plugins.CommitTracer;
+import michid.crdt.plugins.CrdtPolicyService;
+import michid.crdt.plugins.ElementSetConflictHandler;
+import michid.crdt.plugins.FlagEditorProvider;
+import michid.crdt.plugins.FlagMirror;
 import michid.crdt.plugins.LWWEditorProvider;
+import michid.crdt.plugins.LWWElementSetEditorProvider;
 import michid.crdt.plugins.MVConflictHandler;
+import michid.crdt.plugins.OrderedSetEditorProvider;
+import michid.crdt.plugins.StringDictionary;
+import michid.crdt.plugins.TraceRecorder;
+import michid.crdt.plugins.TwoPhaseSetEditorProvider;
+import org.apache.jackrabbit.api.JackrabbitRepository;
 import org.apache.jackrabbit.commons.cnd.ParseException;
 import org.apache.jackrabbit.oak.jcr.Jcr;
-import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
 import scala.collection.mutable.ListBuffer;
 
 /**
- * Main class for an interactive Scala shell. A transient JCR
+ * Main class for an interactive Scala shell and a headless
+ * {@link LoadGenerator}. A transient JCR
  * {@link Demo#repository} is set up with {@link AtomicSetEditorProvider},
- * {@link LWWEditorProvider} and {@link MVConflictHandler}.
+ * {@link LWWEditorProvider}, {@link MVConflictHandler}, {@link TwoPhaseSetEditorProvider},
+ * {@link LWWElementSetEditorProvider}, {@link ElementSetConflictHandler},
+ * {@link OrderedSetEditorProvider} and {@link FlagEditorProvider}.
  */
 public final class Demo {
 
     /**
-     * Transient repository instance.
+     * System property for the file to record a trace of all CRDT operations
+     * to. No trace is recorded if not set.
+     * @see TraceRecorder
      */
-    public static Repository repository = createRepository();
+    public static final String TRACE_PROPERTY = "crdt.trace";
+
+    /**
+     * System property for the id of this cluster node in causality tokens.
+     * Defaults to {@code local}.
+     * @see CausalityTracker
+     */
+    public static final String CLUSTER_ID_PROPERTY = "crdt.clusterId";
+
+    /**
+     * A node of the sample content along with the mixin of the node
+     * and the definition of that mixin.
+     */
+    private static final class SampleNode {
+        final String name;
+        final String mixin;
+        final String cnd;
+
+        SampleNode(String name, String mixin, String cnd) {
+            this.name = name;
+            this.mixin = mixin;
+            this.cnd = cnd;
+        }
+
+        @Override
+        public String toString() {
+            return name + ' ' + mixin + ' ' + cnd;
+        }
+    }
+
+    private static final SampleNode[] SAMPLE_NODES = {
+            new SampleNode("count", "mix:atomicCounter", null),
+            new SampleNode("set", MIX_ATOMIC_SET, MIX_ATOMIC_SET_CND),
+            new SampleNode("lww", MIX_LWW_REGISTER, MIX_LWW_REGISTER_CND),
+            new SampleNode("mv", MIX_MV_REGISTER, MIX_MV_REGISTER_CND),
+            new SampleNode("twoPhaseSet", MIX_TWO_PHASE_SET, MIX_TWO_PHASE_SET_CND),
+            new SampleNode("lwwSet", MIX_LWW_ELEMENT_SET, MIX_LWW_ELEMENT_SET_CND),
+            new SampleNode("orderedSet", MIX_ORDERED_SET, MIX_ORDERED_SET_CND),
+            new SampleNode("enableWinsFlag", MIX_ENABLE_WINS_FLAG, MIX_ENABLE_WINS_FLAG_CND),
+            new SampleNode("disableWinsFlag", MIX_DISABLE_WINS_FLAG, MIX_DISABLE_WINS_FLAG_CND)
+    };
+
+    private static final NodeStore nodeStore = newSegmentNodeStore(createSegmentStore()).create();
+
+    /**
+     * {@link CommitTracer} tracing one in 100 commits to {@link #repository}.
+     * Use {@code commitTracer.dump(file)} to write the traces kept to a file.
+     */
+    public static CommitTracer commitTracer = new CommitTracer(100, 1024);
+
+    /**
+     * {@link CausalityTracker} of {@link #repository}. Use {@code causality.save(session)}
+     * to obtain a causality token for the changes of a session.
+     */
+    public static CausalityTracker causality = new CausalityTracker(
+            System.getProperty(CLUSTER_ID_PROPERTY, "local"));
+
+    /**
+     * {@link CrdtPolicyService} shared by the CRDT editors of {@link #repository}.
+     * Use {@code policies.setPolicies(entries)} to change the policy at runtime.
+     */
+    public static CrdtPolicyService policies = new CrdtPolicyService();
+
+    /**
+     * Editor provider for the atomic sets of {@link #repository}. Its dictionary
+     * decodes the members of dictionary encoded sets.
+     */
+    private static final AtomicSetEditorProvider atomicSets = new AtomicSetEditorProvider(policies);
+
+    /**
+     * {@link FlagMirror} of {@link #repository}. Use {@code flags.subscribe(path)}
+     * to mirror a flag or config value in memory.
+     */
+    public static FlagMirror flags = new FlagMirror();
+
+    /**
+     * Repository instance. Transient unless a file store is configured
+     * through {@link SegmentStores}.
+     */
+    public static Repository repository = createRepository(nodeStore);
+
+    /**
+     * {@link GroupCommit} instance for CRDT operations on {@link #repository}.
+     */
+    public static GroupCommit groupCommit = createGroupCommit(repository);
+
+    /**
+     * {@link RetryingSave} instance for saving updates to {@link #repository}.
+     * Its metrics are registered as MBean {@code michid.crdt:type=RetryingSave}.
+     */
+    public static RetryingSave retryingSave = registerMBean(
+            new RetryingSave(repository, getAdminCredentials()), "michid.crdt:type=RetryingSave");
+
+    /**
+     * {@link CrdtValueCache} instance for reading CRDT values from {@link #repository}.
+     */
+    public static CrdtValueCache valueCache = new CrdtValueCache(nodeStore, 1000000, atomicSets.getDictionary());
 
     private Demo() { }
 
@@ -71,8 +203,49 @@ public final class Demo {
         return newSession(repository);
     }
 
+    /**
+     * Query an ordered set of strings in {@link #repository}
+     * @param path  path to a node of type {@code mix:orderedSet}
+     * @return  an {@link OrderedSet} for range, prefix and rank queries
+     */
+    public static OrderedSet<String> orderedSet(String path) {
+        return OrderedSet.strings(getNodeState(path));
+    }
+
+    /**
+     * Read the members of a dictionary encoded set of strings in {@link #repository}
+     * @param path  path to a node of type {@code mix:atomicSet}
+     * @return  the decoded members of the set
+     * @see StringDictionary
+     */
+    public static List<String> setMembers(String path) {
+        return atomicSets.getDictionary().getMembers(nodeStore.getRoot(), getNodeState(path));
+    }
+
+    private static NodeState getNodeState(String path) {
+        NodeState node = nodeStore.getRoot();
+        for (String name : elements(path)) {
+            node = node.getChildNode(name);
+        }
+        return node;
+    }
+
     private static Session newSession(Repository repository) throws RepositoryException {
-        return repository.login(new SimpleCredentials("admin", "admin".toCharArray()));
+        return repository.login(getAdminCredentials());
+    }
+
+    private static Credentials getAdminCredentials() {
+        return new SimpleCredentials("admin", "admin".toCharArray());
+    }
+
+    /**
+     * Save {@code update} to the node at {@code path} through {@link #retryingSave}.
+     * @param path    path of the node to update
+     * @param update  the update
+     * @throws RepositoryException
+     */
+    public static void save(String path, RetryingSave.Update update) throws RepositoryException {
+        retryingSave.save(path, update);
     }
 
     /**
@@ -89,42 +262,162 @@ public final class Demo {
         }
     }
 
-    private static Repository createRepository() {
-        Repository repository = new Jcr(newSegmentNodeStore(new MemoryStore()).create())
-                .with(new AtomicSetEditorProvider())
-                .with(new LWWEditorProvider())
-                .with(new MVConflictHandler())
-                .createRepository();
+    private static SegmentStore createSegmentStore() {
         try {
-            Session session = newSession(repository);
-            Node root = session.getRootNode();
-            try {
-                root.addNode("count").addMixin("mix:atomicCounter");
+            final SegmentStore store = SegmentStores.newSegmentStore(new SnapshotImage(
+                    getSnapshotImage("demo", getContentDescription()), new SnapshotImage.Initializer() {
+                @Override
+                public void initialize(NodeStore store) throws Exception {
+                    Repository repository = new Jcr(store).createRepository();
+                    try {
+                        createContent(repository);
+                    } finally {
+                        ((JackrabbitRepository) repository).shutdown();
+                    }
+                }
+            }));
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    store.close();
+                }
+            });
+            return store;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-                registerNodeType(session, MIX_ATOMIC_SET_CND);
-                root.addNode("set").addMixin(MIX_ATOMIC_SET);
+    private static GroupCommit createGroupCommit(Repository repository) {
+        try {
+            return new GroupCommit(repository, getAdminCredentials());
+        } catch (RepositoryException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-                registerNodeType(session, MIX_LWW_REGISTER_CND);
-                root.addNode("lww").addMixin(MIX_LWW_REGISTER);
+    private static TraceRecorder createTraceRecorder(File file) {
+        try {
+            final TraceRecorder recorder = new TraceRecorder(file);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        recorder.close();
+                    } catch (IOException ignore) { }
+                }
+            });
+            return recorder;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-                registerNodeType(session, MIX_MV_REGISTER_CND);
-                root.addNode("mv").addMixin(MIX_MV_REGISTER);
+    private static Repository createRepository(NodeStore nodeStore) {
+        Jcr jcr = new Jcr(nodeStore)
+                .with(commitTracer.wrap("atomicSet", atomicSets))
+                .with(commitTracer.wrap("lww", new LWWEditorProvider(policies)))
+                .with(commitTracer.wrap(new MVConflictHandler()))
+                .with(commitTracer.wrap("twoPhaseSet", new TwoPhaseSetEditorProvider(policies)))
+                .with(commitTracer.wrap("lwwSet", new LWWElementSetEditorProvider(policies)))
+                .with(commitTracer.wrap(new ElementSetConflictHandler()))
+                .with(commitTracer.wrap("orderedSet", new OrderedSetEditorProvider(policies)))
+                .with(commitTracer.wrap("flag", new FlagEditorProvider(policies)))
+                .with(flags)
+                .with(commitTracer)
+                .with(causality.getCommitHook())
+                .with(causality);
+        String trace = System.getProperty(TRACE_PROPERTY);
+        if (trace != null) {
+            TraceRecorder recorder = createTraceRecorder(new File(trace));
+            jcr.with(recorder.getEditorProvider()).with(recorder);
+        }
+        Repository repository = jcr.createRepository();
+        try {
+            createContent(repository);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return repository;
+    }
 
+    /**
+     * Register the CRDT node types and create the sample nodes. Each node type
+     * and sample node is checked individually such that repositories created by
+     * an earlier version receive the node types and nodes added since.
+     */
+    private static void createContent(Repository repository)
+            throws RepositoryException, ParseException, IOException {
+        Session session = newSession(repository);
+        try {
+            NodeTypeManager nodeTypes = session.getWorkspace().getNodeTypeManager();
+            Node root = session.getRootNode();
+            for (SampleNode sample : SAMPLE_NODES) {
+                if (sample.cnd != null && !nodeTypes.hasNodeType(sample.mixin)) {
+                    registerNodeType(session, sample.cnd);
+                }
+                if (!root.hasNode(sample.name)) {
+                    root.addNode(sample.name).addMixin(sample.mixin);
+                }
+            }
+            if (session.hasPendingChanges()) {
                 session.save();
-            } finally {
-                session.logout();
             }
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * @return  a description of the content created by {@link #createContent(Repository)}
+     */
+    private static String[] getContentDescription() {
+        String[] content = new String[SAMPLE_NODES.length];
+        for (int k = 0; k < content.length; k++) {
+            content[k] = SAMPLE_NODES[k].toString();
+        }
+        return content;
+    }
+
+    private static <T> T registerMBean(T mbean, String name) {
+        try {
+            getPlatformMBeanServer().registerMBean(mbean, new ObjectName(name));
         } catch (Exception e) {
             throw new IllegalStateException(e);
         }
-        return repository;
+        return mbean;
     }
 
     private static void registerNodeType(Session session, String cnd) throws RepositoryException, ParseException, IOException {
         registerNodeTypes(new InputStreamReader(new ByteArrayInputStream(cnd.getBytes())), session);
     }
 
-    public static void main(String[] args) {
-        Repl.debug(new ListBuffer<Bind<?>>());
+    /**
+     * Start the interactive shell or, if the first argument is {@code load},
+     * run a {@link LoadGenerator} against {@link #repository}. The remaining
+     * arguments are passed to {@link LoadGenerator#fromArgs(Repository, Credentials, String...)}.
+     * If the first argument is {@code replay}, replay the trace file given by
+     * the second argument against {@link #repository} through a {@link TraceReplayer}.
+     * Optional third and fourth arguments specify the speed factor (default 1) and
+     * the number of workers (default 8).
+     */
+    public static void main(String[] args) throws InterruptedException, IOException, RepositoryException {
+        if (args.length > 0 && "load".equals(args[0])) {
+            LoadGenerator.fromArgs(repository, getAdminCredentials(),
+                    Arrays.copyOfRange(args, 1, args.length)).run();
+            System.exit(0);
+        } else if (args.length > 1 && "replay".equals(args[0])) {
+            double speed = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+            int workers = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+            TraceReplayer replayer = new TraceReplayer(repository, getAdminCredentials(), workers, speed);
+            long start = System.nanoTime();
+            long commits = replayer.replay(new File(args[1]));
+            System.out.printf("replayed %d commits, %d operations in %.1f s. %d conflicts, %d errors%n",
+                    commits, replayer.getOperationCount(), (System.nanoTime() - start) / 1e9,
+                    replayer.getConflictCount(), replayer.getErrorCount());
+            System.exit(0);
+        } else {
+            Repl.debug(new ListBuffer<Bind<?>>());
+        }
     }
 }
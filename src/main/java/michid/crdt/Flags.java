@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.FlagEditor.FLAG_DISABLE;
+import static michid.crdt.plugins.FlagEditor.FLAG_ENABLE;
+import static michid.crdt.plugins.FlagEditor.FLAG_ENABLED;
+import static michid.crdt.plugins.FlagEditor.FLAG_TOKENS;
+
+import java.util.UUID;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+/**
+ * Utility for changing enable wins and disable wins flags through JCR. The
+ * methods record the operation along with the tokens of the flag observed by
+ * the session. The change takes effect when the session is saved.
+ * @see michid.crdt.plugins.FlagEditor
+ */
+public final class Flags {
+    private Flags() { }
+
+    /**
+     * Enable a flag
+     * @param flag  node of type {@code mix:enableWinsFlag} or {@code mix:disableWinsFlag}
+     * @throws RepositoryException
+     */
+    public static void enable(Node flag) throws RepositoryException {
+        flag.setProperty(FLAG_ENABLE + UUID.randomUUID(), getTokens(flag));
+    }
+
+    /**
+     * Disable a flag
+     * @param flag  node of type {@code mix:enableWinsFlag} or {@code mix:disableWinsFlag}
+     * @throws RepositoryException
+     */
+    public static void disable(Node flag) throws RepositoryException {
+        flag.setProperty(FLAG_DISABLE + UUID.randomUUID(), getTokens(flag));
+    }
+
+    /**
+     * @param flag  node of type {@code mix:enableWinsFlag} or {@code mix:disableWinsFlag}
+     * @return  {@code true} if the flag is enabled as of the last save
+     * @throws RepositoryException
+     */
+    public static boolean isEnabled(Node flag) throws RepositoryException {
+        return flag.hasProperty(FLAG_ENABLED) && flag.getProperty(FLAG_ENABLED).getBoolean();
+    }
+
+    private static String[] getTokens(Node flag) throws RepositoryException {
+        if (!flag.hasProperty(FLAG_TOKENS)) {
+            return new String[0];
+        }
+        Value[] values = flag.getProperty(FLAG_TOKENS).getValues();
+        String[] tokens = new String[values.length];
+        for (int k = 0; k < values.length; k++) {
+            tokens[k] = values[k].getString();
+        }
+        return tokens;
+    }
+}
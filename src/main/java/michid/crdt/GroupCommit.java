@@ -0,0 +1,387 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.CrdtType.ATOMIC_COUNTER;
+import static michid.crdt.plugins.CrdtType.ATOMIC_SET;
+import static michid.crdt.plugins.CrdtType.LWW_REGISTER;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_INCREMENT;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Credentials;
+import javax.jcr.Node;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import michid.crdt.plugins.AtomicSetEditor;
+import michid.crdt.plugins.CrdtType;
+
+/**
+ * Group commit stage for CRDT operations. Operations submitted by
+ * concurrent callers are queued and picked up by a single committer
+ * thread, which applies all operations pending at that time through a
+ * single session and saves them with a single commit. As the commits go
+ * through the repository they run all its commit hooks, editors,
+ * validators and observers just like any other save.
+ * <p>
+ * Only operations on CRDT nodes are accepted: increments of
+ * {@code mix:atomicCounter} nodes, additions to and removals from
+ * {@code mix:atomicSet} nodes and updates of {@code mix:lwwRegister}
+ * nodes. The operations are recorded through the same {@code oak:increment},
+ * {@code add-}, {@code remove-} and {@code update-} properties a JCR
+ * client would use. The repository must be set up with the respective
+ * editors for materialising these.
+ * <p>
+ * If saving a group fails, its operations are retried one by one such
+ * that a failing operation does not fail unrelated callers.
+ */
+public class GroupCommit implements Closeable {
+    public static final int DEFAULT_MAX_GROUP_SIZE = 1000;
+
+    private final BlockingQueue<Operation> queue = new LinkedBlockingQueue<Operation>();
+    private final AtomicLong commitCount = new AtomicLong();
+
+    private final Session session;
+    private final int maxGroupSize;
+    private final Thread committer;
+
+    /**
+     * Guarded by {@code this} such that no operation is queued after
+     * {@link #close()} drained the queue.
+     */
+    private boolean closed;
+
+    /**
+     * Sequence number for the names of the delta properties. Only
+     * accessed from the committer thread.
+     */
+    private long seq;
+
+    /**
+     * @param repository    repository to commit to
+     * @param credentials   credentials for logging into {@code repository}
+     * @param maxGroupSize  maximal number of operations per commit
+     * @throws RepositoryException  if logging into {@code repository} fails
+     */
+    public GroupCommit(Repository repository, Credentials credentials, int maxGroupSize)
+            throws RepositoryException {
+        this.session = repository.login(credentials);
+        this.maxGroupSize = maxGroupSize;
+        committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    commitLoop();
+                } finally {
+                    session.logout();
+                    failPending();
+                }
+            }
+        }, "CRDT group commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    public GroupCommit(Repository repository, Credentials credentials) throws RepositoryException {
+        this(repository, credentials, DEFAULT_MAX_GROUP_SIZE);
+    }
+
+    /**
+     * Increment the {@code mix:atomicCounter} at {@code path}.
+     * @param path   path to the counter
+     * @param delta  value to add to the counter
+     * @return  a future that completes once the increment is committed
+     */
+    public ListenableFuture<Void> increment(String path, final long delta) {
+        return submit(new Operation(path, ATOMIC_COUNTER) {
+            @Override
+            void apply(Node node, Group group) throws RepositoryException {
+                long current = node.hasProperty(PROP_INCREMENT)
+                        ? node.getProperty(PROP_INCREMENT).getLong()
+                        : 0;
+                node.setProperty(PROP_INCREMENT, current + delta);
+            }
+        });
+    }
+
+    /**
+     * Add {@code value} to the {@code mix:atomicSet} at {@code path}.
+     * @param path   path to the set
+     * @param value  value to add. Values of any value factory can be used.
+     * @return  a future that completes once the addition is committed
+     */
+    public ListenableFuture<Void> add(String path, Value value) {
+        return submit(new SetOperation(path, ATOMIC_SET_ADD, ATOMIC_SET_REMOVE, value));
+    }
+
+    /**
+     * Remove {@code value} from the {@code mix:atomicSet} at {@code path}.
+     * @param path   path to the set
+     * @param value  value to remove. Values of any value factory can be used.
+     * @return  a future that completes once the removal is committed
+     */
+    public ListenableFuture<Void> remove(String path, Value value) {
+        return submit(new SetOperation(path, ATOMIC_SET_REMOVE, ATOMIC_SET_ADD, value));
+    }
+
+    /**
+     * Update the {@code mix:lwwRegister} at {@code path} to {@code value}.
+     * @param path   path to the register
+     * @param value  new value. Values of any value factory can be used.
+     * @return  a future that completes once the update is committed
+     */
+    public ListenableFuture<Void> update(String path, final Value value) {
+        return submit(new Operation(path, LWW_REGISTER) {
+            @Override
+            void apply(Node node, Group group) throws RepositoryException {
+                // A single update property per register such that the
+                // last update within a group wins
+                node.setProperty(LWW_UPDATE + "group", value);
+            }
+        });
+    }
+
+    /**
+     * @return  number of commits done by this instance so far
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * Stop the committer thread. Operations still pending fail
+     * with an {@link IllegalStateException}. Operations submitted
+     * afterwards are rejected.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Close this instance and fail all operations still queued. Called
+     * by the committer thread when it stops.
+     */
+    private void failPending() {
+        synchronized (this) {
+            closed = true;
+        }
+        IllegalStateException failure = new IllegalStateException("Group commit closed");
+        for (Operation operation = queue.poll(); operation != null; operation = queue.poll()) {
+            operation.future.setException(failure);
+        }
+    }
+
+    private ListenableFuture<Void> submit(Operation operation) {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Group commit closed");
+            }
+            queue.add(operation);
+        }
+        return operation.future;
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void commitLoop() {
+        List<Operation> group = newArrayList();
+        while (!isClosed()) {
+            try {
+                Operation operation = queue.poll(100, MILLISECONDS);
+                if (operation != null) {
+                    group.add(operation);
+                    queue.drainTo(group, maxGroupSize - 1);
+                    commit(group);
+                    group.clear();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Commit a group of operations. Each operation of the group completes,
+     * either successfully or with the failure applying or committing it.
+     */
+    private void commit(List<Operation> operations) {
+        try {
+            Group group = new Group();
+            List<Operation> applied = newArrayList();
+            for (Operation operation : operations) {
+                try {
+                    if (operation.applyAt(session, group)) {
+                        applied.add(operation);
+                    }
+                } catch (Exception e) {
+                    // Discard the partially applied group and retry without
+                    // the failed operation
+                    operation.future.setException(e);
+                    refresh();
+                    commit(pending(operations));
+                    return;
+                }
+            }
+            if (applied.isEmpty()) {
+                return;
+            }
+
+            try {
+                session.save();
+                commitCount.incrementAndGet();
+                for (Operation operation : applied) {
+                    operation.future.set(null);
+                }
+            } catch (RepositoryException e) {
+                refresh();
+                if (applied.size() == 1) {
+                    applied.get(0).future.setException(e);
+                } else {
+                    for (Operation operation : applied) {
+                        commit(singletonList(operation));
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            refresh();
+            fail(operations, e);
+        } catch (Error e) {
+            fail(operations, e);
+            throw e;
+        }
+    }
+
+    private static List<Operation> pending(List<Operation> operations) {
+        List<Operation> pending = newArrayList();
+        for (Operation operation : operations) {
+            if (!operation.future.isDone()) {
+                pending.add(operation);
+            }
+        }
+        return pending;
+    }
+
+    private static void fail(Iterable<Operation> operations, Throwable failure) {
+        for (Operation operation : operations) {
+            operation.future.setException(failure);
+        }
+    }
+
+    private void refresh() {
+        try {
+            session.refresh(false);
+        } catch (RepositoryException ignore) { }
+    }
+
+    /**
+     * The set operations applied within a single commit by their node,
+     * kind and value.
+     */
+    private static class Group {
+        final ListMultimap<String, String> setOperations = ArrayListMultimap.create();
+    }
+
+    private abstract static class Operation {
+        final SettableFuture<Void> future = SettableFuture.create();
+        final String path;
+        final CrdtType crdtType;
+
+        Operation(String path, CrdtType crdtType) {
+            this.path = path;
+            this.crdtType = crdtType;
+        }
+
+        /**
+         * Apply this operation to the node at {@link #path} or fail
+         * its future if that node is not a CRDT of the expected type.
+         * @return  {@code true} if applied, {@code false} otherwise
+         */
+        boolean applyAt(Session session, Group group) throws RepositoryException {
+            if (session.nodeExists(path)) {
+                Node node = session.getNode(path);
+                if (node.isNodeType(crdtType.getMixin())) {
+                    apply(node, group);
+                    return true;
+                }
+            }
+            future.setException(new IllegalArgumentException("Not a " + crdtType + ": " + path));
+            return false;
+        }
+
+        abstract void apply(Node node, Group group) throws RepositoryException;
+    }
+
+    /**
+     * Addition to or removal from an atomic set. As {@link AtomicSetEditor}
+     * applies all additions before all removals, an operation cancels any
+     * opposite operation on the same value pending in the same group. This
+     * preserves the order of operations within a group.
+     */
+    private class SetOperation extends Operation {
+        private final String prefix;
+        private final String opposite;
+        private final Value value;
+
+        SetOperation(String path, String prefix, String opposite, Value value) {
+            super(path, ATOMIC_SET);
+            this.prefix = prefix;
+            this.opposite = opposite;
+            this.value = value;
+        }
+
+        @Override
+        void apply(Node node, Group group) throws RepositoryException {
+            String key = path + '\n' + value.getType() + ':' + value.getString();
+            for (String pending : group.setOperations.removeAll(opposite + key)) {
+                node.getProperty(pending).remove();
+            }
+            String name = prefix + seq++;
+            node.setProperty(name, value);
+            group.setOperations.put(prefix + key, name);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.CrdtType.ATOMIC_COUNTER;
+import static michid.crdt.plugins.CrdtType.getTypes;
+import static org.apache.jackrabbit.oak.commons.PathUtils.elements;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_COUNTER;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_INCREMENT;
+import static org.apache.jackrabbit.util.Text.escapeIllegalJcrChars;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allocator for unique ids backed by a {@code mix:atomicCounter} node. Instead
+ * of incrementing the counter for each id, blocks of ids are leased with a single
+ * increment of the counter by the size of the block. Ids are then handed out from
+ * the block in memory. The fast path of {@link #next()} is a single atomic increment.
+ * Each block costs a single commit, which increments the counter. Calls to
+ * {@link #next()} leasing a block block on that commit.
+ * <p>
+ * The block size adapts to the demand: it doubles when blocks are used up faster
+ * than {@link #TARGET_LEASE_INTERVAL} and halves when they last much longer.
+ * <p>
+ * Each allocator has an owner id, which must be unique across all concurrently
+ * running allocators on the same counter. On {@link #close()} the ids left in the
+ * current block are persisted per owner in a hidden {@code :leases} child node of
+ * the counter with another commit. An allocator started with the same owner id
+ * resumes from there such that these ids are reclaimed. Resuming removes the
+ * persisted range with a commit before the first id is handed out. Ids handed out
+ * are only tracked in memory. After a crash it is unknown which ids of the current
+ * block were handed out, so the rest of that block is lost.
+ * <p>
+ * The commit hook must include the {@code AtomicCounterEditorProvider}. Ids are
+ * unique but only increasing per block.
+ */
+public class IdAllocator implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(IdAllocator.class);
+
+    public static final String LEASES = ":leases";
+    public static final int MIN_BLOCK_SIZE = 16;
+    public static final int MAX_BLOCK_SIZE = 1 << 20;
+    public static final long TARGET_LEASE_INTERVAL = 1000;
+
+    private static final String END = "end";
+    private static final String MARK = "mark";
+
+    private final NodeStore store;
+    private final CommitHook hook;
+    private final String path;
+    private final String owner;
+
+    private volatile Block block;
+
+    // Guarded by this
+    private int blockSize = MIN_BLOCK_SIZE;
+    private long lastLease;
+    private long leaseCount;
+    private boolean closed;
+
+    /**
+     * Immutable block of ids. Ids from {@code next} up to but excluding {@code limit}
+     * can be handed out without further synchronisation. The range from {@code limit}
+     * up to {@code end} is only present for a resumed block and requires the persisted
+     * lease to be removed first.
+     */
+    private static final class Block {
+        final AtomicLong next;
+        final long limit;
+        final long end;
+
+        Block(long next, long limit, long end) {
+            this.next = new AtomicLong(next);
+            this.limit = limit;
+            this.end = end;
+        }
+    }
+
+    /**
+     * @param store  node store
+     * @param hook   commit hook including the {@code AtomicCounterEditorProvider}
+     * @param path   path to a node of type {@code mix:atomicCounter}
+     * @param owner  id of the owner of this allocator
+     * @throws IllegalArgumentException  if there is no counter at {@code path}
+     */
+    public IdAllocator(NodeStore store, CommitHook hook, String path, String owner) {
+        this.store = store;
+        this.hook = hook;
+        this.path = path;
+        this.owner = escapeIllegalJcrChars(owner);
+
+        NodeState counter = getNode(store.getRoot(), path);
+        if (!counter.exists() || !getTypes(counter).contains(ATOMIC_COUNTER)) {
+            throw new IllegalArgumentException("Not an atomic counter: " + path);
+        }
+
+        // Resume from the mark left by a previous instance with the same owner
+        NodeState lease = counter.getChildNode(LEASES).getChildNode(this.owner);
+        if (lease.hasProperty(MARK) && lease.getLong(MARK) < lease.getLong(END)) {
+            long mark = lease.getLong(MARK);
+            block = new Block(mark, mark, lease.getLong(END));
+        } else {
+            block = new Block(0, 0, 0);
+        }
+    }
+
+    /**
+     * @return  a new unique id
+     * @throws CommitFailedException  if leasing a new block or resuming a block failed
+     * @throws IllegalStateException  if this allocator is closed
+     */
+    public long next() throws CommitFailedException {
+        while (true) {
+            Block b = block;
+            long id = b.next.getAndIncrement();
+            if (id < b.limit) {
+                return id;
+            }
+            advance(b);
+        }
+    }
+
+    /**
+     * @return  the current block size
+     */
+    public synchronized int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return  the number of blocks leased so far
+     */
+    public synchronized long getLeaseCount() {
+        return leaseCount;
+    }
+
+    /**
+     * Persist the next id as mark such that a new allocator with the same
+     * owner resumes from there.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            Block b = block;
+            // Claim the rest of the block such that concurrent calls to next()
+            // end up in advance() and fail instead of handing out ids past the mark
+            long next = Math.min(b.next.getAndSet(b.limit), b.limit);
+            block = new Block(0, 0, 0);
+            if (next < b.end) {
+                try {
+                    persist(next, b.end);
+                } catch (CommitFailedException e) {
+                    LOG.warn("Failed to persist the mark of allocator " + owner + " at " + path +
+                            ". Ids " + next + " to " + b.end + " are lost.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Claim the rest of a resumed block or lease a new block if {@code b} is exhausted.
+     * Ids from {@code b.limit} on have not been handed out, as any attempt to do so
+     * ended up here.
+     */
+    private synchronized void advance(Block b) throws CommitFailedException {
+        if (closed) {
+            throw new IllegalStateException("Allocator closed");
+        }
+        if (block != b) {
+            // Some other thread already advanced
+            return;
+        }
+
+        if (b.limit < b.end) {
+            // Remove the lease such that a crash does not resume from it again
+            persist(-1, -1);
+            block = new Block(b.limit, b.end, b.end);
+        } else {
+            adaptBlockSize();
+            long end = lease(blockSize);
+            block = new Block(end - blockSize, end, end);
+        }
+    }
+
+    private void adaptBlockSize() {
+        long now = System.currentTimeMillis();
+        if (leaseCount > 0) {
+            long interval = now - lastLease;
+            if (interval < TARGET_LEASE_INTERVAL / 2) {
+                blockSize = Math.min(MAX_BLOCK_SIZE, blockSize * 2);
+            } else if (interval > TARGET_LEASE_INTERVAL * 4) {
+                blockSize = Math.max(MIN_BLOCK_SIZE, blockSize / 2);
+            }
+        }
+        lastLease = now;
+    }
+
+    /**
+     * Increment the counter by {@code size}
+     * @return  the value of the counter after the increment, which is the end of the new block
+     */
+    private long lease(int size) throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        getBuilder(root, path).setProperty(PROP_INCREMENT, (long) size);
+        NodeState merged = store.merge(root, hook, CommitInfo.EMPTY);
+        leaseCount++;
+        return getNode(merged, path).getLong(PROP_COUNTER);
+    }
+
+    /**
+     * Persist the ids not handed out by this allocator
+     * @param mark  the id to resume from or {@code -1} to remove the persisted lease
+     * @param end   the end of the range to resume
+     */
+    private void persist(long mark, long end) throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        NodeBuilder leases = getBuilder(root, path).child(LEASES);
+        if (mark < 0) {
+            leases.getChildNode(owner).remove();
+        } else {
+            NodeBuilder lease = leases.child(owner);
+            lease.setProperty(MARK, mark);
+            lease.setProperty(END, end);
+        }
+        store.merge(root, hook, CommitInfo.EMPTY);
+    }
+
+    private static NodeState getNode(NodeState root, String path) {
+        NodeState node = root;
+        for (String name : elements(path)) {
+            node = node.getChildNode(name);
+        }
+        return node;
+    }
+
+    private static NodeBuilder getBuilder(NodeBuilder root, String path) {
+        NodeBuilder node = root;
+        for (String name : elements(path)) {
+            node = node.getChildNode(name);
+        }
+        return node;
+    }
+}
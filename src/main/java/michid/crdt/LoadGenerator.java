@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_INCREMENT;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Headless load generator, which drives a configurable mix of CRDT operations
+ * against the {@code /count}, {@code /set}, {@code /lww} and {@code /mv} nodes
+ * of the {@link Demo} repository from a number of concurrent workers. Each
+ * operation is saved on its own. Throughput and latency percentiles are
+ * printed periodically. Failed operations are counted by the type of their
+ * failure and reported along with the latencies.
+ * <p>
+ * Options are passed as {@code --name=value}:
+ * <ul>
+ *     <li>{@code workers}: number of concurrent workers. Default 8.</li>
+ *     <li>{@code duration}: duration of the run in seconds. Default 60.</li>
+ *     <li>{@code report}: reporting interval in seconds. Default 5.</li>
+ *     <li>{@code mix}: relative weights of the operations as comma separated
+ *     list of {@code counter}, {@code set}, {@code lww} and {@code mv} weights.
+ *     Set operations are split evenly between additions and removals.
+ *     Default {@code counter:1,set:1,lww:1,mv:1}.</li>
+ *     <li>{@code range}: number of distinct values to draw from. Default 1000.</li>
+ * </ul>
+ */
+public class LoadGenerator {
+    public enum Operation { COUNTER, SET, LWW, MV }
+
+    private final AtomicReference<LatencyHistogram> interval =
+            new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> errorsByType = Maps.newConcurrentMap();
+
+    private final Repository repository;
+    private final Credentials credentials;
+    private final int workers;
+    private final int duration;
+    private final int report;
+    private final int range;
+    private final Map<Operation, Integer> weights;
+    private final Operation[] mix;
+    private final PrintStream out;
+
+    private volatile boolean running;
+
+    /**
+     * @param repository   repository to drive the load against
+     * @param credentials  credentials for logging into {@code repository}
+     * @param workers      number of concurrent workers
+     * @param duration     duration of the run in seconds
+     * @param report       reporting interval in seconds
+     * @param range        number of distinct values to draw from
+     * @param weights      relative weight of each operation
+     * @param out          stream to print reports to
+     */
+    public LoadGenerator(Repository repository, Credentials credentials, int workers, int duration,
+            int report, int range, Map<Operation, Integer> weights, PrintStream out) {
+        this.repository = repository;
+        this.credentials = credentials;
+        this.workers = workers;
+        this.duration = duration;
+        this.report = report;
+        this.range = range;
+        this.weights = ImmutableMap.copyOf(weights);
+        this.mix = toMix(weights);
+        this.out = out;
+    }
+
+    /**
+     * Create a new instance from command line options.
+     * @param repository   repository to drive the load against
+     * @param credentials  credentials for logging into {@code repository}
+     * @param args         options as {@code --name=value}
+     * @return  a new load generator
+     */
+    public static LoadGenerator fromArgs(Repository repository, Credentials credentials, String... args) {
+        Map<String, String> options = Maps.newHashMap();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Invalid option " + arg);
+            }
+            int k = arg.indexOf('=');
+            options.put(arg.substring(2, k), arg.substring(k + 1));
+        }
+
+        Map<Operation, Integer> weights = Maps.newEnumMap(Operation.class);
+        String mix = get(options, "mix", "counter:1,set:1,lww:1,mv:1");
+        for (String weight : mix.split(",")) {
+            String[] nameValue = weight.split(":");
+            if (nameValue.length != 2) {
+                throw new IllegalArgumentException("Invalid weight " + weight);
+            }
+            weights.put(Operation.valueOf(nameValue[0].trim().toUpperCase()),
+                    Integer.parseInt(nameValue[1].trim()));
+        }
+
+        return new LoadGenerator(repository, credentials,
+                Integer.parseInt(get(options, "workers", "8")),
+                Integer.parseInt(get(options, "duration", "60")),
+                Integer.parseInt(get(options, "report", "5")),
+                Integer.parseInt(get(options, "range", "1000")),
+                weights, System.out);
+    }
+
+    private static String get(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static Operation[] toMix(Map<Operation, Integer> weights) {
+        int size = 0;
+        for (int weight : weights.values()) {
+            size += weight;
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("No operations in mix " + weights);
+        }
+        Operation[] mix = new Operation[size];
+        int k = 0;
+        for (Map.Entry<Operation, Integer> weight : weights.entrySet()) {
+            for (int n = 0; n < weight.getValue(); n++) {
+                mix[k++] = weight.getKey();
+            }
+        }
+        return mix;
+    }
+
+    /**
+     * Run the load for the configured duration and print a summary.
+     * @throws InterruptedException
+     */
+    public void run() throws InterruptedException {
+        running = true;
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        try {
+            for (int k = 0; k < workers; k++) {
+                final int id = k;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        work(id);
+                    }
+                });
+            }
+            reporter.scheduleAtFixedRate(new Runnable() {
+                long last = System.nanoTime();
+
+                @Override
+                public void run() {
+                    long now = System.nanoTime();
+                    print("interval", nextInterval(), now - last);
+                    last = now;
+                }
+            }, report, report, SECONDS);
+
+            long start = System.nanoTime();
+            SECONDS.sleep(duration);
+            running = false;
+            executor.shutdown();
+            executor.awaitTermination(1, SECONDS);
+            reporter.shutdown();
+            print("total", total, System.nanoTime() - start);
+            for (Map.Entry<String, AtomicLong> error : errorsByType.entrySet()) {
+                out.printf("%-8s %10d %s%n", "error", error.getValue().get(), error.getKey());
+            }
+        } finally {
+            running = false;
+            executor.shutdownNow();
+            reporter.shutdownNow();
+        }
+    }
+
+    private void print(String label, LatencyHistogram histogram, long nanos) {
+        long count = histogram.getCount();
+        out.printf("%-8s %10d ops %10.1f ops/s  p50 %8.3f ms  p99 %8.3f ms  p999 %8.3f ms  errors %d%n",
+                label, count, count / (nanos / 1e9),
+                toMillis(histogram.getPercentile(0.5)),
+                toMillis(histogram.getPercentile(0.99)),
+                toMillis(histogram.getPercentile(0.999)),
+                errors.get());
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) MILLISECONDS.toNanos(1);
+    }
+
+    private void work(int id) {
+        Random rnd = new Random(id);
+        long seq = 0;
+        Session session;
+        try {
+            session = repository.login(credentials);
+        } catch (RepositoryException e) {
+            error(e);
+            return;
+        }
+        try {
+            while (running) {
+                Operation operation = mix[rnd.nextInt(mix.length)];
+                long start = System.nanoTime();
+                try {
+                    execute(session, operation, rnd.nextInt(range), id + "-" + seq++, rnd.nextBoolean());
+                    record(System.nanoTime() - start);
+                } catch (RepositoryException e) {
+                    error(e);
+                    refresh(session);
+                } catch (RuntimeException e) {
+                    // E.g. a failing value conversion, which would otherwise end this worker
+                    error(e);
+                    refresh(session);
+                }
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    private void refresh(Session session) {
+        try {
+            session.refresh(false);
+        } catch (RepositoryException e) {
+            error(e);
+        }
+    }
+
+    /**
+     * Count a failed operation by the type of its failure
+     */
+    void error(Exception e) {
+        errors.incrementAndGet();
+        String type = e.getClass().getSimpleName();
+        AtomicLong count = errorsByType.get(type);
+        if (count == null) {
+            count = new AtomicLong();
+            AtomicLong existing = errorsByType.putIfAbsent(type, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Record the latency of a successful operation
+     * @param nanos  latency in nanoseconds
+     */
+    void record(long nanos) {
+        interval.get().record(nanos);
+        total.record(nanos);
+    }
+
+    /**
+     * Start a new reporting interval
+     * @return  the histogram of the interval ended
+     */
+    LatencyHistogram nextInterval() {
+        return interval.getAndSet(new LatencyHistogram());
+    }
+
+    private static void execute(Session session, Operation operation, long value, String id, boolean remove)
+            throws RepositoryException {
+        switch (operation) {
+            case COUNTER:
+                session.getNode("/count").setProperty(PROP_INCREMENT, 1);
+                break;
+            case SET:
+                session.getNode("/set").setProperty((remove ? ATOMIC_SET_REMOVE : ATOMIC_SET_ADD) + id, value);
+                break;
+            case LWW:
+                session.getNode("/lww").setProperty(LWW_UPDATE + id, value);
+                break;
+            case MV:
+                session.getNode("/mv").setProperty("value",
+                        new Value[] {session.getValueFactory().createValue(value)});
+                break;
+        }
+        session.save();
+    }
+
+    /**
+     * @return  the number of failed operations so far
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @return  the number of failed operations so far by the simple class
+     *          name of their failure
+     */
+    public Map<String, Long> getErrors() {
+        Map<String, Long> byType = Maps.newTreeMap();
+        for (Map.Entry<String, AtomicLong> error : errorsByType.entrySet()) {
+            byType.put(error.getKey(), error.getValue().get());
+        }
+        return byType;
+    }
+
+    int getWorkers() {
+        return workers;
+    }
+
+    int getDuration() {
+        return duration;
+    }
+
+    int getReport() {
+        return report;
+    }
+
+    int getRange() {
+        return range;
+    }
+
+    Map<Operation, Integer> getWeights() {
+        return weights;
+    }
+
+    /**
+     * @return  the total number of operations executed so far
+     */
+    public long getOperationCount() {
+        return total.getCount();
+    }
+
+    /**
+     * @param quantile  quantile between 0 and 1
+     * @return  the latency in nanoseconds at the given {@code quantile} over all
+     *          operations executed so far
+     */
+    public long getLatency(double quantile) {
+        return total.getPercentile(quantile);
+    }
+}
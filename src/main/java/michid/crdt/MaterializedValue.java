@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.apache.jackrabbit.oak.api.Type.LONGS;
+import static org.apache.jackrabbit.oak.api.Type.STRING;
+import static org.apache.jackrabbit.oak.api.Type.STRINGS;
+
+import java.util.Arrays;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+
+/**
+ * Immutable snapshot of the value of a CRDT property. Long values are kept in a
+ * {@code long[]}, all other values in their string representation. Values are
+ * sorted, which allows for efficient membership tests. The original order of
+ * the values is not retained as it is not significant for CRDTs.
+ */
+public final class MaterializedValue {
+    private final Type<?> type;
+    private final long[] longs;
+    private final String[] strings;
+
+    private MaterializedValue(Type<?> type, long[] longs, String[] strings) {
+        this.type = type;
+        this.longs = longs;
+        this.strings = strings;
+    }
+
+    /**
+     * Create a snapshot of the value(s) of {@code property}
+     * @param property  the property
+     * @return  a new snapshot
+     */
+    public static MaterializedValue of(PropertyState property) {
+        Type<?> type = property.isArray() ? property.getType().getBaseType() : property.getType();
+        int count = property.count();
+        if (type == LONG) {
+            long[] longs = new long[count];
+            if (property.isArray()) {
+                int k = 0;
+                for (long value : property.getValue(LONGS)) {
+                    longs[k++] = value;
+                }
+            } else {
+                longs[0] = property.getValue(LONG);
+            }
+            Arrays.sort(longs);
+            return new MaterializedValue(type, longs, null);
+        } else {
+            String[] strings = new String[count];
+            if (property.isArray()) {
+                int k = 0;
+                for (String value : property.getValue(STRINGS)) {
+                    strings[k++] = value;
+                }
+            } else {
+                strings[0] = property.getValue(STRING);
+            }
+            Arrays.sort(strings);
+            return new MaterializedValue(type, null, strings);
+        }
+    }
+
+    /**
+     * @return  the base type of the values
+     */
+    public Type<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return  {@code true} if the values are of type {@code LONG}
+     */
+    public boolean isLong() {
+        return longs != null;
+    }
+
+    /**
+     * @return  number of values
+     */
+    public int size() {
+        return longs != null ? longs.length : strings.length;
+    }
+
+    /**
+     * @param index  index of a value between 0 and {@code size() - 1}
+     * @return  the value at {@code index}
+     * @throws IllegalStateException  if the values are not of type {@code LONG}
+     */
+    public long getLong(int index) {
+        if (longs == null) {
+            throw new IllegalStateException("Not a long value: " + type);
+        }
+        return longs[index];
+    }
+
+    /**
+     * @param index  index of a value between 0 and {@code size() - 1}
+     * @return  the string representation of the value at {@code index}
+     */
+    public String getString(int index) {
+        return longs != null ? Long.toString(longs[index]) : strings[index];
+    }
+
+    /**
+     * @param value  a value
+     * @return  {@code true} if this snapshot contains {@code value}
+     */
+    public boolean contains(long value) {
+        return longs != null
+            ? Arrays.binarySearch(longs, value) >= 0
+            : contains(Long.toString(value));
+    }
+
+    /**
+     * @param value  the string representation of a value
+     * @return  {@code true} if this snapshot contains {@code value}
+     */
+    public boolean contains(String value) {
+        if (longs != null) {
+            try {
+                return contains(Long.parseLong(value));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        } else {
+            return Arrays.binarySearch(strings, value) >= 0;
+        }
+    }
+
+    /**
+     * @return  a copy of the values
+     * @throws IllegalStateException  if the values are not of type {@code LONG}
+     */
+    public long[] toLongArray() {
+        if (longs == null) {
+            throw new IllegalStateException("Not a long value: " + type);
+        }
+        return longs.clone();
+    }
+
+    @Override
+    public String toString() {
+        return longs != null ? Arrays.toString(longs) : Arrays.toString(strings);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static michid.crdt.plugins.OrderedSetEditor.ORDERED_SET_CHUNKS;
+import static michid.crdt.plugins.OrderedSetEditor.ORDERED_SET_LOWS;
+import static michid.crdt.plugins.OrderedSetEditor.ORDERED_SET_SIZE;
+import static michid.crdt.plugins.OrderedSetEditor.ORDERED_SET_SIZES;
+import static michid.crdt.plugins.OrderedSetEditor.ORDERED_SET_VALUES;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.apache.jackrabbit.oak.api.Type.STRING;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Range, prefix and rank queries on sets of type {@code mix:orderedSet}.
+ * The queries use the chunk index of the set to only read the chunks
+ * covering the requested range instead of all members.
+ * @see michid.crdt.plugins.OrderedSetEditor
+ */
+public final class OrderedSet<T extends Comparable<? super T>> {
+    private final NodeState set;
+    private final Type<T> type;
+    private final Comparator<T> order = Ordering.natural();
+    private final List<String> chunks;
+    private final List<T> lows;
+    private final List<Long> sizes;
+
+    /**
+     * @param set   node state of a {@code mix:orderedSet}
+     * @param type  type of the members of the set, e.g. {@link Type#STRING}
+     */
+    public OrderedSet(NodeState set, Type<T> type) {
+        this.set = set;
+        this.type = type;
+        this.chunks = getValues(set.getProperty(ORDERED_SET_CHUNKS), STRING);
+        this.lows = getValues(set.getProperty(ORDERED_SET_LOWS), type);
+        this.sizes = getValues(set.getProperty(ORDERED_SET_SIZES), LONG);
+    }
+
+    /**
+     * @return  ordered set of strings
+     */
+    public static OrderedSet<String> strings(NodeState set) {
+        return new OrderedSet<String>(set, STRING);
+    }
+
+    /**
+     * @return  ordered set of longs
+     */
+    public static OrderedSet<Long> longs(NodeState set) {
+        return new OrderedSet<Long>(set, LONG);
+    }
+
+    private static <T> List<T> getValues(PropertyState property, Type<T> type) {
+        List<T> values = newArrayList();
+        if (property != null) {
+            for (int k = 0; k < property.count(); k++) {
+                values.add(property.getValue(type, k));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return  number of members in this set
+     */
+    public long size() {
+        PropertyState size = set.getProperty(ORDERED_SET_SIZE);
+        return size == null ? 0 : size.getValue(LONG);
+    }
+
+    /**
+     * @return  all members in ascending order
+     */
+    public Iterable<T> members() {
+        return range(null, null);
+    }
+
+    /**
+     * The members from {@code from} (inclusive) to {@code to} (exclusive) in
+     * ascending order. Chunks are read lazily while iterating.
+     * @param from  lower bound or {@code null} for none
+     * @param to    upper bound or {@code null} for none
+     * @return  members in the given range
+     */
+    public Iterable<T> range(final T from, final T to) {
+        return new Iterable<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return new AbstractIterator<T>() {
+                    int chunk = from == null ? 0 : route(from);
+                    Iterator<T> values = Collections.<T>emptyList().iterator();
+
+                    @Override
+                    protected T computeNext() {
+                        while (true) {
+                            while (values.hasNext()) {
+                                T value = values.next();
+                                if (to != null && order.compare(value, to) >= 0) {
+                                    return endOfData();
+                                }
+                                if (from == null || order.compare(value, from) >= 0) {
+                                    return value;
+                                }
+                            }
+                            if (chunk >= chunks.size()
+                                    || (to != null && order.compare(lows.get(chunk), to) >= 0)) {
+                                return endOfData();
+                            }
+                            values = readChunk(chunk++).iterator();
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @param set     node state of a {@code mix:orderedSet} of strings
+     * @param prefix  prefix of the members to return
+     * @return  all members starting with {@code prefix} in ascending order
+     */
+    public static Iterable<String> prefix(NodeState set, String prefix) {
+        return strings(set).range(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    /**
+     * @param member  a value
+     * @return  the number of members of this set smaller than {@code member}
+     */
+    public long rank(T member) {
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        int chunk = route(member);
+        long rank = 0;
+        for (int k = 0; k < chunk; k++) {
+            rank += sizes.get(k);
+        }
+        for (T value : readChunk(chunk)) {
+            if (order.compare(value, member) >= 0) {
+                break;
+            }
+            rank++;
+        }
+        return rank;
+    }
+
+    /**
+     * @param index  index of a member
+     * @return  the member at {@code index} in ascending order or {@code null} if
+     *          {@code index} is out of range
+     */
+    public T get(long index) {
+        if (index < 0) {
+            return null;
+        }
+        for (int k = 0; k < chunks.size(); k++) {
+            long size = sizes.get(k);
+            if (index < size) {
+                return Iterables.get(readChunk(k), (int) index, null);
+            }
+            index -= size;
+        }
+        return null;
+    }
+
+    private int route(T value) {
+        int lo = 0;
+        int hi = lows.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (order.compare(lows.get(mid), value) <= 0) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private Iterable<T> readChunk(int chunk) {
+        PropertyState values = set.getChildNode(chunks.get(chunk)).getProperty(ORDERED_SET_VALUES);
+        if (values == null) {
+            return Collections.emptyList();
+        } else {
+            return values.getValue(arrayType(type));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Type<Iterable<T>> arrayType(Type<T> type) {
+        return (Type<Iterable<T>>) type.getArrayType();
+    }
+}
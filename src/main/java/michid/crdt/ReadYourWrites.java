@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static michid.crdt.plugins.LWWEditor.LWW_VALUE;
+import static michid.crdt.plugins.StringDictionary.ENCODING;
+import static michid.crdt.plugins.StringDictionary.ENCODING_DICTIONARY;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_COUNTER;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_INCREMENT;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.UnsupportedRepositoryOperationException;
+import javax.jcr.Value;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Utility for reading the values of CRDTs including the pending changes of a
+ * session. Pending {@code add-}, {@code remove-}, {@code update-} and
+ * {@code oak:increment} properties are only materialized on save. The methods
+ * of this class apply them in memory to the values last materialized such that
+ * a session can read its own writes without saving.
+ * <p>
+ * All methods take a node of the session whose writes should be read and
+ * apply changes the same way the respective editors would on save.
+ */
+public final class ReadYourWrites {
+    private ReadYourWrites() { }
+
+    /**
+     * The members of dictionary encoded sets are stored in a hidden property and
+     * cannot be read through JCR. Use {@link michid.crdt.plugins.StringDictionary}
+     * or {@link CrdtValueCache} to read them.
+     *
+     * @param set  node of type {@code mix:atomicSet}
+     * @return  the values of the set including pending additions and removals
+     * @throws UnsupportedRepositoryOperationException  if {@code set} is dictionary encoded
+     * @throws RepositoryException
+     */
+    public static Collection<Value> getSetValues(Node set) throws RepositoryException {
+        if (set.hasProperty(ENCODING) && ENCODING_DICTIONARY.equals(set.getProperty(ENCODING).getString())) {
+            throw new UnsupportedRepositoryOperationException(
+                    "Cannot read the members of dictionary encoded set " + set.getPath());
+        }
+        Map<String, Value> values = Maps.newLinkedHashMap();
+        if (set.hasProperty(ATOMIC_SET_VALUES)) {
+            addValues(values, set.getProperty(ATOMIC_SET_VALUES));
+        }
+        PropertyIterator additions = set.getProperties(ATOMIC_SET_ADD + '*');
+        while (additions.hasNext()) {
+            addValues(values, additions.nextProperty());
+        }
+        PropertyIterator removals = set.getProperties(ATOMIC_SET_REMOVE + '*');
+        while (removals.hasNext()) {
+            for (Value value : getValues(removals.nextProperty())) {
+                values.remove(getKey(value));
+            }
+        }
+        return values.values();
+    }
+
+    /**
+     * @param register  node of type {@code mix:lwwRegister}
+     * @return  the value(s) of the register including a pending update or
+     *          {@code null} if the register has no value.
+     * @throws RepositoryException
+     */
+    public static Value[] getLWWValue(Node register) throws RepositoryException {
+        Property value = register.hasProperty(LWW_VALUE) ? register.getProperty(LWW_VALUE) : null;
+        PropertyIterator updates = register.getProperties(LWW_UPDATE + '*');
+        while (updates.hasNext()) {
+            value = updates.nextProperty();
+        }
+        return value == null ? null : getValues(value);
+    }
+
+    /**
+     * @param counter  node of type {@code mix:atomicCounter}
+     * @return  the value of the counter including a pending increment
+     * @throws RepositoryException
+     */
+    public static long getCounter(Node counter) throws RepositoryException {
+        long value = counter.hasProperty(PROP_COUNTER) ? counter.getProperty(PROP_COUNTER).getLong() : 0;
+        long increment = counter.hasProperty(PROP_INCREMENT) ? counter.getProperty(PROP_INCREMENT).getLong() : 0;
+        return value + increment;
+    }
+
+    private static void addValues(Map<String, Value> values, Property property) throws RepositoryException {
+        for (Value value : getValues(property)) {
+            values.put(getKey(value), value);
+        }
+    }
+
+    private static Value[] getValues(Property property) throws RepositoryException {
+        return property.isMultiple()
+            ? property.getValues()
+            : new Value[] {property.getValue()};
+    }
+
+    /**
+     * Values are equal if their types and their string representations are equal
+     */
+    private static String getKey(Value value) throws RepositoryException {
+        return value.getType() + ":" + value.getString();
+    }
+}
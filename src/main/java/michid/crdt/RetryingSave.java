@@ -0,0 +1,368 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.jcr.Credentials;
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.Node;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Helper for saving updates to CRDT nodes, which retries saves failing
+ * because of a conflict. Retries are delayed by a jittered exponential
+ * backoff to avoid retry storms.
+ * <p>
+ * For each node an estimate of its contention is kept as an exponentially
+ * weighted moving average of the rate of conflicts. Updates to nodes
+ * whose contention is above a threshold are batched: instead of each
+ * caller saving its own update, one caller applies all pending updates
+ * to the node through a single session and saves them at once.
+ */
+public class RetryingSave implements RetryingSaveMBean {
+
+    /**
+     * An update to a CRDT node
+     */
+    public interface Update {
+
+        /**
+         * Apply this update to {@code node}. Implementations must not
+         * save the session as this is done by the caller. An update
+         * might be applied more than once when it is retried.
+         * @param node  the node to update
+         * @throws RepositoryException
+         */
+        void apply(Node node) throws RepositoryException;
+    }
+
+    public static final int DEFAULT_MAX_RETRIES = 10;
+    public static final long DEFAULT_BASE_DELAY = 1;
+    public static final long DEFAULT_MAX_DELAY = 100;
+    public static final double DEFAULT_HOT_THRESHOLD = 0.3;
+
+    /**
+     * Weight of a new sample in the moving average of the conflict rate
+     */
+    private static final double ALPHA = 0.2;
+
+    private static final Random RND = new Random();
+
+    private final ConcurrentMap<String, Contention> contentions = Maps.newConcurrentMap();
+
+    private final AtomicLong saveCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong wastedNanos = new AtomicLong();
+    private final AtomicLong batchedCount = new AtomicLong();
+
+    private final Repository repository;
+    private final Credentials credentials;
+    private final int maxRetries;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final double hotThreshold;
+
+    /**
+     * @param repository    repository to save to
+     * @param credentials   credentials for logging into {@code repository}
+     * @param maxRetries    maximal number of retries of a save
+     * @param baseDelay     delay in milliseconds before the first retry
+     * @param maxDelay      maximal delay in milliseconds between retries
+     * @param hotThreshold  conflict rate above which updates to a node are batched
+     */
+    public RetryingSave(Repository repository, Credentials credentials,
+            int maxRetries, long baseDelay, long maxDelay, double hotThreshold) {
+        this.repository = repository;
+        this.credentials = credentials;
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.hotThreshold = hotThreshold;
+    }
+
+    public RetryingSave(Repository repository, Credentials credentials) {
+        this(repository, credentials, DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY,
+                DEFAULT_MAX_DELAY, DEFAULT_HOT_THRESHOLD);
+    }
+
+    /**
+     * Apply {@code update} to the node at {@code path} and save it. Depending
+     * on the contention of that node the update is either saved on its own or
+     * batched with other updates to the same node.
+     * @param path    path of the node to update
+     * @param update  the update
+     * @throws RepositoryException  if saving fails for other reasons than a conflict
+     *                              or if the maximal number of retries is exceeded.
+     */
+    public void save(String path, Update update) throws RepositoryException {
+        Contention contention = getContention(path);
+        if (contention.isHot()) {
+            saveBatched(path, contention, update);
+        } else {
+            save(path, contention, newArrayList(update));
+        }
+    }
+
+    /**
+     * @param path  path of a node
+     * @return  the current estimate of the conflict rate of the node at {@code path}
+     */
+    public double getConflictRate(String path) {
+        Contention contention = contentions.get(path);
+        return contention == null ? 0 : contention.getRate();
+    }
+
+    /**
+     * @param path  path of a node
+     * @return  number of updates to the node at {@code path} queued for the next batch
+     */
+    public int getPendingCount(String path) {
+        Contention contention = contentions.get(path);
+        return contention == null ? 0 : contention.pending.size();
+    }
+
+    @Override
+    public long getSaveCount() {
+        return saveCount.get();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public long getWastedTime() {
+        return NANOSECONDS.toMillis(wastedNanos.get());
+    }
+
+    @Override
+    public long getBatchedCount() {
+        return batchedCount.get();
+    }
+
+    @Override
+    public int getHotNodeCount() {
+        int count = 0;
+        for (Contention contention : contentions.values()) {
+            if (contention.isHot()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Contention getContention(String path) {
+        Contention contention = contentions.get(path);
+        if (contention == null) {
+            contention = new Contention();
+            Contention existing = contentions.putIfAbsent(path, contention);
+            if (existing != null) {
+                contention = existing;
+            }
+        }
+        return contention;
+    }
+
+    /**
+     * Queue {@code update} on the node's batch and wait until it is saved. The
+     * caller that acquires the node's lock saves all updates queued at that time.
+     */
+    private void saveBatched(String path, Contention contention, Update update) throws RepositoryException {
+        PendingUpdate pending = new PendingUpdate(update);
+        contention.pending.add(pending);
+        while (!pending.future.isDone()) {
+            if (contention.lock.tryLock()) {
+                try {
+                    saveBatch(path, contention);
+                } finally {
+                    contention.lock.unlock();
+                }
+            } else {
+                try {
+                    pending.future.get(maxDelay, MILLISECONDS);
+                } catch (TimeoutException ignore) {
+                    // Try to acquire the lock again
+                } catch (ExecutionException e) {
+                    break;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RepositoryException(e);
+                }
+            }
+        }
+
+        try {
+            pending.future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RepositoryException) {
+                throw (RepositoryException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new RepositoryException(cause);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException(e);
+        }
+    }
+
+    private void saveBatch(String path, Contention contention) {
+        List<PendingUpdate> batch = newArrayList();
+        for (PendingUpdate pending = contention.pending.poll(); pending != null;
+                pending = contention.pending.poll()) {
+            batch.add(pending);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<Update> updates = newArrayList();
+        for (PendingUpdate pending : batch) {
+            updates.add(pending.update);
+        }
+        try {
+            save(path, contention, updates);
+            if (batch.size() > 1) {
+                batchedCount.addAndGet(batch.size());
+            }
+            for (PendingUpdate pending : batch) {
+                pending.future.set(null);
+            }
+        } catch (RepositoryException e) {
+            fail(batch, e);
+        } catch (RuntimeException e) {
+            fail(batch, e);
+        } finally {
+            // Complete the batch on any other failure (e.g. an Error) as
+            // its callers would otherwise wait forever
+            fail(batch, new RepositoryException("Batched save failed"));
+        }
+    }
+
+    /**
+     * Fail all updates of {@code batch} not completed yet
+     */
+    private static void fail(List<PendingUpdate> batch, Throwable failure) {
+        for (PendingUpdate pending : batch) {
+            pending.future.setException(failure);
+        }
+    }
+
+    private void save(String path, Contention contention, List<Update> updates) throws RepositoryException {
+        Session session = repository.login(credentials);
+        try {
+            for (int retry = 0; ; retry++) {
+                long start = System.nanoTime();
+                try {
+                    Node node = session.getNode(path);
+                    for (Update update : updates) {
+                        update.apply(node);
+                    }
+                    session.save();
+                    contention.update(false);
+                    saveCount.incrementAndGet();
+                    return;
+                } catch (InvalidItemStateException e) {
+                    contention.update(true);
+                    wastedNanos.addAndGet(System.nanoTime() - start);
+                    if (retry >= maxRetries) {
+                        failureCount.incrementAndGet();
+                        throw e;
+                    }
+                    retryCount.incrementAndGet();
+                    backoff(retry);
+                    session.refresh(false);
+                }
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Sleep for a random time between 0 and {@code baseDelay * 2^retry}
+     * capped at {@code maxDelay} milliseconds.
+     */
+    private void backoff(int retry) throws RepositoryException {
+        long bound = Math.min(maxDelay, baseDelay << Math.min(retry, 30));
+        try {
+            Thread.sleep((long) (RND.nextDouble() * bound));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException(e);
+        }
+    }
+
+    private class Contention {
+        final Queue<PendingUpdate> pending = new ConcurrentLinkedQueue<PendingUpdate>();
+        final Lock lock = new ReentrantLock();
+
+        private double rate;
+
+        synchronized void update(boolean conflict) {
+            rate = (1 - ALPHA) * rate + (conflict ? ALPHA : 0);
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        boolean isHot() {
+            return getRate() > hotThreshold;
+        }
+    }
+
+    private static class PendingUpdate {
+        final SettableFuture<Void> future = SettableFuture.create();
+        final Update update;
+
+        PendingUpdate(Update update) {
+            this.update = update;
+        }
+    }
+}
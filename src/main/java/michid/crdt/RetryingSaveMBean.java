@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+/**
+ * Contention metrics of a {@link RetryingSave} instance.
+ */
+public interface RetryingSaveMBean {
+
+    /**
+     * @return  number of successful saves
+     */
+    long getSaveCount();
+
+    /**
+     * @return  number of saves retried because of a conflict
+     */
+    long getRetryCount();
+
+    /**
+     * @return  number of saves that failed after exhausting all retries
+     */
+    long getFailureCount();
+
+    /**
+     * @return  time in milliseconds spent in save attempts that failed
+     */
+    long getWastedTime();
+
+    /**
+     * @return  number of updates that were batched with other updates
+     */
+    long getBatchedCount();
+
+    /**
+     * @return  number of nodes currently considered hot
+     */
+    int getHotNodeCount();
+}
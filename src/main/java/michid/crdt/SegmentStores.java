@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
+import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
+import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
+
+/**
+ * Factory for the {@link SegmentStore} backing the {@link Demo} and test
+ * repositories. By default a transient {@link MemoryStore} is used. Setting
+ * the system property {@value #STORE_PROPERTY} to {@code file} selects a
+ * persistent {@link FileStore} with memory mapped tar files instead. Its
+ * directory is taken from the system property {@value #DIRECTORY_PROPERTY}
+ * and defaults to a new temporary directory.
+ * <p>
+ * Setting {@value #STORE_PROPERTY} to {@code snapshot} also selects a file
+ * store, which starts from a copy of a {@link SnapshotImage} of an initialized
+ * repository. The images are kept in the directory given by the system property
+ * {@value #SNAPSHOT_PROPERTY}, which defaults to {@code oak-crdt-snapshot} in
+ * the temporary directory. Image names contain a hash of their initial content
+ * such that changing the content results in a new image.
+ */
+public final class SegmentStores {
+    public static final String STORE_PROPERTY = "crdt.store";
+    public static final String DIRECTORY_PROPERTY = "crdt.store.dir";
+    public static final String SNAPSHOT_PROPERTY = "crdt.store.snapshot";
+
+    private SegmentStores() { }
+
+    private static String getStore() {
+        String store = System.getProperty(STORE_PROPERTY, "memory");
+        if ("file".equals(store) || "memory".equals(store) || "snapshot".equals(store)) {
+            return store;
+        } else {
+            throw new IllegalArgumentException("Invalid value for " + STORE_PROPERTY + ": " + store);
+        }
+    }
+
+    /**
+     * @return  {@code true} if a {@link FileStore} is configured, {@code false}
+     *          if a {@link MemoryStore} or a snapshot store is configured.
+     */
+    public static boolean isFileStore() {
+        return "file".equals(getStore());
+    }
+
+    /**
+     * @return  {@code true} if a file store starting from a {@link SnapshotImage}
+     *          is configured.
+     */
+    public static boolean isSnapshotStore() {
+        return "snapshot".equals(getStore());
+    }
+
+    /**
+     * @param name     name of the image
+     * @param content  description of the initial content of the image, e.g. the
+     *                 node type definitions registered and the nodes created
+     * @return  directory of the snapshot image of the given {@code name} and {@code content}
+     */
+    public static File getSnapshotImage(String name, String... content) {
+        String directory = System.getProperty(SNAPSHOT_PROPERTY);
+        String hash = Hashing.sha1().hashString(Joiner.on('\n').useForNull("").join(content), Charsets.UTF_8)
+                .toString().substring(0, 12);
+        return new File(directory == null
+                ? new File(System.getProperty("java.io.tmpdir"), "oak-crdt-snapshot")
+                : new File(directory), name + '-' + hash);
+    }
+
+    /**
+     * Create a new segment store as configured by the system properties
+     * @param image  image to start from if a snapshot store is configured
+     * @return  a new segment store
+     * @throws IOException
+     */
+    public static SegmentStore newSegmentStore(SnapshotImage image) throws IOException {
+        if (isFileStore() || isSnapshotStore()) {
+            String directory = System.getProperty(DIRECTORY_PROPERTY);
+            File dir = directory == null ? Files.createTempDir() : new File(directory);
+            return isSnapshotStore() ? image.open(dir) : newFileStore(dir);
+        } else {
+            return new MemoryStore();
+        }
+    }
+
+    /**
+     * Create a new file store with memory mapped tar files
+     * @param directory  directory of the tar files
+     * @return  a new file store
+     * @throws IOException
+     */
+    public static FileStore newFileStore(File directory) throws IOException {
+        return FileStore.newFileStore(directory)
+                .withMemoryMapping(true)
+                .create();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore.newSegmentNodeStore;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.io.Files;
+import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+
+/**
+ * Snapshot image of an initialized repository. The image is a directory
+ * containing the tar files of a {@link FileStore}. It is built once by running
+ * an {@link Initializer} against a new file store. Afterwards each call to
+ * {@link #open(File)} starts from a private copy of the image instead of
+ * initializing the repository again. Changes to the copy do not affect the image.
+ * <p>
+ * An image is built into a temporary directory first, which is then renamed
+ * to the image directory. Concurrent builders therefore never see partial
+ * images. Delete the image directory to have the image rebuilt. See
+ * {@link SegmentStores#getSnapshotImage(String, String...)} for image
+ * directories, which change along with the initial content.
+ */
+public final class SnapshotImage {
+    private static final String LOCK_FILE = "repo.lock";
+
+    /**
+     * Initializer for the content of an image
+     */
+    public interface Initializer {
+
+        /**
+         * Initialize the content of the image
+         * @param store  the node store backing the image
+         * @throws Exception
+         */
+        void initialize(NodeStore store) throws Exception;
+    }
+
+    private final File image;
+    private final Initializer initializer;
+
+    /**
+     * @param image        directory of the image
+     * @param initializer  initializer for building the image if it does not exist
+     */
+    public SnapshotImage(File image, Initializer initializer) {
+        this.image = image;
+        this.initializer = initializer;
+    }
+
+    /**
+     * @return  the directory of this image
+     */
+    public File getImage() {
+        return image;
+    }
+
+    /**
+     * @return  {@code true} if this image has been built
+     */
+    public boolean exists() {
+        return image.isDirectory();
+    }
+
+    /**
+     * Build this image unless it exists already
+     * @throws IOException
+     */
+    public synchronized void build() throws IOException {
+        if (exists()) {
+            return;
+        }
+
+        File parent = image.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        File tmp = new File(parent, image.getName() + '.' + System.nanoTime() + ".tmp");
+        FileStore store = SegmentStores.newFileStore(tmp);
+        try {
+            initializer.initialize(newSegmentNodeStore(store).create());
+        } catch (Exception e) {
+            store.close();
+            delete(tmp);
+            throw new IOException("Failed to initialize snapshot image " + image, e);
+        }
+        store.close();
+
+        if (!tmp.renameTo(image)) {
+            delete(tmp);
+            if (!exists()) {
+                throw new IOException("Cannot create snapshot image " + image);
+            }
+        }
+    }
+
+    /**
+     * Open a new file store from a copy of this image. The image is built first
+     * if it does not exist. A store already present in {@code directory} is
+     * opened as is instead of being overwritten by the image.
+     * @param directory  directory to copy the image to. This becomes the directory
+     *                   of the returned file store.
+     * @return  a new file store with the content of this image or the store
+     *          already present in {@code directory}
+     * @throws IOException  if {@code directory} contains other files than a store
+     */
+    public FileStore open(File directory) throws IOException {
+        if (containsStore(directory)) {
+            return SegmentStores.newFileStore(directory);
+        }
+        String[] existing = directory.list();
+        if (existing != null && existing.length > 0) {
+            throw new IOException("Cannot copy snapshot image to non empty directory " + directory);
+        }
+
+        build();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        File[] files = image.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot read snapshot image " + image);
+        }
+        for (File file : files) {
+            if (file.isFile() && !LOCK_FILE.equals(file.getName())) {
+                Files.copy(file, new File(directory, file.getName()));
+            }
+        }
+        return SegmentStores.newFileStore(directory);
+    }
+
+    private static boolean containsStore(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(".tar")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delete {@code file} and all its descendants
+     */
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET_CND;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER;
+import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER_CND;
+import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER;
+import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER_CND;
+import static michid.crdt.plugins.TraceRecorder.MAGIC;
+import static michid.crdt.plugins.TraceRecorder.OP_COMMIT;
+import static michid.crdt.plugins.TraceRecorder.OP_INCREMENT;
+import static michid.crdt.plugins.TraceRecorder.OP_LWW_UPDATE;
+import static michid.crdt.plugins.TraceRecorder.OP_MV_WRITE;
+import static michid.crdt.plugins.TraceRecorder.OP_SET_ADD;
+import static michid.crdt.plugins.TraceRecorder.OP_SET_REMOVE;
+import static michid.crdt.plugins.TraceRecorder.VERSION;
+import static michid.crdt.plugins.TraceRecorder.readVarLong;
+import static michid.crdt.plugins.TraceRecorder.unZigZag;
+import static org.apache.jackrabbit.commons.cnd.CndImporter.registerNodeTypes;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_INCREMENT;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Credentials;
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.Node;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import michid.crdt.plugins.TraceRecorder;
+import org.apache.jackrabbit.commons.cnd.ParseException;
+
+/**
+ * Replayer for traces recorded by {@link TraceRecorder}. Each recorded commit
+ * is replayed as a save of a session. Commits are dispatched at the recorded
+ * times divided by a speed factor to a pool of workers. When the workers fall
+ * behind, commits are replayed concurrently, which increases contention just
+ * as it would have in the recorded system.
+ * <p>
+ * Recorded nodes are replayed as nodes of the respective CRDT type under
+ * {@code /replay}. Their names are derived from the anonymous node ids of
+ * the trace. Hashed values are replayed as long values.
+ */
+public class TraceReplayer {
+    public static final String REPLAY_PATH = "/replay";
+
+    private static final int MAX_RETRIES = 100;
+
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<Long, String> paths = Maps.newHashMap();
+
+    private final Repository repository;
+    private final Credentials credentials;
+    private final int workers;
+    private final double speed;
+
+    private long commits;
+
+    /**
+     * @param repository   repository to replay the trace against
+     * @param credentials  credentials for logging into {@code repository}
+     * @param workers      number of concurrent workers
+     * @param speed        speed factor. {@code 1} replays at the recorded speed,
+     *                     {@code 10} ten times faster. {@code 0} replays as fast
+     *                     as possible.
+     */
+    public TraceReplayer(Repository repository, Credentials credentials, int workers, double speed) {
+        this.repository = repository;
+        this.credentials = credentials;
+        this.workers = workers;
+        this.speed = speed;
+    }
+
+    /**
+     * Replay {@code trace} and wait for all commits to complete.
+     * @param trace  trace file written by {@link TraceRecorder}
+     * @return  the number of commits replayed
+     * @throws IOException  if the trace is malformed
+     */
+    public long replay(File trace) throws IOException, RepositoryException, InterruptedException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(trace)));
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        Session session = repository.login(credentials);
+        try {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("Not a trace file: " + trace);
+            }
+            registerCrdtTypes(session);
+
+            long start = System.nanoTime();
+            long due = 0;
+            while (true) {
+                int op;
+                try {
+                    op = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (op != OP_COMMIT) {
+                    throw new IOException("Malformed trace. Expected commit but found " + op);
+                }
+
+                long delay = readVarLong(in);
+                final List<Operation> ops = readOperations(in, session);
+                if (speed > 0) {
+                    due += (long) (MILLISECONDS.toNanos(delay) / speed);
+                    long wait = due - (System.nanoTime() - start);
+                    if (wait > 0) {
+                        NANOSECONDS.sleep(wait);
+                    }
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        commit(ops);
+                    }
+                });
+                commits++;
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+            session.logout();
+            in.close();
+        }
+        return commits;
+    }
+
+    private List<Operation> readOperations(DataInputStream in, Session session)
+            throws IOException, RepositoryException {
+        long count = readVarLong(in);
+        List<Operation> ops = Lists.newArrayList();
+        for (long k = 0; k < count; k++) {
+            int op = in.readUnsignedByte();
+            String path = getPath(session, op, readVarLong(in));
+            if (op == OP_INCREMENT) {
+                ops.add(new Operation(op, path, new long[] {unZigZag(readVarLong(in))}));
+            } else {
+                long[] values = new long[(int) readVarLong(in)];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = readVarLong(in);
+                }
+                ops.add(new Operation(op, path, values));
+            }
+        }
+        return ops;
+    }
+
+    /**
+     * Map the node id of the trace to a path, creating the node of the
+     * CRDT type implied by {@code op} on first occurrence.
+     */
+    private String getPath(Session session, int op, long id) throws IOException, RepositoryException {
+        String path = paths.get(id);
+        if (path == null) {
+            String mixin;
+            switch (op) {
+                case OP_INCREMENT: mixin = "mix:atomicCounter"; break;
+                case OP_SET_ADD:
+                case OP_SET_REMOVE: mixin = MIX_ATOMIC_SET; break;
+                case OP_LWW_UPDATE: mixin = MIX_LWW_REGISTER; break;
+                case OP_MV_WRITE: mixin = MIX_MV_REGISTER; break;
+                default: throw new IOException("Malformed trace. Unknown operation " + op);
+            }
+
+            Node root = session.getRootNode();
+            Node replay = root.hasNode(REPLAY_PATH.substring(1))
+                ? root.getNode(REPLAY_PATH.substring(1))
+                : root.addNode(REPLAY_PATH.substring(1));
+            String name = "n" + id;
+            if (!replay.hasNode(name)) {
+                replay.addNode(name).addMixin(mixin);
+                session.save();
+            }
+            path = REPLAY_PATH + '/' + name;
+            paths.put(id, path);
+        }
+        return path;
+    }
+
+    private void commit(List<Operation> ops) {
+        try {
+            Session session = repository.login(credentials);
+            try {
+                for (int retry = 0; ; retry++) {
+                    try {
+                        for (Operation op : ops) {
+                            op.apply(session, Long.toString(sequence.incrementAndGet()));
+                        }
+                        session.save();
+                        operations.addAndGet(ops.size());
+                        return;
+                    } catch (InvalidItemStateException e) {
+                        conflicts.incrementAndGet();
+                        session.refresh(false);
+                        if (retry >= MAX_RETRIES) {
+                            throw e;
+                        }
+                    }
+                }
+            } finally {
+                session.logout();
+            }
+        } catch (RepositoryException e) {
+            errors.incrementAndGet();
+        }
+    }
+
+    private static void registerCrdtTypes(Session session) throws RepositoryException, IOException {
+        for (String cnd : new String[] {MIX_ATOMIC_SET_CND, MIX_LWW_REGISTER_CND, MIX_MV_REGISTER_CND}) {
+            try {
+                registerNodeTypes(new InputStreamReader(new ByteArrayInputStream(cnd.getBytes())), session);
+            } catch (ParseException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * @return  number of operations replayed successfully
+     */
+    public long getOperationCount() {
+        return operations.get();
+    }
+
+    /**
+     * @return  number of saves retried because of conflicts
+     */
+    public long getConflictCount() {
+        return conflicts.get();
+    }
+
+    /**
+     * @return  number of commits that failed to replay
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    private static class Operation {
+        private final int op;
+        private final String path;
+        private final long[] values;
+
+        Operation(int op, String path, long[] values) {
+            this.op = op;
+            this.path = path;
+            this.values = values;
+        }
+
+        /**
+         * Apply this operation to {@code session}
+         * @param id  id unique across all concurrent sessions for naming
+         *            {@code add-}, {@code remove-} and {@code update-} properties
+         */
+        void apply(Session session, String id) throws RepositoryException {
+            Node node = session.getNode(path);
+            switch (op) {
+                case OP_INCREMENT:
+                    node.setProperty(PROP_INCREMENT, values[0]);
+                    break;
+                case OP_SET_ADD:
+                    node.setProperty(ATOMIC_SET_ADD + id, toValues(session, values));
+                    break;
+                case OP_SET_REMOVE:
+                    node.setProperty(ATOMIC_SET_REMOVE + id, toValues(session, values));
+                    break;
+                case OP_LWW_UPDATE:
+                    node.setProperty(LWW_UPDATE + id, values.length > 0 ? values[0] : 0);
+                    break;
+                case OP_MV_WRITE:
+                    node.setProperty("value", toValues(session, values));
+                    break;
+            }
+        }
+
+        private static Value[] toValues(Session session, long[] longs) throws RepositoryException {
+            ValueFactory vf = session.getValueFactory();
+            Value[] values = new Value[longs.length];
+            for (int k = 0; k < longs.length; k++) {
+                values[k] = vf.createValue(longs[k]);
+            }
+            return values;
+        }
+    }
+}
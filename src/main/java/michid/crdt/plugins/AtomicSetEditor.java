@@ -22,10 +22,14 @@ package michid.crdt.plugins;
 import static com.google.common.collect.Iterables.addAll;
 import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Iterables.getFirst;
-import static com.google.common.collect.Iterators.contains;
 import static com.google.common.collect.Lists.newArrayList;
-import static org.apache.jackrabbit.JcrConstants.JCR_MIXINTYPES;
-import static org.apache.jackrabbit.oak.api.Type.NAMES;
+import static michid.crdt.plugins.CrdtType.ATOMIC_SET;
+import static michid.crdt.plugins.StringDictionary.ATOMIC_SET_CODES;
+import static michid.crdt.plugins.StringDictionary.ENCODING;
+import static michid.crdt.plugins.StringDictionary.ENCODING_DICTIONARY;
+import static michid.crdt.plugins.StringDictionary.isEncoded;
+import static michid.crdt.plugins.StringDictionary.isString;
+import static org.apache.jackrabbit.oak.plugins.memory.PropertyStates.createProperty;
 
 import java.util.List;
 import java.util.Set;
@@ -34,7 +38,6 @@ import com.google.common.collect.Sets;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Type;
-import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
 import org.apache.jackrabbit.oak.spi.commit.Editor;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
@@ -45,69 +48,153 @@ import org.apache.jackrabbit.oak.spi.state.NodeState;
  * <p>
  * The current values of the set are available via the {@code values}
  * property. Additions and removals are recorded via the {@code add-}
- * and {@code remove-} properties, respectively.
+ * and {@code remove-} properties, respectively. These can be single or
+ * multi valued. The latter allows adding or removing many values at once.
+ * <p>
+ * Sets of strings can opt into dictionary encoding of their members, see
+ * {@link StringDictionary}. The {@link CrdtPolicy} passed to the editor
+ * can enable dictionary encoding and limit the size of sets per path.
  */
-public class AtomicSetEditor extends DefaultEditor {
+public class AtomicSetEditor extends CrdtEditor {
     public static final String MIX_ATOMIC_SET = "mix:atomicSet";
     public static final String MIX_ATOMIC_SET_CND = '[' + MIX_ATOMIC_SET + "]  mixin";
     public static final String ATOMIC_SET_ADD = "add-";
     public static final String ATOMIC_SET_REMOVE = "remove-";
     public static final String ATOMIC_SET_VALUES = "values";
 
-    private final List<PropertyState> additions = newArrayList();
-    private final List<PropertyState> deletions = newArrayList();
-
-    private final NodeBuilder builder;
-    private final boolean isAtomicSet;
+    // Allocated on the first addition or deletion
+    private List<PropertyState> additions;
+    private List<PropertyState> deletions;
 
     public AtomicSetEditor(NodeBuilder builder) {
-        this.builder = builder;
-        isAtomicSet = hasMixin(builder, MIX_ATOMIC_SET);
-        if (isAtomicSet) {
-            PropertyState initial = builder.getProperty(ATOMIC_SET_VALUES);
-            if (initial != null) {
-                additions.add(initial);
-            }
-        }
+        super(builder);
+    }
+
+    public AtomicSetEditor(NodeBuilder builder, CrdtPolicy policy) {
+        super(builder, policy);
+    }
+
+    private AtomicSetEditor(AtomicSetEditor parent, String name, CrdtPolicy policy) {
+        super(parent, name, policy);
+    }
+
+    @Override
+    protected Editor newChildEditor(String name, CrdtPolicy policy) {
+        return new AtomicSetEditor(this, name, policy);
     }
 
     @Override
     public void leave(NodeState before, NodeState after) throws CommitFailedException {
-        if (isAtomicSet) {
-            PropertyState initial = getFirst(concat(additions, deletions), null);
-            if (initial != null) {
-                applyChanges(builder, ATOMIC_SET_VALUES, initial.getType(), additions, deletions);
+        if (additions != null) {
+            NodeBuilder builder = getBuilder();
+            PropertyState values = applyChanges(getRootBuilder(), builder, getPolicy(), additions, deletions);
+            if (values != null) {
+                checkSize(getPolicy(), values, after);
+                builder.setProperty(values);
             }
         }
     }
 
-    @Override
-    public void propertyAdded(PropertyState after) throws CommitFailedException {
-        if (isAtomicSet && !after.isArray()) {
-            String name = after.getName();
-            if (name.startsWith(ATOMIC_SET_ADD)) {
-                additions.add(after);
-                builder.removeProperty(name);
-            } else if (name.startsWith(ATOMIC_SET_REMOVE)) {
-                deletions.add(after);
-                builder.removeProperty(name);
+    /**
+     * Apply additions and deletions to a set. String members are dictionary encoded
+     * if {@code policy} or the set itself asks for it.
+     * @param root       builder of the root node, which holds the dictionary
+     * @param set        builder of the set
+     * @param policy     policy for the set
+     * @param additions  the initial values of the set followed by the values to add
+     * @param deletions  the values to remove
+     * @return  a new {@code values} or {@code :codes} property or {@code null} if there
+     *          are neither additions nor deletions
+     * @throws CommitFailedException  if non string values are added to a dictionary encoded set
+     */
+    static PropertyState applyChanges(NodeBuilder root, NodeBuilder set, CrdtPolicy policy,
+            List<PropertyState> additions, List<PropertyState> deletions) throws CommitFailedException {
+        PropertyState first = getFirst(concat(additions, deletions), null);
+        boolean encoded = policy.isDictionaryEncoded() || isEncoded(set) || set.hasProperty(ATOMIC_SET_CODES);
+        if (first != null && encoded && isString(first)) {
+            PropertyState codes = StringDictionary.applyChanges(
+                    root, set.getProperty(ATOMIC_SET_CODES), additions, deletions);
+            set.removeProperty(ATOMIC_SET_VALUES);
+            if (!isEncoded(set)) {
+                // Mark the set as encoded for readers that cannot see hidden properties
+                set.setProperty(ENCODING, ENCODING_DICTIONARY);
             }
+            return codes;
+        } else if (first != null && set.hasProperty(ATOMIC_SET_CODES)) {
+            throw new CommitFailedException(CommitFailedException.CONSTRAINT, 2,
+                    "Dictionary encoded sets only hold strings: " + first);
+        } else {
+            return applyChanges(additions, deletions);
         }
     }
 
-    @Override
-    public Editor childNodeAdded(String name, NodeState after) throws CommitFailedException {
-        return new AtomicSetEditor(builder.getChildNode(name));
+    /**
+     * Check the new values of a set against the maximal size given by {@code policy}.
+     * Sets already exceeding that size may shrink or keep their size.
+     * @param policy  policy for the set
+     * @param values  the new {@code values} or {@code :codes} property of the set
+     * @param set     the set before applying the changes
+     * @throws CommitFailedException  if the set grows beyond its maximal size
+     */
+    static void checkSize(CrdtPolicy policy, PropertyState values, NodeState set) throws CommitFailedException {
+        if (values.count() > policy.getMaxSize() && values.count() > getSize(set)) {
+            throw new CommitFailedException(CommitFailedException.CONSTRAINT, 1,
+                    "Atomic set exceeds maximal size of " + policy.getMaxSize() + ": " + values.count());
+        }
+    }
+
+    private static int getSize(NodeState set) {
+        PropertyState values = set.getProperty(ATOMIC_SET_VALUES);
+        if (values == null) {
+            values = set.getProperty(ATOMIC_SET_CODES);
+        }
+        return values == null ? 0 : values.count();
     }
 
     @Override
-    public Editor childNodeChanged(String name, NodeState before, NodeState after) throws CommitFailedException {
-        return new AtomicSetEditor(builder.getChildNode(name));
+    public void propertyAdded(PropertyState after) throws CommitFailedException {
+        String name = after.getName();
+        if (name.startsWith(ATOMIC_SET_ADD) && isType(ATOMIC_SET)) {
+            initChanges();
+            additions.add(after);
+            getBuilder().removeProperty(name);
+        } else if (name.startsWith(ATOMIC_SET_REMOVE) && isType(ATOMIC_SET)) {
+            initChanges();
+            deletions.add(after);
+            getBuilder().removeProperty(name);
+        }
+    }
+
+    private void initChanges() {
+        if (additions == null) {
+            additions = newArrayList();
+            deletions = newArrayList();
+            PropertyState initial = getBuilder().getProperty(ATOMIC_SET_VALUES);
+            if (initial != null) {
+                additions.add(initial);
+            }
+        }
     }
 
-    private static <T> void applyChanges(NodeBuilder parent, String name, Type<T> type,
+    /**
+     * Apply additions and deletions to the values of a set.
+     * @param additions  the initial values of the set followed by the values to add
+     * @param deletions  the values to remove
+     * @return  a new {@code values} property or {@code null} if there are neither
+     *          additions nor deletions
+     */
+    static PropertyState applyChanges(List<PropertyState> additions, List<PropertyState> deletions) {
+        PropertyState initial = getFirst(concat(additions, deletions), null);
+        if (initial == null) {
+            return null;
+        } else {
+            return applyChanges(initial.getType(), additions, deletions);
+        }
+    }
+
+    private static <T> PropertyState applyChanges(Type<T> type,
             List<PropertyState> additions, List<PropertyState> deletions) {
-        parent.setProperty(name, getValues(type, additions, deletions), arrayType(type));
+        return createProperty(ATOMIC_SET_VALUES, getValues(type, additions, deletions), arrayType(type));
     }
 
     private static <T> Iterable<T> getValues(Type<T> type,
@@ -153,10 +240,4 @@ public class AtomicSetEditor extends DefaultEditor {
             return (Type<Iterable<T>>) type.getArrayType();
         }
     }
-
-    private static boolean hasMixin(NodeBuilder builder, String name) {
-        PropertyState mixin = builder.getProperty(JCR_MIXINTYPES);
-        return mixin != null && contains(mixin.getValue(NAMES).iterator(), name);
-    }
-
 }
@@ -19,23 +19,44 @@
 
 package michid.crdt.plugins;
 
+import static michid.crdt.plugins.CrdtType.ATOMIC_SET;
+
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Service;
-import org.apache.jackrabbit.oak.api.CommitFailedException;
-import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.Editor;
 import org.apache.jackrabbit.oak.spi.commit.EditorProvider;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
-import org.apache.jackrabbit.oak.spi.state.NodeState;
 
+/**
+ * Provider for the editors of atomic sets.
+ */
 @Component
 @Service(EditorProvider.class)
-public class AtomicSetEditorProvider implements EditorProvider {
+public class AtomicSetEditorProvider extends CrdtEditorProvider {
+    private final StringDictionary dictionary = new StringDictionary();
+
+    /**
+     * Create a new instance with its own, unconfigured {@link CrdtPolicyService}
+     */
+    public AtomicSetEditorProvider() {
+        this(new CrdtPolicyService());
+    }
+
+    public AtomicSetEditorProvider(CrdtPolicyService policyService) {
+        super(policyService, ATOMIC_SET);
+    }
+
+    /**
+     * @return  the dictionary for decoding the members of dictionary encoded
+     *          sets. It caches decoded members across calls.
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
 
     @Override
-    public Editor getRootEditor(NodeState before, NodeState after, NodeBuilder builder,
-            CommitInfo info) throws CommitFailedException {
-        return new AtomicSetEditor(builder);
+    protected Editor newRootEditor(NodeBuilder builder, CrdtPolicy policy) {
+        return new AtomicSetEditor(builder, policy);
     }
 
 }
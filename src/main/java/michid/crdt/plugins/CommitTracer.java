@@ -0,0 +1,550 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static michid.crdt.plugins.CrdtType.getTypes;
+import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorProvider;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.commit.PartialConflictHandler;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Tracer attributing the latency of sampled commits to the phases of a commit:
+ * <ul>
+ *     <li>conflict resolution: time spent in conflict handlers
+ *     {@link #wrap(PartialConflictHandler) wrapped} by this tracer while
+ *     rebasing the commit,</li>
+ *     <li>hooks: time from running the commit hooks until the last wrapped
+ *     root editor is left, summed over all attempts,</li>
+ *     <li>editors: time spent in the callbacks of each editor
+ *     {@link #wrap(String, EditorProvider) wrapped} by this tracer. The
+ *     remainder of the hook time is spent in the diff and other hooks,</li>
+ *     <li>retries: the number of times the commit hooks were run again for
+ *     the same commit and</li>
+ *     <li>persistence: time from the end of the hooks until this tracer is
+ *     notified as {@link Observer} of the commit.</li>
+ * </ul>
+ * Additionally each trace lists the paths and CRDT types of the nodes changed
+ * by the commit. For a tracer to see a commit, it must be registered as
+ * {@code Observer} of the repository.
+ * <p>
+ * Commits are sampled by the identity of their {@link CommitInfo}. Commits
+ * without commit info cannot be correlated and are never traced. Commits not
+ * sampled only incur a single lookup per wrapped provider. Completed traces
+ * are kept in a lock free ring buffer of fixed capacity, which can be
+ * {@link #dump(File) dumped} on demand.
+ */
+public class CommitTracer implements Observer {
+    public static final int MAX_NODES = 16;
+
+    private final int sampleInterval;
+    private final AtomicReferenceArray<Trace> traces;
+    private final AtomicLong traceCount = new AtomicLong();
+
+    /** Traces of commits in progress. Weak keys compare by identity. */
+    private final Cache<CommitInfo, Trace> active = CacheBuilder.newBuilder().weakKeys().build();
+
+    /** Conflict resolution time of the current thread not yet attributed to a commit */
+    private final ThreadLocal<long[]> conflicts = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    /**
+     * @param sampleInterval  trace about one in {@code sampleInterval} commits
+     * @param capacity        number of traces to keep
+     */
+    public CommitTracer(int sampleInterval, int capacity) {
+        checkArgument(sampleInterval > 0);
+        checkArgument(capacity > 0);
+        this.sampleInterval = sampleInterval;
+        this.traces = new AtomicReferenceArray<Trace>(capacity);
+    }
+
+    /**
+     * Trace of a single commit
+     */
+    public static final class Trace {
+        private final String sessionId;
+        private final long time = System.currentTimeMillis();
+        private final Map<String, Long> editorNanos = Maps.newLinkedHashMap();
+        private final Set<String> nodes = Sets.newLinkedHashSet();
+
+        private Object owner;
+        private int attempts;
+        private int conflictCount;
+        private long conflictNanos;
+        private long hookStart;
+        private long hookEnd;
+        private long hookNanos;
+        private long persistNanos;
+
+        Trace(String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+
+        /**
+         * @return  time the commit hooks were first run in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public int getRetries() {
+            return attempts - 1;
+        }
+
+        public int getConflictCount() {
+            return conflictCount;
+        }
+
+        public long getConflictNanos() {
+            return conflictNanos;
+        }
+
+        public long getHookNanos() {
+            return hookNanos;
+        }
+
+        /**
+         * @return  time spent per wrapped editor provider
+         */
+        public Map<String, Long> getEditorNanos() {
+            return Collections.unmodifiableMap(editorNanos);
+        }
+
+        public long getPersistNanos() {
+            return persistNanos;
+        }
+
+        /**
+         * @return  paths and CRDT types of up to {@link #MAX_NODES} changed CRDT nodes
+         */
+        public Set<String> getNodes() {
+            return Collections.unmodifiableSet(nodes);
+        }
+
+        private void startAttempt(Object owner, long[] conflicts) {
+            if (this.owner == null) {
+                this.owner = owner;
+            }
+            if (this.owner == owner) {
+                if (attempts > 0) {
+                    hookNanos += hookEnd - hookStart;
+                }
+                attempts++;
+                hookStart = System.nanoTime();
+                hookEnd = hookStart;
+            }
+            conflictNanos += conflicts[0];
+            conflictCount += conflicts[1];
+        }
+
+        private void addEditorNanos(String name, long nanos) {
+            Long total = editorNanos.get(name);
+            editorNanos.put(name, total == null ? nanos : total + nanos);
+        }
+
+        private void addNode(String path, NodeState after) {
+            if (nodes.size() < MAX_NODES) {
+                Set<CrdtType> types = getTypes(after);
+                if (!types.isEmpty()) {
+                    nodes.add(path + ' ' + types);
+                }
+            }
+        }
+
+        private void complete() {
+            hookNanos += hookEnd - hookStart;
+            persistNanos = System.nanoTime() - hookEnd;
+        }
+
+        @Override
+        public String toString() {
+            return time + " session=" + sessionId +
+                    " retries=" + getRetries() +
+                    " conflicts=" + conflictCount +
+                    " conflictMs=" + toMillis(conflictNanos) +
+                    " hookMs=" + toMillis(hookNanos) +
+                    " editorMs=" + toMillis(editorNanos) +
+                    " persistMs=" + toMillis(persistNanos) +
+                    " nodes=" + nodes;
+        }
+
+        private static Map<String, Double> toMillis(Map<String, Long> nanos) {
+            Map<String, Double> millis = Maps.newLinkedHashMap();
+            for (Map.Entry<String, Long> entry : nanos.entrySet()) {
+                millis.put(entry.getKey(), toMillis(entry.getValue()));
+            }
+            return millis;
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / (double) MILLISECONDS.toNanos(1);
+        }
+    }
+
+    /**
+     * Wrap an editor provider such that the time spent in its editors is traced
+     * @param name      name of the provider in the traces
+     * @param provider  the provider to wrap
+     * @return  an editor provider delegating to {@code provider}
+     */
+    public EditorProvider wrap(final String name, final EditorProvider provider) {
+        return new EditorProvider() {
+            @Override
+            public Editor getRootEditor(NodeState before, NodeState after, NodeBuilder builder,
+                    CommitInfo info) throws CommitFailedException {
+                Trace trace = startAttempt(this, info);
+                Editor editor = provider.getRootEditor(before, after, builder, info);
+                if (trace == null || editor == null) {
+                    return editor;
+                } else {
+                    return new TracingEditor(trace, name, editor, null, "/");
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap a conflict handler such that the time spent in it is traced
+     * @param handler  the handler to wrap
+     * @return  a conflict handler delegating to {@code handler}
+     */
+    public PartialConflictHandler wrap(final PartialConflictHandler handler) {
+        return new TracingConflictHandler(handler);
+    }
+
+    private Trace startAttempt(Object owner, CommitInfo info) {
+        long[] pending = conflicts.get();
+        Trace trace = null;
+        if (info != null && info != CommitInfo.EMPTY) {
+            trace = active.getIfPresent(info);
+            if (trace == null && (System.identityHashCode(info) & Integer.MAX_VALUE) % sampleInterval == 0) {
+                trace = new Trace(info.getSessionId());
+                active.put(info, trace);
+            }
+            if (trace != null) {
+                trace.startAttempt(owner, pending);
+            }
+        }
+        pending[0] = 0;
+        pending[1] = 0;
+        return trace;
+    }
+
+    @Override
+    public void contentChanged(NodeState root, CommitInfo info) {
+        if (info != null && info != CommitInfo.EMPTY) {
+            Trace trace = active.getIfPresent(info);
+            if (trace != null) {
+                active.invalidate(info);
+                trace.complete();
+                traces.set((int) (traceCount.getAndIncrement() % traces.length()), trace);
+            }
+        }
+    }
+
+    /**
+     * @return  the number of traces recorded so far
+     */
+    public long getTraceCount() {
+        return traceCount.get();
+    }
+
+    /**
+     * @return  the traces currently kept, oldest first
+     */
+    public List<Trace> getTraces() {
+        List<Trace> result = Lists.newArrayList();
+        long count = traceCount.get();
+        for (long k = Math.max(0, count - traces.length()); k < count; k++) {
+            Trace trace = traces.get((int) (k % traces.length()));
+            if (trace != null) {
+                result.add(trace);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write the traces currently kept to a file, one trace per line
+     * @param file  file to write to
+     * @throws IOException
+     */
+    public void dump(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), UTF_8));
+        try {
+            for (Trace trace : getTraces()) {
+                writer.println(trace);
+            }
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Error writing traces to " + file);
+        }
+    }
+
+    private static class TracingEditor implements Editor {
+        private final Trace trace;
+        private final String name;
+        private final Editor editor;
+        private final TracingEditor parent;
+        private final String path;
+
+        TracingEditor(Trace trace, String name, Editor editor, TracingEditor parent, String path) {
+            this.trace = trace;
+            this.name = name;
+            this.editor = editor;
+            this.parent = parent;
+            this.path = path;
+        }
+
+        private Editor wrap(Editor child, String childName) {
+            return child == null ? null : new TracingEditor(trace, name, child, this, concat(path, childName));
+        }
+
+        private void record(long start) {
+            trace.addEditorNanos(name, System.nanoTime() - start);
+        }
+
+        @Override
+        public void enter(NodeState before, NodeState after) throws CommitFailedException {
+            trace.addNode(path, after);
+            long start = System.nanoTime();
+            try {
+                editor.enter(before, after);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public void leave(NodeState before, NodeState after) throws CommitFailedException {
+            long start = System.nanoTime();
+            try {
+                editor.leave(before, after);
+            } finally {
+                record(start);
+                if (parent == null) {
+                    trace.hookEnd = System.nanoTime();
+                }
+            }
+        }
+
+        @Override
+        public void propertyAdded(PropertyState after) throws CommitFailedException {
+            long start = System.nanoTime();
+            try {
+                editor.propertyAdded(after);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public void propertyChanged(PropertyState before, PropertyState after) throws CommitFailedException {
+            long start = System.nanoTime();
+            try {
+                editor.propertyChanged(before, after);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public void propertyDeleted(PropertyState before) throws CommitFailedException {
+            long start = System.nanoTime();
+            try {
+                editor.propertyDeleted(before);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public Editor childNodeAdded(String name, NodeState after) throws CommitFailedException {
+            long start = System.nanoTime();
+            try {
+                return wrap(editor.childNodeAdded(name, after), name);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public Editor childNodeChanged(String name, NodeState before, NodeState after) throws CommitFailedException {
+            long start = System.nanoTime();
+            try {
+                return wrap(editor.childNodeChanged(name, before, after), name);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public Editor childNodeDeleted(String name, NodeState before) throws CommitFailedException {
+            long start = System.nanoTime();
+            try {
+                return wrap(editor.childNodeDeleted(name, before), name);
+            } finally {
+                record(start);
+            }
+        }
+    }
+
+    private class TracingConflictHandler implements PartialConflictHandler {
+        private final PartialConflictHandler handler;
+
+        TracingConflictHandler(PartialConflictHandler handler) {
+            this.handler = handler;
+        }
+
+        private void record(long start) {
+            long[] pending = conflicts.get();
+            pending[0] += System.nanoTime() - start;
+            pending[1]++;
+        }
+
+        @Override
+        public Resolution addExistingProperty(NodeBuilder parent, PropertyState ours, PropertyState theirs) {
+            long start = System.nanoTime();
+            try {
+                return handler.addExistingProperty(parent, ours, theirs);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public Resolution changeDeletedProperty(NodeBuilder parent, PropertyState ours) {
+            long start = System.nanoTime();
+            try {
+                return handler.changeDeletedProperty(parent, ours);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public Resolution changeChangedProperty(NodeBuilder parent, PropertyState ours, PropertyState theirs) {
+            long start = System.nanoTime();
+            try {
+                return handler.changeChangedProperty(parent, ours, theirs);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public Resolution deleteDeletedProperty(NodeBuilder parent, PropertyState ours) {
+            long start = System.nanoTime();
+            try {
+                return handler.deleteDeletedProperty(parent, ours);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public Resolution deleteChangedProperty(NodeBuilder parent, PropertyState theirs) {
+            long start = System.nanoTime();
+            try {
+                return handler.deleteChangedProperty(parent, theirs);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public Resolution addExistingNode(NodeBuilder parent, String name, NodeState ours, NodeState theirs) {
+            long start = System.nanoTime();
+            try {
+                return handler.addExistingNode(parent, name, ours, theirs);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public Resolution changeDeletedNode(NodeBuilder parent, String name, NodeState ours) {
+            long start = System.nanoTime();
+            try {
+                return handler.changeDeletedNode(parent, name, ours);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public Resolution deleteChangedNode(NodeBuilder parent, String name, NodeState theirs) {
+            long start = System.nanoTime();
+            try {
+                return handler.deleteChangedNode(parent, name, theirs);
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public Resolution deleteDeletedNode(NodeBuilder parent, String name) {
+            long start = System.nanoTime();
+            try {
+                return handler.deleteDeletedNode(parent, name);
+            } finally {
+                record(start);
+            }
+        }
+    }
+}
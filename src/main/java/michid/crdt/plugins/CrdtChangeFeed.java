@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static com.google.common.collect.Sets.difference;
+import static com.google.common.collect.Sets.newHashSet;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.LWWEditor.LWW_VALUE;
+import static michid.crdt.plugins.CrdtType.ATOMIC_COUNTER;
+import static michid.crdt.plugins.CrdtType.ATOMIC_SET;
+import static michid.crdt.plugins.CrdtType.LWW_REGISTER;
+import static michid.crdt.plugins.CrdtType.MV_REGISTER;
+import static michid.crdt.plugins.CrdtType.getTypes;
+import static michid.crdt.plugins.StringDictionary.ATOMIC_SET_CODES;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_COUNTER;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Sets;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.commit.BackgroundObserver;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorDiff;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Implementation of an {@link Observer} that turns changes to CRDT nodes
+ * into {@link CrdtDelta}s: members added to or removed from atomic sets,
+ * changes of atomic counters, new winners of LWW registers and new values
+ * of MV registers. Deltas are derived from the materialized values before
+ * and after each change such that they only contain effective changes. The
+ * members of dictionary encoded sets are decoded.
+ * <p>
+ * Deltas are put into a bounded queue for consumers to {@link #take()}. When
+ * the queue is full, {@link #contentChanged(NodeState, CommitInfo)} blocks until
+ * consumers catch up. To keep this back pressure from blocking commits, wrap
+ * this observer into a {@link BackgroundObserver}. The diff between the last
+ * seen state and the current state covers all changes in between such that
+ * no deltas are lost when the background observer collapses queued changes.
+ * When interrupted while waiting for consumers, the last seen state is kept
+ * such that the next change is diffed against it again. Deltas already put
+ * into the queue before the interruption are then delivered a second time.
+ */
+public class CrdtChangeFeed implements Observer {
+    private final BlockingQueue<CrdtDelta> queue;
+    private final StringDictionary dictionary;
+
+    private NodeState previous;
+
+    /**
+     * @param capacity    capacity of the queue of deltas
+     * @param dictionary  dictionary for decoding the members of dictionary encoded sets
+     */
+    public CrdtChangeFeed(int capacity, StringDictionary dictionary) {
+        this.queue = new ArrayBlockingQueue<CrdtDelta>(capacity);
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @param capacity  capacity of the queue of deltas
+     */
+    public CrdtChangeFeed(int capacity) {
+        this(capacity, new StringDictionary());
+    }
+
+    @Override
+    public synchronized void contentChanged(NodeState root, CommitInfo info) {
+        if (previous != null) {
+            CommitFailedException e = EditorDiff.process(new DeltaEditor(previous, root, "/"), previous, root);
+            if (e != null) {
+                // Only thrown when interrupted while waiting for consumers. Keep
+                // the previous state such that the remaining deltas are not lost.
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        previous = root;
+    }
+
+    /**
+     * Retrieve and remove the next delta, waiting for one to become available.
+     * @return  the next delta
+     * @throws InterruptedException
+     */
+    public CrdtDelta take() throws InterruptedException {
+        return queue.take();
+    }
+
+    /**
+     * Retrieve and remove the next delta, waiting up to the given time for
+     * one to become available.
+     * @return  the next delta or {@code null} if none became available
+     * @throws InterruptedException
+     */
+    public CrdtDelta poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    /**
+     * Remove up to {@code max} deltas and add them to {@code deltas}
+     * @return  number of deltas removed
+     */
+    public int drainTo(Collection<? super CrdtDelta> deltas, int max) {
+        return queue.drainTo(deltas, max);
+    }
+
+    private void emit(CrdtDelta delta) throws CommitFailedException {
+        try {
+            queue.put(delta);
+        } catch (InterruptedException e) {
+            throw new CommitFailedException(CommitFailedException.OAK, 0, "Interrupted", e);
+        }
+    }
+
+    private class DeltaEditor extends DefaultEditor {
+        private final NodeState rootBefore;
+        private final NodeState rootAfter;
+        private final String path;
+
+        DeltaEditor(NodeState rootBefore, NodeState rootAfter, String path) {
+            this.rootBefore = rootBefore;
+            this.rootAfter = rootAfter;
+            this.path = path;
+        }
+
+        @Override
+        public void leave(NodeState before, NodeState after) throws CommitFailedException {
+            Set<CrdtType> types = getTypes(after);
+            if (types.contains(ATOMIC_SET)) {
+                Set<Object> valuesBefore = getSetValues(rootBefore, before);
+                Set<Object> valuesAfter = getSetValues(rootAfter, after);
+                if (!valuesBefore.equals(valuesAfter)) {
+                    emit(new CrdtDelta.SetDelta(path,
+                            newHashSet(difference(valuesAfter, valuesBefore)),
+                            newHashSet(difference(valuesBefore, valuesAfter))));
+                }
+            }
+            if (types.contains(ATOMIC_COUNTER)) {
+                long delta = getLong(after.getProperty(PROP_COUNTER)) - getLong(before.getProperty(PROP_COUNTER));
+                if (delta != 0) {
+                    emit(new CrdtDelta.CounterDelta(path, delta));
+                }
+            }
+            if (types.contains(LWW_REGISTER)) {
+                PropertyState valueBefore = before.getProperty(LWW_VALUE);
+                PropertyState valueAfter = after.getProperty(LWW_VALUE);
+                if (valueAfter != null && !Objects.equal(valueBefore, valueAfter)) {
+                    emit(new CrdtDelta.LWWDelta(path, getValue(valueBefore), getValue(valueAfter)));
+                }
+            }
+            if (types.contains(MV_REGISTER)) {
+                PropertyState valueBefore = before.getProperty("value");
+                PropertyState valueAfter = after.getProperty("value");
+                if (valueAfter != null && !Objects.equal(valueBefore, valueAfter)) {
+                    emit(new CrdtDelta.MVDelta(path, getValues(valueBefore), getValues(valueAfter)));
+                }
+            }
+        }
+
+        @Override
+        public Editor childNodeAdded(String name, NodeState after) throws CommitFailedException {
+            return new DeltaEditor(rootBefore, rootAfter, concat(path, name));
+        }
+
+        @Override
+        public Editor childNodeChanged(String name, NodeState before, NodeState after) throws CommitFailedException {
+            return new DeltaEditor(rootBefore, rootAfter, concat(path, name));
+        }
+
+        @Override
+        public Editor childNodeDeleted(String name, NodeState before) throws CommitFailedException {
+            return null;
+        }
+    }
+
+    /**
+     * @return  the members of {@code set}, decoded if the set is dictionary encoded
+     */
+    private Set<Object> getSetValues(NodeState root, NodeState set) {
+        if (set.hasProperty(ATOMIC_SET_CODES)) {
+            return Sets.<Object>newHashSet(dictionary.getMembers(root, set));
+        } else {
+            return getValues(set.getProperty(ATOMIC_SET_VALUES));
+        }
+    }
+
+    private static long getLong(PropertyState property) {
+        return property == null ? 0 : property.getValue(LONG);
+    }
+
+    private static Object getValue(PropertyState property) {
+        if (property == null) {
+            return null;
+        } else if (property.isArray()) {
+            return property.count() == 0 ? null : property.getValue(property.getType().getBaseType(), 0);
+        } else {
+            return property.getValue(property.getType());
+        }
+    }
+
+    private static Set<Object> getValues(PropertyState property) {
+        if (property == null) {
+            return Collections.emptySet();
+        } else if (property.isArray()) {
+            Type<?> type = property.getType().getBaseType();
+            Set<Object> values = newHashSet();
+            for (int k = 0; k < property.count(); k++) {
+                values.add(property.getValue(type, k));
+            }
+            return values;
+        } else {
+            return Collections.<Object>singleton(property.getValue(property.getType()));
+        }
+    }
+
+}
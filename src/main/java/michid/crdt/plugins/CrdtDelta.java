@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static java.util.Collections.disjoint;
+
+import java.util.Set;
+
+/**
+ * Semantic change of the value of a CRDT node as reported by the
+ * {@link CrdtChangeFeed}.
+ */
+public abstract class CrdtDelta {
+    private final String path;
+
+    protected CrdtDelta(String path) {
+        this.path = path;
+    }
+
+    /**
+     * @return  path of the CRDT node
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Members added to or removed from a {@code mix:atomicSet}
+     */
+    public static class SetDelta extends CrdtDelta {
+        private final Set<Object> added;
+        private final Set<Object> removed;
+
+        public SetDelta(String path, Set<Object> added, Set<Object> removed) {
+            super(path);
+            this.added = added;
+            this.removed = removed;
+        }
+
+        public Set<Object> getAdded() {
+            return added;
+        }
+
+        public Set<Object> getRemoved() {
+            return removed;
+        }
+
+        @Override
+        public String toString() {
+            return "SetDelta{" + getPath() + ", added=" + added + ", removed=" + removed + '}';
+        }
+    }
+
+    /**
+     * Change of the value of a {@code mix:atomicCounter}
+     */
+    public static class CounterDelta extends CrdtDelta {
+        private final long delta;
+
+        public CounterDelta(String path, long delta) {
+            super(path);
+            this.delta = delta;
+        }
+
+        public long getDelta() {
+            return delta;
+        }
+
+        @Override
+        public String toString() {
+            return "CounterDelta{" + getPath() + ", delta=" + delta + '}';
+        }
+    }
+
+    /**
+     * Change of the winning value of a {@code mix:lwwRegister}
+     */
+    public static class LWWDelta extends CrdtDelta {
+        private final Object before;
+        private final Object after;
+
+        public LWWDelta(String path, Object before, Object after) {
+            super(path);
+            this.before = before;
+            this.after = after;
+        }
+
+        /**
+         * @return  the previous value or {@code null} if there was none
+         */
+        public Object getBefore() {
+            return before;
+        }
+
+        public Object getAfter() {
+            return after;
+        }
+
+        @Override
+        public String toString() {
+            return "LWWDelta{" + getPath() + ", before=" + before + ", after=" + after + '}';
+        }
+    }
+
+    /**
+     * Change of the values of a {@code mix:mvRegister}
+     */
+    public static class MVDelta extends CrdtDelta {
+        private final Set<Object> before;
+        private final Set<Object> values;
+
+        public MVDelta(String path, Set<Object> before, Set<Object> values) {
+            super(path);
+            this.before = before;
+            this.values = values;
+        }
+
+        /**
+         * @return  the previous values, empty if there were none
+         */
+        public Set<Object> getBefore() {
+            return before;
+        }
+
+        public Set<Object> getValues() {
+            return values;
+        }
+
+        /**
+         * A write replaces all previous values of a register. A merge of concurrent
+         * writes keeps the previous values along with the new ones.
+         * @return  {@code true} if this change added values to the register while
+         *          keeping some of its previous values because of concurrent writes.
+         */
+        public boolean isWidened() {
+            return !disjoint(before, values) && !before.containsAll(values);
+        }
+
+        @Override
+        public String toString() {
+            return "MVDelta{" + getPath() + ", before=" + before + ", values=" + values + '}';
+        }
+    }
+}
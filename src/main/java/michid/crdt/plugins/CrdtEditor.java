@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static michid.crdt.plugins.CrdtType.getTypes;
+
+import java.util.Set;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Base class for the editors of the CRDT types. It keeps the per node cost
+ * of editors low for nodes without CRDT changes, which are the majority in
+ * most commits:
+ * <ul>
+ *     <li>Nodes are classified once from the {@code after} state on
+ *     {@link #enter(NodeState, NodeState)}. This does not allocate for
+ *     nodes without mixins.</li>
+ *     <li>Child builders are only resolved when an editor actually needs to
+ *     modify its node. Child editors only hold a reference to their parent
+ *     and their name.</li>
+ *     <li>The {@link CrdtPolicy} of a child is looked up once from the policy
+ *     of its parent and passed to the child editor. Subtrees disabled by the
+ *     policy are not traversed.</li>
+ * </ul>
+ * Subclasses should defer any further allocation until they encounter a
+ * change to a node of their type.
+ */
+abstract class CrdtEditor extends DefaultEditor {
+    private final CrdtEditor parent;
+    private final String name;
+    private final CrdtPolicy policy;
+
+    private NodeBuilder builder;
+    private Set<CrdtType> types;
+
+    protected CrdtEditor(NodeBuilder builder) {
+        this(builder, CrdtPolicy.DEFAULT);
+    }
+
+    protected CrdtEditor(NodeBuilder builder, CrdtPolicy policy) {
+        this.parent = null;
+        this.name = null;
+        this.policy = policy;
+        this.builder = builder;
+    }
+
+    protected CrdtEditor(CrdtEditor parent, String name, CrdtPolicy policy) {
+        this.parent = parent;
+        this.name = name;
+        this.policy = policy;
+    }
+
+    /**
+     * Create the editor for the child of the given {@code name}
+     * @param name    name of the child
+     * @param policy  the policy for the child, already resolved from the policy of this editor
+     */
+    protected abstract Editor newChildEditor(String name, CrdtPolicy policy);
+
+    @Override
+    public void enter(NodeState before, NodeState after) throws CommitFailedException {
+        types = getTypes(after);
+    }
+
+    /**
+     * @return  {@code true} if the node of this editor is of the given {@code type}.
+     *          Only valid after {@link #enter(NodeState, NodeState)}.
+     */
+    protected final boolean isType(CrdtType type) {
+        return types.contains(type);
+    }
+
+    /**
+     * @return  the builder of the node of this editor
+     */
+    protected final NodeBuilder getBuilder() {
+        if (builder == null) {
+            builder = parent.getBuilder().getChildNode(name);
+        }
+        return builder;
+    }
+
+    /**
+     * @return  the builder of the root node of the commit
+     */
+    protected final NodeBuilder getRootBuilder() {
+        CrdtEditor root = this;
+        while (root.parent != null) {
+            root = root.parent;
+        }
+        return root.builder;
+    }
+
+    /**
+     * @return  the policy for the node of this editor
+     */
+    protected final CrdtPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public Editor childNodeAdded(String name, NodeState after) throws CommitFailedException {
+        return newChildEditor(name);
+    }
+
+    @Override
+    public Editor childNodeChanged(String name, NodeState before, NodeState after) throws CommitFailedException {
+        return newChildEditor(name);
+    }
+
+    private Editor newChildEditor(String name) {
+        CrdtPolicy child = policy.getChild(name);
+        return child.isEnabled() ? newChildEditor(name, child) : null;
+    }
+}
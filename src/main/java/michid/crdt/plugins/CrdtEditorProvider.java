@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorProvider;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Base class for the providers of the CRDT editors. All providers apply
+ * the {@link CrdtPolicy} of their CRDT types from the {@link CrdtPolicyService}
+ * they reference. No editor is created if the policy disables the root.
+ */
+@Component(componentAbstract = true)
+public abstract class CrdtEditorProvider implements EditorProvider {
+    private final CrdtType[] types;
+
+    @Reference
+    private volatile CrdtPolicyService policyService;
+
+    protected CrdtEditorProvider(CrdtPolicyService policyService, CrdtType... types) {
+        this.policyService = policyService;
+        this.types = types;
+    }
+
+    protected void bindPolicyService(CrdtPolicyService policyService) {
+        this.policyService = policyService;
+    }
+
+    protected void unbindPolicyService(CrdtPolicyService policyService) {
+        if (this.policyService == policyService) {
+            this.policyService = new CrdtPolicyService();
+        }
+    }
+
+    /**
+     * @return  the service providing the {@link CrdtPolicy} of the editors
+     */
+    public CrdtPolicyService getPolicyService() {
+        return policyService;
+    }
+
+    /**
+     * Create the editor for the root of a commit
+     * @param builder  builder of the root
+     * @param policy   policy for the root
+     */
+    protected abstract Editor newRootEditor(NodeBuilder builder, CrdtPolicy policy);
+
+    @Override
+    public final Editor getRootEditor(NodeState before, NodeState after, NodeBuilder builder,
+            CommitInfo info) throws CommitFailedException {
+        CrdtPolicy policy = policyService.getPolicy(types);
+        return policy.isEnabled() ? newRootEditor(builder, policy) : null;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static michid.crdt.plugins.CrdtType.ATOMIC_SET;
+import static michid.crdt.plugins.CrdtType.DISABLE_WINS_FLAG;
+import static michid.crdt.plugins.CrdtType.ENABLE_WINS_FLAG;
+import static michid.crdt.plugins.CrdtType.LWW_ELEMENT_SET;
+import static michid.crdt.plugins.CrdtType.LWW_REGISTER;
+import static michid.crdt.plugins.CrdtType.ORDERED_SET;
+import static michid.crdt.plugins.CrdtType.TWO_PHASE_SET;
+import static org.apache.jackrabbit.oak.commons.PathUtils.elements;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * Immutable policy binding path patterns to settings for the editors of a
+ * CRDT type. A policy is configured from entries of the form
+ * {@code <pattern>;<key>=<value>;...}. Patterns are absolute paths where
+ * {@code *} matches any single name. Settings apply to all nodes matching
+ * the pattern and their descendants. Settings of more specific patterns
+ * override those of less specific ones and explicit names override
+ * {@code *}. The keys are:
+ * <ul>
+ *     <li>{@value #TYPE}: mixin of the CRDT type the entry applies to. Entries
+ *     without a type apply to all types. The other keys of an entry with a
+ *     type must apply to that type.</li>
+ *     <li>{@value #ENABLED}: {@code false} to skip the subtree entirely.
+ *     Nodes below a disabled node are not processed as CRDTs regardless of
+ *     their settings: changes to them are stored as they are. Defaults to
+ *     {@code true}. Applies to all types with an editor of this package.</li>
+ *     <li>{@value #MAX_SIZE}: maximal number of values of an atomic set.
+ *     Commits growing a set beyond fail. Sets already beyond can still
+ *     shrink. Defaults to no limit. Applies to atomic sets only.</li>
+ *     <li>{@value #ENCODING}: {@code dictionary} to dictionary encode string
+ *     valued atomic sets, see {@link StringDictionary}, or {@code none} to
+ *     leave the choice to the {@code encoding} property of the set. Sets
+ *     stay encoded once they are. Applies to atomic sets only.</li>
+ * </ul>
+ * Example: {@code /content/*}{@code /tags;type=mix:atomicSet;encoding=dictionary;maxSize=10000}.
+ * <p>
+ * The policy is kept as a trie of path elements with the effective settings
+ * of each node precomputed. Editors descend the trie along with the node
+ * tree with a single map lookup per child and no allocation.
+ *
+ * @see CrdtPolicyService
+ */
+public final class CrdtPolicy {
+    public static final String TYPE = "type";
+    public static final String ENABLED = "enabled";
+    public static final String MAX_SIZE = "maxSize";
+    public static final String ENCODING = "encoding";
+
+    private static final String ENCODING_NONE = "none";
+    private static final String WILDCARD = "*";
+
+    /** Keys applying to each CRDT type */
+    private static final Map<CrdtType, Set<String>> KEYS = ImmutableMap.<CrdtType, Set<String>>builder()
+            .put(ATOMIC_SET, ImmutableSet.of(ENABLED, MAX_SIZE, ENCODING))
+            .put(LWW_REGISTER, ImmutableSet.of(ENABLED))
+            .put(TWO_PHASE_SET, ImmutableSet.of(ENABLED))
+            .put(LWW_ELEMENT_SET, ImmutableSet.of(ENABLED))
+            .put(ORDERED_SET, ImmutableSet.of(ENABLED))
+            .put(ENABLE_WINS_FLAG, ImmutableSet.of(ENABLED))
+            .put(DISABLE_WINS_FLAG, ImmutableSet.of(ENABLED))
+            .build();
+
+    /** Policy without any settings */
+    public static final CrdtPolicy DEFAULT = new Builder().build(Collections.<String, String>emptyMap());
+
+    private final boolean enabled;
+    private final long maxSize;
+    private final boolean dictionaryEncoded;
+    private final Map<String, CrdtPolicy> children;
+    private final CrdtPolicy wildcard;
+
+    /** Policy with the same settings but without children */
+    private final CrdtPolicy leaf;
+
+    private CrdtPolicy(Map<String, String> settings, Map<String, CrdtPolicy> children, CrdtPolicy wildcard) {
+        this.enabled = Boolean.parseBoolean(get(settings, ENABLED, "true"));
+        this.maxSize = Long.parseLong(get(settings, MAX_SIZE, String.valueOf(Long.MAX_VALUE)));
+        this.dictionaryEncoded = StringDictionary.ENCODING_DICTIONARY.equals(get(settings, ENCODING, ENCODING_NONE));
+        this.children = children;
+        this.wildcard = wildcard;
+        this.leaf = children.isEmpty() && wildcard == null
+                ? this
+                : new CrdtPolicy(settings, Collections.<String, CrdtPolicy>emptyMap(), null);
+    }
+
+    private static String get(Map<String, String> settings, String key, String defaultValue) {
+        String value = settings.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Validate policy entries
+     * @param entries  entries of the form {@code <pattern>;<key>=<value>;...}
+     * @throws IllegalArgumentException  if an entry is not valid
+     */
+    public static void validate(String... entries) {
+        parse(Collections.<CrdtType>emptySet(), entries);
+    }
+
+    /**
+     * Parse the policy for the editor of the given CRDT {@code types} from its
+     * entries. An editor materializing more than one type applies the entries
+     * of all its types.
+     * @param types    the CRDT types
+     * @param entries  entries of the form {@code <pattern>;<key>=<value>;...}
+     * @return  the policy for the root node
+     * @throws IllegalArgumentException  if an entry is not valid
+     */
+    public static CrdtPolicy parse(Set<CrdtType> types, String... entries) {
+        Builder root = new Builder();
+        for (String entry : entries) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int k = entry.indexOf(';');
+            String pattern = k < 0 ? entry : entry.substring(0, k);
+            checkArgument(pattern.startsWith("/"), "Pattern must be an absolute path: %s", entry);
+
+            Map<String, String> settings = k < 0
+                    ? Collections.<String, String>emptyMap()
+                    : Splitter.on(';').omitEmptyStrings().trimResults()
+                            .withKeyValueSeparator('=').split(entry.substring(k + 1));
+            CrdtType type = getType(settings.get(TYPE), entry);
+            for (Map.Entry<String, String> setting : settings.entrySet()) {
+                String key = setting.getKey();
+                if (!TYPE.equals(key)) {
+                    validate(key, setting.getValue(), entry);
+                    checkArgument(type == null || KEYS.get(type).contains(key),
+                            "%s does not apply to %s: %s", key, type, entry);
+                }
+            }
+
+            if (type == null || types.contains(type)) {
+                Builder builder = root;
+                for (String name : elements(pattern)) {
+                    builder = builder.child(name);
+                }
+                for (Map.Entry<String, String> setting : settings.entrySet()) {
+                    if (appliesTo(setting.getKey(), types)) {
+                        builder.settings.put(setting.getKey(), setting.getValue());
+                    }
+                }
+            }
+        }
+        return root.build(Collections.<String, String>emptyMap());
+    }
+
+    private static CrdtType getType(String mixin, String entry) {
+        if (mixin == null) {
+            return null;
+        }
+        CrdtType type = CrdtType.get(mixin);
+        checkArgument(type != null && KEYS.containsKey(type), "No policy applies to type %s: %s", mixin, entry);
+        return type;
+    }
+
+    private static boolean appliesTo(String key, Set<CrdtType> types) {
+        for (CrdtType type : types) {
+            if (KEYS.get(type).contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void validate(String key, String value, String entry) {
+        if (ENABLED.equals(key)) {
+            checkArgument("true".equals(value) || "false".equals(value), "Invalid value for %s: %s", key, entry);
+        } else if (MAX_SIZE.equals(key)) {
+            try {
+                checkArgument(Long.parseLong(value) >= 0, "Invalid value for %s: %s", key, entry);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + key + ": " + entry, e);
+            }
+        } else if (ENCODING.equals(key)) {
+            checkArgument(ENCODING_NONE.equals(value) || StringDictionary.ENCODING_DICTIONARY.equals(value),
+                    "Invalid value for %s: %s", key, entry);
+        } else {
+            throw new IllegalArgumentException("Unknown key " + key + ": " + entry);
+        }
+    }
+
+    private static class Builder {
+        final Map<String, String> settings = Maps.newHashMap();
+        final Map<String, Builder> children = Maps.newHashMap();
+
+        Builder child(String name) {
+            Builder child = children.get(name);
+            if (child == null) {
+                child = new Builder();
+                children.put(name, child);
+            }
+            return child;
+        }
+
+        /**
+         * Merge {@code other} into this builder. Settings of this builder take precedence.
+         */
+        void merge(Builder other) {
+            for (Map.Entry<String, String> setting : other.settings.entrySet()) {
+                if (!settings.containsKey(setting.getKey())) {
+                    settings.put(setting.getKey(), setting.getValue());
+                }
+            }
+            for (Map.Entry<String, Builder> child : other.children.entrySet()) {
+                child(child.getKey()).merge(child.getValue());
+            }
+        }
+
+        CrdtPolicy build(Map<String, String> inherited) {
+            Map<String, String> effective = Maps.newHashMap(inherited);
+            effective.putAll(settings);
+
+            Builder wildcard = children.get(WILDCARD);
+            Map<String, CrdtPolicy> built = Maps.newHashMap();
+            for (Map.Entry<String, Builder> child : children.entrySet()) {
+                if (!WILDCARD.equals(child.getKey())) {
+                    if (wildcard != null) {
+                        // Explicit names also match the wildcard
+                        child.getValue().merge(wildcard);
+                    }
+                    built.put(child.getKey(), child.getValue().build(effective));
+                }
+            }
+            return new CrdtPolicy(effective, ImmutableMap.copyOf(built),
+                    wildcard == null ? null : wildcard.build(effective));
+        }
+    }
+
+    /**
+     * @param name  name of a child node
+     * @return  the policy for the child node of the given {@code name}
+     */
+    public CrdtPolicy getChild(String name) {
+        CrdtPolicy child = children.get(name);
+        if (child != null) {
+            return child;
+        } else if (wildcard != null) {
+            return wildcard;
+        } else {
+            return leaf;
+        }
+    }
+
+    /**
+     * @param path  absolute path
+     * @return  the policy for the node at {@code path}
+     */
+    public CrdtPolicy getPolicy(String path) {
+        CrdtPolicy policy = this;
+        for (String name : elements(path)) {
+            policy = policy.getChild(name);
+        }
+        return policy;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return  maximal number of values of atomic sets, {@code Long.MAX_VALUE} for no limit
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return  {@code true} if string valued atomic sets should be dictionary encoded
+     */
+    public boolean isDictionaryEncoded() {
+        return dictionaryEncoded;
+    }
+
+    @Override
+    public String toString() {
+        return "CrdtPolicy{enabled=" + enabled + ", maxSize=" + maxSize +
+                ", dictionaryEncoded=" + dictionaryEncoded + ", children=" + children.keySet() + '}';
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static org.apache.jackrabbit.oak.commons.PropertiesUtil.toStringArray;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.PropertyUnbounded;
+import org.apache.felix.scr.annotations.Service;
+
+/**
+ * Service holding the {@link CrdtPolicy} entries shared by the editor
+ * providers of all CRDT types. The entries are configured through the
+ * {@value #POLICIES} property of this component. Configuration changes
+ * take effect with the next commit.
+ * <p>
+ * The policy of each type is parsed once per configuration and cached
+ * until the configuration changes.
+ */
+@Component(metatype = true, label = "CrdtPolicyService", description = "Path based policies for the CRDT editors")
+@Service(CrdtPolicyService.class)
+public class CrdtPolicyService {
+
+    @Property(unbounded = PropertyUnbounded.ARRAY, value = {},
+            label = "Policies",
+            description = "Path patterns and their settings: <pattern>;<key>=<value>;... " +
+                    "where keys are type, enabled, maxSize and encoding")
+    public static final String POLICIES = "policies";
+
+    private volatile Policies policies = new Policies(new String[0]);
+
+    @Activate
+    @Modified
+    protected void configure(Map<String, ?> config) {
+        setPolicies(toStringArray(config.get(POLICIES), new String[0]));
+    }
+
+    /**
+     * Replace the policy entries. Commits already running keep the
+     * policies they started with.
+     * @param entries  entries of the form {@code <pattern>;<key>=<value>;...}
+     * @throws IllegalArgumentException  if an entry is not valid
+     */
+    public void setPolicies(String... entries) {
+        CrdtPolicy.validate(entries);
+        policies = new Policies(entries.clone());
+    }
+
+    /**
+     * @return  the current policy entries
+     */
+    public List<String> getPolicies() {
+        return Arrays.asList(policies.entries.clone());
+    }
+
+    /**
+     * @param types  the CRDT types materialized by an editor
+     * @return  the policy for that editor
+     */
+    public CrdtPolicy getPolicy(CrdtType... types) {
+        return policies.get(types);
+    }
+
+    private static class Policies {
+        final String[] entries;
+        final ConcurrentMap<List<CrdtType>, CrdtPolicy> byType = Maps.newConcurrentMap();
+
+        Policies(String[] entries) {
+            this.entries = entries;
+        }
+
+        CrdtPolicy get(CrdtType[] types) {
+            List<CrdtType> key = Arrays.asList(types);
+            CrdtPolicy policy = byType.get(key);
+            if (policy == null) {
+                policy = CrdtPolicy.parse(ImmutableSet.copyOf(types), entries);
+                byType.putIfAbsent(key, policy);
+            }
+            return policy;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static org.apache.jackrabbit.JcrConstants.JCR_MIXINTYPES;
+import static org.apache.jackrabbit.oak.api.Type.NAMES;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Type of a CRDT as determined by the mixin of a node. Types are kept in
+ * a registry keyed by mixin name such that the types of a node are found
+ * with a single lookup per mixin of the node. New CRDT types plug in
+ * through {@link #register(String)}.
+ *
+ * @see CrdtTypeResolver
+ */
+public final class CrdtType {
+    private static final ConcurrentMap<String, CrdtType> TYPES = Maps.newConcurrentMap();
+
+    public static final CrdtType ATOMIC_COUNTER = register("mix:atomicCounter");
+    public static final CrdtType ATOMIC_SET = register(AtomicSetEditor.MIX_ATOMIC_SET);
+    public static final CrdtType LWW_REGISTER = register(LWWEditor.MIX_LWW_REGISTER);
+    public static final CrdtType MV_REGISTER = register(MVConflictHandler.MIX_MV_REGISTER);
+    public static final CrdtType TWO_PHASE_SET = register(TwoPhaseSetEditor.MIX_TWO_PHASE_SET);
+    public static final CrdtType LWW_ELEMENT_SET = register(LWWElementSetEditor.MIX_LWW_ELEMENT_SET);
+    public static final CrdtType ORDERED_SET = register(OrderedSetEditor.MIX_ORDERED_SET);
+    public static final CrdtType ENABLE_WINS_FLAG = register(FlagEditor.MIX_ENABLE_WINS_FLAG);
+    public static final CrdtType DISABLE_WINS_FLAG = register(FlagEditor.MIX_DISABLE_WINS_FLAG);
+
+    private final String mixin;
+
+    private CrdtType(String mixin) {
+        this.mixin = mixin;
+    }
+
+    /**
+     * Register a new CRDT type
+     * @param mixin  name of the mixin identifying nodes of the type
+     * @return  the type registered for {@code mixin}
+     */
+    public static CrdtType register(String mixin) {
+        CrdtType type = new CrdtType(mixin);
+        CrdtType existing = TYPES.putIfAbsent(mixin, type);
+        return existing == null ? type : existing;
+    }
+
+    /**
+     * @param mixin  name of a mixin
+     * @return  the type registered for {@code mixin} or {@code null} if none
+     */
+    public static CrdtType get(String mixin) {
+        return TYPES.get(mixin);
+    }
+
+    /**
+     * @return  name of the mixin identifying nodes of this type
+     */
+    public String getMixin() {
+        return mixin;
+    }
+
+    /**
+     * @param node  a node
+     * @return  the CRDT types of {@code node}
+     */
+    public static Set<CrdtType> getTypes(NodeBuilder node) {
+        return getTypes(node.getProperty(JCR_MIXINTYPES));
+    }
+
+    /**
+     * @param node  a node
+     * @return  the CRDT types of {@code node}
+     */
+    public static Set<CrdtType> getTypes(NodeState node) {
+        return getTypes(node.getProperty(JCR_MIXINTYPES));
+    }
+
+    private static Set<CrdtType> getTypes(PropertyState mixins) {
+        if (mixins == null) {
+            return Collections.emptySet();
+        }
+
+        Set<CrdtType> types = Collections.emptySet();
+        for (String mixin : mixins.getValue(NAMES)) {
+            CrdtType type = TYPES.get(mixin);
+            if (type != null) {
+                if (types.isEmpty()) {
+                    types = Collections.singleton(type);
+                } else {
+                    types = Sets.newHashSet(types);
+                    types.add(type);
+                }
+            }
+        }
+        return types;
+    }
+
+    @Override
+    public String toString() {
+        return mixin;
+    }
+}
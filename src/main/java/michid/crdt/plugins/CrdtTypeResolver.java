@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+
+/**
+ * Caching resolver for the {@link CrdtType}s of nodes. Nodes are classified
+ * once and the result is cached by the identity of the {@link NodeBuilder}.
+ * As builders are specific to a commit or a merge, this avoids repeatedly
+ * decoding the mixins of a node within one commit or merge, e.g. when
+ * resolving many conflicting properties of the same node. Entries are
+ * weakly referenced and go away with their builders. Changes to the mixins
+ * of a builder after it has been classified are not reflected.
+ */
+public class CrdtTypeResolver {
+    private final Cache<NodeBuilder, Set<CrdtType>> cache = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build();
+
+    /**
+     * @param node  a node
+     * @return  the CRDT types of {@code node}
+     */
+    public Set<CrdtType> getTypes(final NodeBuilder node) {
+        try {
+            return cache.get(node, new Callable<Set<CrdtType>>() {
+                @Override
+                public Set<CrdtType> call() {
+                    return CrdtType.getTypes(node);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @param node  a node
+     * @param type  a CRDT type
+     * @return  {@code true} if {@code node} is of the given {@code type}
+     */
+    public boolean isType(NodeBuilder node, CrdtType type) {
+        return getTypes(node).contains(type);
+    }
+}
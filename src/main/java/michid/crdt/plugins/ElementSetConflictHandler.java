@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static michid.crdt.plugins.CrdtType.LWW_ELEMENT_SET;
+import static michid.crdt.plugins.CrdtType.TWO_PHASE_SET;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.apache.jackrabbit.oak.api.Type.LONGS;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.PartialConflictHandler;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Implementation of a {@link PartialConflictHandler} merging concurrent
+ * changes to the members of nodes of type {@code mix:twoPhaseSet} and
+ * {@code mix:lwwElementSet} member by member. Conflicts on the {@code e-}
+ * property of a member are resolved by taking the minimum for two phase
+ * sets and the element wise maximum of the time stamps for LWW element
+ * sets. All other conflicts are left to other handlers.
+ *
+ * @see TwoPhaseSetEditor
+ * @see LWWElementSetEditor
+ */
+public class ElementSetConflictHandler implements PartialConflictHandler {
+    private final CrdtTypeResolver resolver = new CrdtTypeResolver();
+
+    @Override
+    public Resolution addExistingProperty(NodeBuilder parent, PropertyState ours, PropertyState theirs) {
+        return merge(parent, ours, theirs);
+    }
+
+    @Override
+    public Resolution changeDeletedProperty(NodeBuilder parent, PropertyState ours) {
+        return isElement(parent, ours) ? Resolution.OURS : null;
+    }
+
+    @Override
+    public Resolution changeChangedProperty(NodeBuilder parent, PropertyState ours, PropertyState theirs) {
+        return merge(parent, ours, theirs);
+    }
+
+    @Override
+    public Resolution deleteDeletedProperty(NodeBuilder parent, PropertyState ours) {
+        return isElement(parent, ours) ? Resolution.MERGED : null;
+    }
+
+    @Override
+    public Resolution deleteChangedProperty(NodeBuilder parent, PropertyState theirs) {
+        return isElement(parent, theirs) ? Resolution.THEIRS : null;
+    }
+
+    @Override
+    public Resolution addExistingNode(NodeBuilder parent, String name, NodeState ours, NodeState theirs) {
+        return null;
+    }
+
+    @Override
+    public Resolution changeDeletedNode(NodeBuilder parent, String name, NodeState ours) {
+        return null;
+    }
+
+    @Override
+    public Resolution deleteChangedNode(NodeBuilder parent, String name, NodeState theirs) {
+        return null;
+    }
+
+    @Override
+    public Resolution deleteDeletedNode(NodeBuilder parent, String name) {
+        return null;
+    }
+
+    private Resolution merge(NodeBuilder parent, PropertyState ours, PropertyState theirs) {
+        String name = ours.getName();
+        Set<CrdtType> types = resolver.getTypes(parent);
+        if (types.contains(TWO_PHASE_SET) && name.startsWith(TwoPhaseSetEditor.ELEMENT)) {
+            parent.setProperty(name, TwoPhaseSetEditor.merge(ours.getValue(LONG), theirs.getValue(LONG)));
+            return Resolution.MERGED;
+        } else if (types.contains(LWW_ELEMENT_SET) && name.startsWith(LWWElementSetEditor.ELEMENT)) {
+            long[] stamps = LWWElementSetEditor.merge(
+                    LWWElementSetEditor.getStamps(ours), LWWElementSetEditor.getStamps(theirs));
+            parent.setProperty(name, Arrays.asList(stamps[0], stamps[1]), LONGS);
+            return Resolution.MERGED;
+        } else {
+            return null;
+        }
+    }
+
+    private boolean isElement(NodeBuilder parent, PropertyState property) {
+        String name = property.getName();
+        Set<CrdtType> types = resolver.getTypes(parent);
+        return (types.contains(TWO_PHASE_SET) && name.startsWith(TwoPhaseSetEditor.ELEMENT))
+            || (types.contains(LWW_ELEMENT_SET) && name.startsWith(LWWElementSetEditor.ELEMENT));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static com.google.common.collect.Iterables.addAll;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Sets.newLinkedHashSet;
+import static michid.crdt.plugins.CrdtType.DISABLE_WINS_FLAG;
+import static michid.crdt.plugins.CrdtType.ENABLE_WINS_FLAG;
+import static org.apache.jackrabbit.oak.api.Type.BOOLEAN;
+import static org.apache.jackrabbit.oak.api.Type.STRINGS;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Implementation of a {@link Editor} such that nodes of type
+ * {@code mix:enableWinsFlag} and {@code mix:disableWinsFlag} behave like
+ * enable wins and disable wins flags, respectively.
+ * <p>
+ * The current state of a flag is available via the boolean {@code enabled}
+ * property. Flags are initially disabled. Enabling and disabling are recorded
+ * via {@code enable-<id>} and {@code disable-<id>} properties, where {@code id}
+ * is unique per operation. Their values must be the tokens of the flag observed
+ * by the client, i.e. the values of its {@code tokens} property or none if it
+ * does not exist.
+ * <p>
+ * The flags are observed remove sets of operation ids: an enable wins flag
+ * keeps the ids of enable operations. Each operation removes the ids it
+ * observed and an enable adds its own id, such that a concurrent enable
+ * survives a disable. The flag is enabled as long as an id is left.
+ * Conversely a disable wins flag keeps the ids of disable operations. It is
+ * enabled if no id is left and it has been enabled before. As operations
+ * replace the ids they observed, a flag holds at most one id per concurrent
+ * operation. Within a single commit the winning operation is applied last.
+ */
+public class FlagEditor extends CrdtEditor {
+    public static final String MIX_ENABLE_WINS_FLAG = "mix:enableWinsFlag";
+    public static final String MIX_ENABLE_WINS_FLAG_CND = '[' + MIX_ENABLE_WINS_FLAG + "]  mixin";
+    public static final String MIX_DISABLE_WINS_FLAG = "mix:disableWinsFlag";
+    public static final String MIX_DISABLE_WINS_FLAG_CND = '[' + MIX_DISABLE_WINS_FLAG + "]  mixin";
+    public static final String FLAG_ENABLE = "enable-";
+    public static final String FLAG_DISABLE = "disable-";
+    public static final String FLAG_TOKENS = "tokens";
+    public static final String FLAG_ENABLED = "enabled";
+
+    // Allocated on the first enable or disable
+    private List<PropertyState> enables;
+    private List<PropertyState> disables;
+
+    public FlagEditor(NodeBuilder builder) {
+        super(builder);
+    }
+
+    public FlagEditor(NodeBuilder builder, CrdtPolicy policy) {
+        super(builder, policy);
+    }
+
+    private FlagEditor(FlagEditor parent, String name, CrdtPolicy policy) {
+        super(parent, name, policy);
+    }
+
+    @Override
+    protected Editor newChildEditor(String name, CrdtPolicy policy) {
+        return new FlagEditor(this, name, policy);
+    }
+
+    @Override
+    public void propertyAdded(PropertyState after) throws CommitFailedException {
+        String name = after.getName();
+        if (name.startsWith(FLAG_ENABLE) && isFlag()) {
+            initChanges();
+            enables.add(after);
+            getBuilder().removeProperty(name);
+        } else if (name.startsWith(FLAG_DISABLE) && isFlag()) {
+            initChanges();
+            disables.add(after);
+            getBuilder().removeProperty(name);
+        }
+    }
+
+    private boolean isFlag() {
+        return isType(ENABLE_WINS_FLAG) || isType(DISABLE_WINS_FLAG);
+    }
+
+    private void initChanges() {
+        if (enables == null) {
+            enables = newArrayList();
+            disables = newArrayList();
+        }
+    }
+
+    @Override
+    public void leave(NodeState before, NodeState after) throws CommitFailedException {
+        if (enables == null) {
+            return;
+        }
+
+        NodeBuilder builder = getBuilder();
+        Set<String> tokens = newLinkedHashSet();
+        PropertyState current = builder.getProperty(FLAG_TOKENS);
+        if (current != null) {
+            addAll(tokens, current.getValue(STRINGS));
+        }
+
+        boolean enabled;
+        removeObserved(tokens, enables);
+        removeObserved(tokens, disables);
+        if (isType(ENABLE_WINS_FLAG)) {
+            addIds(tokens, enables, FLAG_ENABLE);
+            enabled = !tokens.isEmpty();
+        } else {
+            addIds(tokens, disables, FLAG_DISABLE);
+            PropertyState wasEnabled = builder.getProperty(FLAG_ENABLED);
+            enabled = tokens.isEmpty()
+                    && (!enables.isEmpty() || wasEnabled != null && wasEnabled.getValue(BOOLEAN));
+        }
+
+        builder.setProperty(FLAG_TOKENS, tokens, STRINGS);
+        builder.setProperty(FLAG_ENABLED, enabled);
+    }
+
+    private static void removeObserved(Set<String> tokens, List<PropertyState> operations) {
+        for (PropertyState operation : operations) {
+            for (String observed : operation.getValue(STRINGS)) {
+                tokens.remove(observed);
+            }
+        }
+    }
+
+    private static void addIds(Set<String> tokens, List<PropertyState> operations, String prefix) {
+        for (PropertyState operation : operations) {
+            tokens.add(operation.getName().substring(prefix.length()));
+        }
+    }
+
+    /**
+     * @param flag  node state of a flag
+     * @return  {@code true} if the flag is enabled
+     */
+    public static boolean isEnabled(NodeState flag) {
+        PropertyState enabled = flag.getProperty(FLAG_ENABLED);
+        return enabled != null && enabled.getValue(BOOLEAN);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static michid.crdt.plugins.CrdtType.DISABLE_WINS_FLAG;
+import static michid.crdt.plugins.CrdtType.ENABLE_WINS_FLAG;
+
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorProvider;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+
+/**
+ * Provider for the editors of enable wins and disable wins flags.
+ */
+@Component
+@Service(EditorProvider.class)
+public class FlagEditorProvider extends CrdtEditorProvider {
+
+    /**
+     * Create a new instance with its own, unconfigured {@link CrdtPolicyService}
+     */
+    public FlagEditorProvider() {
+        this(new CrdtPolicyService());
+    }
+
+    public FlagEditorProvider(CrdtPolicyService policyService) {
+        super(policyService, ENABLE_WINS_FLAG, DISABLE_WINS_FLAG);
+    }
+
+    @Override
+    protected Editor newRootEditor(NodeBuilder builder, CrdtPolicy policy) {
+        return new FlagEditor(builder, policy);
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static michid.crdt.plugins.LWWEditor.LWW_VALUE;
+import static org.apache.jackrabbit.oak.commons.PathUtils.elements;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.MISSING_NODE;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Implementation of an {@link Observer} that keeps an in memory mirror of
+ * subscribed flags ({@code mix:enableWinsFlag}, {@code mix:disableWinsFlag})
+ * and config values ({@code mix:lwwRegister}). Checking a flag or reading a
+ * config value is a plain memory read instead of a repository read.
+ * <p>
+ * On each change the mirror compares the node states of the subscribed paths
+ * with the ones last seen and only re-reads changed nodes. {@link Listener}s
+ * are notified of changed paths after the mirror has been updated.
+ */
+public class FlagMirror implements Observer {
+
+    /**
+     * Listener notified when a subscribed node changes
+     */
+    public interface Listener {
+        void changed(String path);
+    }
+
+    private static final class Entry {
+        final NodeState state;
+        final boolean enabled;
+        final PropertyState value;
+
+        Entry(NodeState state) {
+            this.state = state;
+            this.enabled = FlagEditor.isEnabled(state);
+            this.value = state.getProperty(LWW_VALUE);
+        }
+    }
+
+    private static final Entry MISSING = new Entry(MISSING_NODE);
+
+    private final ConcurrentMap<String, Entry> entries = Maps.newConcurrentMap();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private NodeState root;
+
+    /**
+     * Subscribe to the flag or config value at {@code path}
+     */
+    public synchronized void subscribe(String path) {
+        if (!entries.containsKey(path)) {
+            entries.put(path, root == null ? MISSING : new Entry(getNode(root, path)));
+        }
+    }
+
+    public synchronized void unsubscribe(String path) {
+        entries.remove(path);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param path  path of a subscribed flag
+     * @return  {@code true} if the flag is enabled, {@code false} if it is
+     *          disabled, does not exist or is not subscribed
+     */
+    public boolean isEnabled(String path) {
+        Entry entry = entries.get(path);
+        return entry != null && entry.enabled;
+    }
+
+    /**
+     * @param path  path of a subscribed config value
+     * @return  the {@code value} property of the LWW register at {@code path}
+     *          or {@code null} if it has none, does not exist or is not subscribed
+     */
+    public PropertyState getValue(String path) {
+        Entry entry = entries.get(path);
+        return entry == null ? null : entry.value;
+    }
+
+    @Override
+    public void contentChanged(NodeState root, CommitInfo info) {
+        List<String> changed = null;
+        synchronized (this) {
+            this.root = root;
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                NodeState state = getNode(root, entry.getKey());
+                if (!state.equals(entry.getValue().state)) {
+                    entry.setValue(new Entry(state));
+                    if (changed == null) {
+                        changed = Lists.newArrayList();
+                    }
+                    changed.add(entry.getKey());
+                }
+            }
+        }
+        if (changed != null) {
+            for (String path : changed) {
+                for (Listener listener : listeners) {
+                    listener.changed(path);
+                }
+            }
+        }
+    }
+
+    private static NodeState getNode(NodeState root, String path) {
+        NodeState node = root;
+        for (String name : elements(path)) {
+            node = node.getChildNode(name);
+        }
+        return node;
+    }
+}
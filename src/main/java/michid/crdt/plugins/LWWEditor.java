@@ -19,15 +19,12 @@
 
 package michid.crdt.plugins;
 
-import static com.google.common.collect.Iterators.contains;
-import static org.apache.jackrabbit.JcrConstants.JCR_MIXINTYPES;
-import static org.apache.jackrabbit.oak.api.Type.NAMES;
+import static michid.crdt.plugins.CrdtType.LWW_REGISTER;
 
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.plugins.memory.PropertyBuilder;
-import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
 import org.apache.jackrabbit.oak.spi.commit.Editor;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
@@ -39,49 +36,54 @@ import org.apache.jackrabbit.oak.spi.state.NodeState;
  * The current value of the register is available via the {@code value}
  * property. Updates are recorded via the {@code update-} property.
  */
-public class LWWEditor extends DefaultEditor {
+public class LWWEditor extends CrdtEditor {
     public static final String MIX_LWW_REGISTER = "mix:lwwRegister";
     public static final String MIX_LWW_REGISTER_CND = '[' + MIX_LWW_REGISTER + "]  mixin";
     public static final String LWW_UPDATE = "update-";
     public static final String LWW_VALUE = "value";
 
-    private final NodeBuilder builder;
-
-    private PropertyState value;
+    // The last update. Only copied into a value on leave.
+    private PropertyState update;
 
     public LWWEditor(NodeBuilder builder) {
-        this.builder = builder;
+        super(builder);
     }
 
-    @Override
-    public void leave(NodeState before, NodeState after) throws CommitFailedException {
-        if (value != null) {
-            builder.setProperty(value);
-        }
+    public LWWEditor(NodeBuilder builder, CrdtPolicy policy) {
+        super(builder, policy);
+    }
+
+    private LWWEditor(LWWEditor parent, String name, CrdtPolicy policy) {
+        super(parent, name, policy);
     }
 
     @Override
-    public void propertyAdded(PropertyState after) throws CommitFailedException {
-        String name = after.getName();
-        if (name.startsWith(LWW_UPDATE) && hasMixin(builder, MIX_LWW_REGISTER)) {
-            Type<?> type = after.isArray() ? after.getType().getBaseType() : after.getType();
-            value = PropertyBuilder.copy(type, after).setName(LWW_VALUE).getPropertyState();
-            builder.removeProperty(name);
-        }
+    protected Editor newChildEditor(String name, CrdtPolicy policy) {
+        return new LWWEditor(this, name, policy);
     }
 
     @Override
-    public Editor childNodeAdded(String name, NodeState after) throws CommitFailedException {
-        return new LWWEditor(builder.getChildNode(name));
+    public void leave(NodeState before, NodeState after) throws CommitFailedException {
+        if (update != null) {
+            getBuilder().setProperty(toValue(update));
+        }
     }
 
     @Override
-    public Editor childNodeChanged(String name, NodeState before, NodeState after) throws CommitFailedException {
-        return new LWWEditor(builder.getChildNode(name));
+    public void propertyAdded(PropertyState after) throws CommitFailedException {
+        String name = after.getName();
+        if (name.startsWith(LWW_UPDATE) && isType(LWW_REGISTER)) {
+            update = after;
+            getBuilder().removeProperty(name);
+        }
     }
 
-    private static boolean hasMixin(NodeBuilder builder, String name) {
-        PropertyState mixin = builder.getProperty(JCR_MIXINTYPES);
-        return mixin != null && contains(mixin.getValue(NAMES).iterator(), name);
+    /**
+     * @param update  an {@code update-} property
+     * @return  a {@code value} property with the value(s) of {@code update}
+     */
+    static PropertyState toValue(PropertyState update) {
+        Type<?> type = update.isArray() ? update.getType().getBaseType() : update.getType();
+        return PropertyBuilder.copy(type, update).setName(LWW_VALUE).getPropertyState();
     }
 }
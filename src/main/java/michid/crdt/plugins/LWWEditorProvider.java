@@ -19,23 +19,35 @@
 
 package michid.crdt.plugins;
 
+import static michid.crdt.plugins.CrdtType.LWW_REGISTER;
+
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Service;
-import org.apache.jackrabbit.oak.api.CommitFailedException;
-import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.Editor;
 import org.apache.jackrabbit.oak.spi.commit.EditorProvider;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
-import org.apache.jackrabbit.oak.spi.state.NodeState;
 
+/**
+ * Provider for the editors of LWW registers.
+ */
 @Component
 @Service(EditorProvider.class)
-public class LWWEditorProvider implements EditorProvider {
+public class LWWEditorProvider extends CrdtEditorProvider {
+
+    /**
+     * Create a new instance with its own, unconfigured {@link CrdtPolicyService}
+     */
+    public LWWEditorProvider() {
+        this(new CrdtPolicyService());
+    }
+
+    public LWWEditorProvider(CrdtPolicyService policyService) {
+        super(policyService, LWW_REGISTER);
+    }
 
     @Override
-    public Editor getRootEditor(NodeState before, NodeState after, NodeBuilder builder,
-            CommitInfo info) throws CommitFailedException {
-        return new LWWEditor(builder);
+    protected Editor newRootEditor(NodeBuilder builder, CrdtPolicy policy) {
+        return new LWWEditor(builder, policy);
     }
 
 }
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.CrdtType.LWW_ELEMENT_SET;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.apache.jackrabbit.oak.api.Type.LONGS;
+import static org.apache.jackrabbit.oak.api.Type.STRING;
+import static org.apache.jackrabbit.util.Text.escapeIllegalJcrChars;
+import static org.apache.jackrabbit.util.Text.unescapeIllegalJcrChars;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Implementation of a {@link Editor} such that nodes of type
+ * {@code mix:lwwElementSet} behave like a last writer wins element set.
+ * <p>
+ * Additions and removals are recorded via the {@code add-} and
+ * {@code remove-} properties, respectively. Each member is stored in its
+ * own {@code e-} property named after the escaped member. Its value is
+ * the pair of the time stamps of the last addition and the last removal.
+ * A member is in the set if its addition is not older than its removal,
+ * i.e. additions win ties. Time stamps are taken when the change is
+ * committed. Concurrent changes to the same member merge by taking the
+ * element wise maximum, see {@link ElementSetConflictHandler}.
+ */
+public class LWWElementSetEditor extends CrdtEditor {
+    public static final String MIX_LWW_ELEMENT_SET = "mix:lwwElementSet";
+    public static final String MIX_LWW_ELEMENT_SET_CND = '[' + MIX_LWW_ELEMENT_SET + "]  mixin";
+    public static final String ELEMENT = "e-";
+
+    private static final int ADDED = 0;
+    private static final int REMOVED = 1;
+
+    private final long timeStamp;
+
+    public LWWElementSetEditor(NodeBuilder builder, long timeStamp) {
+        super(builder);
+        this.timeStamp = timeStamp;
+    }
+
+    public LWWElementSetEditor(NodeBuilder builder, CrdtPolicy policy, long timeStamp) {
+        super(builder, policy);
+        this.timeStamp = timeStamp;
+    }
+
+    private LWWElementSetEditor(LWWElementSetEditor parent, String name, CrdtPolicy policy) {
+        super(parent, name, policy);
+        this.timeStamp = parent.timeStamp;
+    }
+
+    @Override
+    protected Editor newChildEditor(String name, CrdtPolicy policy) {
+        return new LWWElementSetEditor(this, name, policy);
+    }
+
+    @Override
+    public void propertyAdded(PropertyState after) throws CommitFailedException {
+        String name = after.getName();
+        if (name.startsWith(ATOMIC_SET_ADD) && isType(LWW_ELEMENT_SET)) {
+            update(after, ADDED);
+            getBuilder().removeProperty(name);
+        } else if (name.startsWith(ATOMIC_SET_REMOVE) && isType(LWW_ELEMENT_SET)) {
+            update(after, REMOVED);
+            getBuilder().removeProperty(name);
+        }
+    }
+
+    private void update(PropertyState delta, int index) {
+        NodeBuilder builder = getBuilder();
+        for (int k = 0; k < delta.count(); k++) {
+            String name = ELEMENT + escapeIllegalJcrChars(delta.getValue(STRING, k));
+            long[] stamps = {0, 0};
+            stamps[index] = timeStamp;
+            PropertyState element = builder.getProperty(name);
+            if (element != null) {
+                stamps = merge(getStamps(element), stamps);
+            }
+            builder.setProperty(name, Arrays.asList(stamps[ADDED], stamps[REMOVED]), LONGS);
+        }
+    }
+
+    /**
+     * Merge two states of the same member
+     * @return  the element wise maximum of {@code stamps1} and {@code stamps2}
+     */
+    public static long[] merge(long[] stamps1, long[] stamps2) {
+        return new long[] {
+            Math.max(stamps1[ADDED], stamps2[ADDED]),
+            Math.max(stamps1[REMOVED], stamps2[REMOVED])};
+    }
+
+    /**
+     * @param element  an {@code e-} property
+     * @return  the time stamps of the last addition and the last removal
+     */
+    public static long[] getStamps(PropertyState element) {
+        return new long[] {element.getValue(LONG, ADDED), element.getValue(LONG, REMOVED)};
+    }
+
+    /**
+     * @param node  a node of type {@code mix:lwwElementSet}
+     * @return  the members of the set
+     */
+    public static Set<String> getMembers(NodeState node) {
+        Set<String> members = Sets.newHashSet();
+        for (PropertyState element : node.getProperties()) {
+            String name = element.getName();
+            if (name.startsWith(ELEMENT)) {
+                long[] stamps = getStamps(element);
+                if (stamps[ADDED] >= stamps[REMOVED]) {
+                    members.add(unescapeIllegalJcrChars(name.substring(ELEMENT.length())));
+                }
+            }
+        }
+        return members;
+    }
+}
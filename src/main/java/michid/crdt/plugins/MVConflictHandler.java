@@ -20,11 +20,11 @@
 package michid.crdt.plugins;
 
 import static com.google.common.collect.Iterables.addAll;
-import static com.google.common.collect.Iterators.contains;
-import static org.apache.jackrabbit.JcrConstants.JCR_MIXINTYPES;
-import static org.apache.jackrabbit.oak.api.Type.NAMES;
+import static com.google.common.collect.Iterables.limit;
+import static michid.crdt.plugins.CrdtType.MV_REGISTER;
 
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.collect.Sets;
 import org.apache.jackrabbit.oak.api.PropertyState;
@@ -36,14 +36,130 @@ import org.apache.jackrabbit.oak.spi.state.NodeState;
 /**
  * Implementation of a {@link PartialConflictHandler} such that nodes of type
  * {@code mix:mvRegister} behave like a 'multi value' register.
+ * <p>
+ * The number of values of a register can be bounded. When a merge would exceed
+ * the bound, the {@link OverflowPolicy} decides how to proceed. Registers are
+ * unbounded unless a bound is passed to the constructor or set per node through
+ * the {@code maxValues} property. The policy defaults to the one passed to the
+ * constructor and can be overridden per node through the {@code overflowPolicy}
+ * property. Overflows are reported to an {@link OverflowListener}.
  */
 public class MVConflictHandler implements PartialConflictHandler {
     public static final String MIX_MV_REGISTER = "mix:mvRegister";
     public static final String MIX_MV_REGISTER_CND = '[' + MIX_MV_REGISTER + "]  mixin";
+    public static final String MV_MAX_VALUES = "maxValues";
+    public static final String MV_OVERFLOW_POLICY = "overflowPolicy";
+
+    /**
+     * Registers are unbounded by default
+     */
+    public static final int DEFAULT_MAX_VALUES = Integer.MAX_VALUE;
+
+    /**
+     * Policy for merges exceeding the maximal number of values of a register
+     */
+    public enum OverflowPolicy {
+        /**
+         * Keep the newest values up to the maximal number of values. Values
+         * of the change being merged are newer than those of the changes it
+         * is merged with.
+         */
+        KEEP_NEWEST("keepNewest"),
+
+        /**
+         * Collapse to the values of the change being merged. That is, the
+         * register falls back to last writer wins.
+         */
+        LWW("lww"),
+
+        /**
+         * Leave the conflict unresolved, which causes the change being merged
+         * to be rejected unless another conflict handler resolves it.
+         */
+        REJECT("reject");
+
+        private final String name;
+
+        OverflowPolicy(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return  the name of this policy as used in the {@code overflowPolicy} property
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @param name  name of a policy
+         * @return  the policy of the given {@code name} or {@code null} if none
+         */
+        public static OverflowPolicy fromName(String name) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name.equals(name)) {
+                    return policy;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Listener for overflows of registers
+     */
+    public interface OverflowListener {
+        OverflowListener NOOP = new OverflowListener() {
+            @Override
+            public void overflow(String name, int count, int maxValues, OverflowPolicy policy) { }
+        };
+
+        /**
+         * Called when a merge exceeds the maximal number of values of a register
+         * @param name       name of the property of the register
+         * @param count      number of values the merge would result in
+         * @param maxValues  maximal number of values of the register
+         * @param policy     the policy applied
+         */
+        void overflow(String name, int count, int maxValues, OverflowPolicy policy);
+    }
+
+    private final CrdtTypeResolver resolver = new CrdtTypeResolver();
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    private final int maxValues;
+    private final OverflowPolicy policy;
+    private final OverflowListener listener;
+
+    /**
+     * @param maxValues  default for the maximal number of values of a register
+     * @param policy     default policy for merges exceeding {@code maxValues}
+     * @param listener   listener for overflows
+     */
+    public MVConflictHandler(int maxValues, OverflowPolicy policy, OverflowListener listener) {
+        this.maxValues = maxValues;
+        this.policy = policy;
+        this.listener = listener;
+    }
+
+    /**
+     * Create a new instance for unbounded registers. Registers bounded through
+     * their {@code maxValues} property keep their newest values.
+     */
+    public MVConflictHandler() {
+        this(DEFAULT_MAX_VALUES, OverflowPolicy.KEEP_NEWEST, OverflowListener.NOOP);
+    }
+
+    /**
+     * @return  number of overflows so far
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
 
     @Override
     public Resolution addExistingProperty(NodeBuilder parent, PropertyState ours, PropertyState theirs) {
-        if (hasMixin(parent, MIX_MV_REGISTER)) {
+        if (isValue(parent, ours)) {
             return mergeValues(parent, ours.getName(), ours.getType(), ours, theirs);
         } else {
             return null;
@@ -52,7 +168,7 @@ public class MVConflictHandler implements PartialConflictHandler {
 
     @Override
     public Resolution changeDeletedProperty(NodeBuilder parent, PropertyState ours) {
-        if (hasMixin(parent, MIX_MV_REGISTER)) {
+        if (resolver.isType(parent, MV_REGISTER)) {
             return Resolution.OURS;
         } else {
             return null;
@@ -61,7 +177,7 @@ public class MVConflictHandler implements PartialConflictHandler {
 
     @Override
     public Resolution changeChangedProperty(NodeBuilder parent, PropertyState ours, PropertyState theirs) {
-        if (hasMixin(parent, MIX_MV_REGISTER)) {
+        if (isValue(parent, ours)) {
             return mergeValues(parent, ours.getName(), ours.getType(), ours, theirs);
         } else {
             return null;
@@ -70,7 +186,7 @@ public class MVConflictHandler implements PartialConflictHandler {
 
     @Override
     public Resolution deleteDeletedProperty(NodeBuilder parent, PropertyState ours) {
-        if (hasMixin(parent, MIX_MV_REGISTER)) {
+        if (resolver.isType(parent, MV_REGISTER)) {
             return Resolution.MERGED;
         } else {
             return null;
@@ -79,7 +195,7 @@ public class MVConflictHandler implements PartialConflictHandler {
 
     @Override
     public Resolution deleteChangedProperty(NodeBuilder parent, PropertyState theirs) {
-        if (hasMixin(parent, MIX_MV_REGISTER)) {
+        if (resolver.isType(parent, MV_REGISTER)) {
             return Resolution.THEIRS;
         } else {
             return null;
@@ -106,18 +222,70 @@ public class MVConflictHandler implements PartialConflictHandler {
         return null;
     }
 
-    private static boolean hasMixin(NodeBuilder builder, String name) {
-        PropertyState mixin = builder.getProperty(JCR_MIXINTYPES);
-        return mixin != null && contains(mixin.getValue(NAMES).iterator(), name);
+    private boolean isValue(NodeBuilder parent, PropertyState property) {
+        String name = property.getName();
+        return resolver.isType(parent, MV_REGISTER)
+                && !MV_MAX_VALUES.equals(name)
+                && !MV_OVERFLOW_POLICY.equals(name);
     }
 
-    private static <T> Resolution mergeValues(NodeBuilder parent, String name, Type<T> type, PropertyState... ps) {
-        parent.setProperty(name, getValues(type, ps), arrayType(type));
+    /**
+     * Merge the values of {@code ps} into {@code parent}. The values of {@code ps} are
+     * expected in order of decreasing recency.
+     */
+    private <T> Resolution mergeValues(NodeBuilder parent, String name, Type<T> type, PropertyState... ps) {
+        Set<T> values = getValues(type, ps);
+        int max = getMaxValues(parent);
+        if (values.size() > max) {
+            OverflowPolicy policy = getPolicy(parent);
+            overflowCount.incrementAndGet();
+            listener.overflow(name, values.size(), max, policy);
+            switch (policy) {
+                case KEEP_NEWEST:
+                    parent.setProperty(name, limit(values, max), arrayType(type));
+                    return Resolution.MERGED;
+                case LWW:
+                    return Resolution.OURS;
+                default:
+                    return null;
+            }
+        }
+        parent.setProperty(name, values, arrayType(type));
         return Resolution.MERGED;
     }
 
-    private static <T> Iterable<T> getValues(Type<T> type, PropertyState... ps) {
-        Set<T> values = Sets.newHashSet();
+    /**
+     * @return  the {@code maxValues} property of {@code parent} or the configured
+     *          maximum if that property is missing or not a number
+     */
+    private int getMaxValues(NodeBuilder parent) {
+        PropertyState max = parent.getProperty(MV_MAX_VALUES);
+        if (max == null || max.isArray()) {
+            return maxValues;
+        }
+        long value;
+        if (max.getType() == Type.LONG) {
+            value = max.getValue(Type.LONG);
+        } else {
+            try {
+                value = Long.parseLong(max.getValue(Type.STRING).trim());
+            } catch (NumberFormatException e) {
+                return maxValues;
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, value));
+    }
+
+    private OverflowPolicy getPolicy(NodeBuilder parent) {
+        PropertyState name = parent.getProperty(MV_OVERFLOW_POLICY);
+        OverflowPolicy p = name == null || name.isArray()
+            ? null
+            : OverflowPolicy.fromName(name.getValue(Type.STRING));
+        return p == null ? policy : p;
+    }
+
+    private static <T> Set<T> getValues(Type<T> type, PropertyState... ps) {
+        Set<T> values = Sets.newLinkedHashSet();
         for (PropertyState p : ps) {
             if (p.isArray()) {
                 addAll(values, p.getValue(arrayType(type)));
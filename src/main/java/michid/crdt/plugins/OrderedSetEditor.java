@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.CrdtType.ORDERED_SET;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.apache.jackrabbit.oak.api.Type.LONGS;
+import static org.apache.jackrabbit.oak.api.Type.STRINGS;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Implementation of a {@link Editor} such that nodes of type
+ * {@code mix:orderedSet} behave like an atomic set whose members are
+ * kept in order.
+ * <p>
+ * Additions and removals are recorded via the {@code add-} and
+ * {@code remove-} properties just like for {@link AtomicSetEditor}.
+ * Members are kept sorted in hidden chunk child nodes, each holding a
+ * range of at most {@link #MAX_CHUNK_SIZE} members in its {@code values}
+ * property. Chunks split when they grow beyond that size and merge with
+ * their successor when they shrink below a quarter of it. The hidden
+ * {@code :chunks}, {@code :lows} and {@code :sizes} properties of the
+ * set hold the names, the smallest members and the sizes of all chunks
+ * in order. The {@code size} property holds the number of members.
+ * A commit only rewrites the chunks its changes fall into.
+ * <p>
+ * Members must be of a type with a natural order, e.g. strings or longs, and
+ * all members of a set must be of the same type. Other changes fail the commit.
+ * Use {@code michid.crdt.OrderedSet} for range, prefix and rank queries.
+ */
+public class OrderedSetEditor extends CrdtEditor {
+    public static final String MIX_ORDERED_SET = "mix:orderedSet";
+    public static final String MIX_ORDERED_SET_CND = '[' + MIX_ORDERED_SET + "]  mixin";
+    public static final String ORDERED_SET_CHUNKS = ":chunks";
+    public static final String ORDERED_SET_LOWS = ":lows";
+    public static final String ORDERED_SET_SIZES = ":sizes";
+    public static final String ORDERED_SET_NEXT_CHUNK = ":nextChunk";
+    public static final String ORDERED_SET_SIZE = "size";
+    public static final String ORDERED_SET_VALUES = "values";
+    public static final int MAX_CHUNK_SIZE = 512;
+
+    private static final int MIN_CHUNK_SIZE = MAX_CHUNK_SIZE / 4;
+
+    // Allocated on the first addition or deletion
+    private List<PropertyState> additions;
+    private List<PropertyState> deletions;
+
+    public OrderedSetEditor(NodeBuilder builder) {
+        super(builder);
+    }
+
+    public OrderedSetEditor(NodeBuilder builder, CrdtPolicy policy) {
+        super(builder, policy);
+    }
+
+    private OrderedSetEditor(OrderedSetEditor parent, String name, CrdtPolicy policy) {
+        super(parent, name, policy);
+    }
+
+    @Override
+    protected Editor newChildEditor(String name, CrdtPolicy policy) {
+        return name.startsWith(":") ? null : new OrderedSetEditor(this, name, policy);
+    }
+
+    @Override
+    public void propertyAdded(PropertyState after) throws CommitFailedException {
+        String name = after.getName();
+        if (name.startsWith(ATOMIC_SET_ADD) && isType(ORDERED_SET)) {
+            initChanges();
+            additions.add(after);
+            getBuilder().removeProperty(name);
+        } else if (name.startsWith(ATOMIC_SET_REMOVE) && isType(ORDERED_SET)) {
+            initChanges();
+            deletions.add(after);
+            getBuilder().removeProperty(name);
+        }
+    }
+
+    private void initChanges() {
+        if (additions == null) {
+            additions = newArrayList();
+            deletions = newArrayList();
+        }
+    }
+
+    @Override
+    public void leave(NodeState before, NodeState after) throws CommitFailedException {
+        if (additions != null) {
+            applyChanges(getMemberType());
+        }
+    }
+
+    /**
+     * The type of the members is the type of the current members or the type of the
+     * first change if the set is empty. All changes must be of that type.
+     * @throws CommitFailedException  if the members would not have a common, ordered type
+     */
+    private Type<?> getMemberType() throws CommitFailedException {
+        PropertyState lows = getBuilder().getProperty(ORDERED_SET_LOWS);
+        Type<?> type = lows != null && lows.count() > 0
+            ? scalarType(lows.getType())
+            : scalarType(Iterables.concat(additions, deletions).iterator().next().getType());
+        if (type == Type.BINARY) {
+            throw new CommitFailedException(CommitFailedException.CONSTRAINT, 3,
+                    "Members of ordered sets must have a natural order: " + type);
+        }
+        for (PropertyState change : Iterables.concat(additions, deletions)) {
+            if (scalarType(change.getType()) != type) {
+                throw new CommitFailedException(CommitFailedException.CONSTRAINT, 3,
+                        "Members of ordered sets must be of type " + type + ": " + change);
+            }
+        }
+        return type;
+    }
+
+    /**
+     * A chunk of the set. Its values are only loaded when it is modified.
+     */
+    private static class Chunk<T> {
+        final String name;
+        T low;
+        long size;
+        TreeSet<T> values;
+
+        Chunk(String name, T low, long size) {
+            this.name = name;
+            this.low = low;
+            this.size = size;
+        }
+    }
+
+    private <T> void applyChanges(Type<T> type) {
+        NodeBuilder builder = getBuilder();
+        Comparator<T> order = naturalOrder();
+        List<Chunk<T>> chunks = readChunks(builder, type);
+
+        for (PropertyState addition : additions) {
+            for (T value : getValues(type, addition)) {
+                if (chunks.isEmpty()) {
+                    chunks.add(newChunk(builder, order));
+                }
+                load(builder, type, order, chunks.get(route(chunks, value, order))).add(value);
+            }
+        }
+        for (PropertyState deletion : deletions) {
+            for (T value : getValues(type, deletion)) {
+                if (!chunks.isEmpty()) {
+                    load(builder, type, order, chunks.get(route(chunks, value, order))).remove(value);
+                }
+            }
+        }
+
+        List<Chunk<T>> result = newArrayList();
+        for (int k = 0; k < chunks.size(); k++) {
+            Chunk<T> chunk = chunks.get(k);
+            if (chunk.values == null) {
+                result.add(chunk);
+                continue;
+            }
+
+            // Merge small chunks with their successor
+            while (chunk.values.size() < MIN_CHUNK_SIZE && k + 1 < chunks.size()
+                    && chunk.values.size() + size(chunks.get(k + 1)) <= MAX_CHUNK_SIZE) {
+                Chunk<T> next = chunks.get(++k);
+                chunk.values.addAll(load(builder, type, order, next));
+                builder.getChildNode(next.name).remove();
+            }
+
+            if (chunk.values.isEmpty()) {
+                builder.getChildNode(chunk.name).remove();
+            } else if (chunk.values.size() > MAX_CHUNK_SIZE) {
+                // Split into chunks of half the maximal size
+                List<T> values = newArrayList(chunk.values);
+                builder.getChildNode(chunk.name).remove();
+                for (List<T> part : Lists.partition(values, MAX_CHUNK_SIZE / 2)) {
+                    Chunk<T> split = newChunk(builder, order);
+                    split.values.addAll(part);
+                    result.add(write(builder, type, split));
+                }
+            } else {
+                result.add(write(builder, type, chunk));
+            }
+        }
+
+        writeIndex(builder, type, result);
+    }
+
+    /**
+     * @return  index of the chunk {@code value} falls into. That is the last chunk
+     *          whose smallest member is not greater than {@code value} or the first
+     *          chunk if there is none.
+     */
+    private static <T> int route(List<Chunk<T>> chunks, T value, Comparator<T> order) {
+        int lo = 0;
+        int hi = chunks.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (order.compare(chunks.get(mid).low, value) <= 0) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private static long size(Chunk<?> chunk) {
+        return chunk.values == null ? chunk.size : chunk.values.size();
+    }
+
+    private static <T> List<Chunk<T>> readChunks(NodeBuilder builder, Type<T> type) {
+        List<Chunk<T>> chunks = newArrayList();
+        PropertyState names = builder.getProperty(ORDERED_SET_CHUNKS);
+        PropertyState lows = builder.getProperty(ORDERED_SET_LOWS);
+        PropertyState sizes = builder.getProperty(ORDERED_SET_SIZES);
+        if (names != null && lows != null && sizes != null) {
+            for (int k = 0; k < names.count(); k++) {
+                chunks.add(new Chunk<T>(
+                        names.getValue(Type.STRING, k),
+                        lows.getValue(type, k),
+                        sizes.getValue(LONG, k)));
+            }
+        }
+        return chunks;
+    }
+
+    private static <T> Chunk<T> newChunk(NodeBuilder builder, Comparator<T> order) {
+        PropertyState next = builder.getProperty(ORDERED_SET_NEXT_CHUNK);
+        long id = next == null ? 0 : next.getValue(LONG);
+        builder.setProperty(ORDERED_SET_NEXT_CHUNK, id + 1);
+        Chunk<T> chunk = new Chunk<T>(":c" + id, null, 0);
+        chunk.values = new TreeSet<T>(order);
+        return chunk;
+    }
+
+    private static <T> TreeSet<T> load(NodeBuilder builder, Type<T> type, Comparator<T> order, Chunk<T> chunk) {
+        if (chunk.values == null) {
+            chunk.values = new TreeSet<T>(order);
+            PropertyState values = builder.getChildNode(chunk.name).getProperty(ORDERED_SET_VALUES);
+            if (values != null) {
+                Iterables.addAll(chunk.values, values.getValue(arrayType(type)));
+            }
+        }
+        return chunk.values;
+    }
+
+    private static <T> Chunk<T> write(NodeBuilder builder, Type<T> type, Chunk<T> chunk) {
+        builder.child(chunk.name).setProperty(ORDERED_SET_VALUES, chunk.values, arrayType(type));
+        chunk.low = chunk.values.first();
+        chunk.size = chunk.values.size();
+        return chunk;
+    }
+
+    private static <T> void writeIndex(NodeBuilder builder, Type<T> type, List<Chunk<T>> chunks) {
+        List<String> names = newArrayList();
+        List<T> lows = newArrayList();
+        List<Long> sizes = newArrayList();
+        long size = 0;
+        for (Chunk<T> chunk : chunks) {
+            names.add(chunk.name);
+            lows.add(chunk.low);
+            sizes.add(chunk.size);
+            size += chunk.size;
+        }
+        builder.setProperty(ORDERED_SET_CHUNKS, names, STRINGS);
+        builder.setProperty(ORDERED_SET_LOWS, lows, arrayType(type));
+        builder.setProperty(ORDERED_SET_SIZES, sizes, LONGS);
+        builder.setProperty(ORDERED_SET_SIZE, size);
+    }
+
+    private static <T> Iterable<T> getValues(Type<T> type, PropertyState property) {
+        return property.isArray()
+            ? property.getValue(arrayType(type))
+            : Collections.singleton(property.getValue(type));
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Comparator<T> naturalOrder() {
+        return (Comparator<T>) Ordering.natural();
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Type<T> scalarType(Type<T> type) {
+        if (type.isArray()) {
+            return (Type<T>) type.getBaseType();
+        } else {
+            return type;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Type<Iterable<T>> arrayType(Type<T> type) {
+        if (type.isArray()) {
+            return (Type<Iterable<T>>) type;
+        } else {
+            return (Type<Iterable<T>>) type.getArrayType();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.AtomicSetEditor.checkSize;
+import static michid.crdt.plugins.CrdtType.ATOMIC_SET;
+import static michid.crdt.plugins.CrdtType.LWW_REGISTER;
+import static michid.crdt.plugins.CrdtType.getTypes;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static michid.crdt.plugins.StringDictionary.ATOMIC_SET_CODES;
+import static michid.crdt.plugins.StringDictionary.isEncoded;
+import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
+import static org.apache.jackrabbit.oak.commons.PathUtils.elements;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Implementation of a {@link CommitHook} that materialises the values of
+ * {@code mix:atomicSet} and {@code mix:lwwRegister} nodes like
+ * {@link AtomicSetEditor} and {@link LWWEditor} do, but in parallel. This is
+ * an alternative to {@link AtomicSetEditorProvider} and {@link LWWEditorProvider}
+ * for commits touching many CRDT nodes at once.
+ * <p>
+ * A commit is processed in three phases: a traversal of the changes collects the
+ * CRDT nodes with pending updates. Their new values are then computed concurrently
+ * on the passed {@code ExecutorService} from the immutable {@link NodeState}s.
+ * Finally the new values are applied to a single {@link NodeBuilder}, which is
+ * not thread safe and thus only accessed from the committing thread.
+ * <p>
+ * The {@link CrdtPolicy} of the passed {@link CrdtPolicyService} applies like it
+ * does for the editors: disabled subtrees are skipped and sets growing beyond
+ * their maximal size fail the commit. Dictionary encoded sets need to update the
+ * shared dictionary and are therefore materialised on the committing thread
+ * during the last phase through the same logic the {@link AtomicSetEditor} uses.
+ */
+public class ParallelCrdtHook implements CommitHook {
+    public static final int DEFAULT_THRESHOLD = 16;
+
+    private final ExecutorService executor;
+    private final int threshold;
+    private final CrdtPolicyService policyService;
+
+    /**
+     * @param executor       executor for computing the values of CRDT nodes
+     * @param threshold      minimal number of CRDT nodes in a commit for processing
+     *                       it in parallel. Smaller commits are processed on the
+     *                       committing thread.
+     * @param policyService  service providing the policies for atomic sets and
+     *                       LWW registers
+     */
+    public ParallelCrdtHook(ExecutorService executor, int threshold, CrdtPolicyService policyService) {
+        this.executor = executor;
+        this.threshold = threshold;
+        this.policyService = policyService;
+    }
+
+    public ParallelCrdtHook(ExecutorService executor, int threshold) {
+        this(executor, threshold, new CrdtPolicyService());
+    }
+
+    public ParallelCrdtHook(ExecutorService executor) {
+        this(executor, DEFAULT_THRESHOLD);
+    }
+
+    @Override
+    public NodeState processCommit(NodeState before, NodeState after, CommitInfo info)
+            throws CommitFailedException {
+        List<Update> updates = newArrayList();
+        CrdtPolicy setPolicy = policyService.getPolicy(ATOMIC_SET);
+        CrdtPolicy lwwPolicy = policyService.getPolicy(LWW_REGISTER);
+        if (!setPolicy.isEnabled() && !lwwPolicy.isEnabled()) {
+            return after;
+        }
+        CommitFailedException exception = EditorDiff.process(
+                new CollectingEditor("/", setPolicy, lwwPolicy, updates), before, after);
+        if (exception != null) {
+            throw exception;
+        }
+        if (updates.isEmpty()) {
+            return after;
+        }
+
+        if (updates.size() >= threshold) {
+            try {
+                List<Future<Update>> futures = executor.invokeAll(updates);
+                for (Future<Update> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CommitFailedException(CommitFailedException.OAK, 0, "Interrupted", e);
+            } catch (ExecutionException e) {
+                throw new CommitFailedException(CommitFailedException.OAK, 0,
+                        "Failed to materialize CRDT values", e.getCause());
+            }
+        } else {
+            for (Update update : updates) {
+                update.call();
+            }
+        }
+
+        NodeBuilder root = after.builder();
+        for (Update update : updates) {
+            update.apply(root);
+        }
+        return root.getNodeState();
+    }
+
+    /**
+     * Collects the {@code add-}, {@code remove-} and {@code update-} properties
+     * added to CRDT nodes. A node that is an atomic set and a LWW register at the
+     * same time gets an update for each of its types.
+     */
+    private static class CollectingEditor extends DefaultEditor {
+        private final String path;
+        private final CrdtPolicy setPolicy;
+        private final CrdtPolicy lwwPolicy;
+        private final List<Update> updates;
+
+        private SetUpdate setUpdate;
+        private LWWUpdate lwwUpdate;
+
+        CollectingEditor(String path, CrdtPolicy setPolicy, CrdtPolicy lwwPolicy, List<Update> updates) {
+            this.path = path;
+            this.setPolicy = setPolicy;
+            this.lwwPolicy = lwwPolicy;
+            this.updates = updates;
+        }
+
+        @Override
+        public void enter(NodeState before, NodeState after) throws CommitFailedException {
+            Set<CrdtType> types = getTypes(after);
+            if (types.contains(ATOMIC_SET) && setPolicy.isEnabled()) {
+                setUpdate = new SetUpdate(path, setPolicy, after);
+            }
+            if (types.contains(LWW_REGISTER) && lwwPolicy.isEnabled()) {
+                lwwUpdate = new LWWUpdate(path);
+            }
+        }
+
+        @Override
+        public void leave(NodeState before, NodeState after) throws CommitFailedException {
+            if (setUpdate != null && !setUpdate.removals.isEmpty()) {
+                updates.add(setUpdate);
+            }
+            if (lwwUpdate != null && !lwwUpdate.removals.isEmpty()) {
+                updates.add(lwwUpdate);
+            }
+        }
+
+        @Override
+        public void propertyAdded(PropertyState after) throws CommitFailedException {
+            if (setUpdate != null) {
+                setUpdate.propertyAdded(after);
+            }
+            if (lwwUpdate != null) {
+                lwwUpdate.propertyAdded(after);
+            }
+        }
+
+        @Override
+        public Editor childNodeAdded(String name, NodeState after) throws CommitFailedException {
+            return newChildEditor(name);
+        }
+
+        @Override
+        public Editor childNodeChanged(String name, NodeState before, NodeState after) throws CommitFailedException {
+            return newChildEditor(name);
+        }
+
+        private Editor newChildEditor(String name) {
+            CrdtPolicy setChild = setPolicy.getChild(name);
+            CrdtPolicy lwwChild = lwwPolicy.getChild(name);
+            return setChild.isEnabled() || lwwChild.isEnabled()
+                ? new CollectingEditor(concat(path, name), setChild, lwwChild, updates)
+                : null;
+        }
+
+        @Override
+        public Editor childNodeDeleted(String name, NodeState before) throws CommitFailedException {
+            return null;
+        }
+    }
+
+    /**
+     * Pending update of a CRDT node. {@link #call()} computes the new value,
+     * {@link #apply(NodeBuilder)} writes it to the node.
+     */
+    private abstract static class Update implements Callable<Update> {
+        final List<String> removals = newArrayList();
+        final String path;
+
+        PropertyState value;
+
+        Update(String path) {
+            this.path = path;
+        }
+
+        abstract void propertyAdded(PropertyState property);
+
+        @Override
+        public abstract Update call();
+
+        void apply(NodeBuilder root) throws CommitFailedException {
+            NodeBuilder node = root;
+            for (String name : elements(path)) {
+                node = node.getChildNode(name);
+            }
+            for (String name : removals) {
+                node.removeProperty(name);
+            }
+            apply(root, node);
+        }
+
+        void apply(NodeBuilder root, NodeBuilder node) throws CommitFailedException {
+            if (value != null) {
+                node.setProperty(value);
+            }
+        }
+    }
+
+    private static class SetUpdate extends Update {
+        private final List<PropertyState> additions = newArrayList();
+        private final List<PropertyState> deletions = newArrayList();
+        private final CrdtPolicy policy;
+        private final NodeState set;
+
+        SetUpdate(String path, CrdtPolicy policy, NodeState set) {
+            super(path);
+            this.policy = policy;
+            this.set = set;
+            PropertyState initial = set.getProperty(ATOMIC_SET_VALUES);
+            if (initial != null) {
+                additions.add(initial);
+            }
+        }
+
+        @Override
+        void propertyAdded(PropertyState property) {
+            String name = property.getName();
+            if (name.startsWith(ATOMIC_SET_ADD)) {
+                additions.add(property);
+                removals.add(name);
+            } else if (name.startsWith(ATOMIC_SET_REMOVE)) {
+                deletions.add(property);
+                removals.add(name);
+            }
+        }
+
+        /**
+         * Sets that might be dictionary encoded are left to
+         * {@link #apply(NodeBuilder, NodeBuilder)}
+         */
+        private boolean mayBeEncoded() {
+            return policy.isDictionaryEncoded() || isEncoded(set) || set.hasProperty(ATOMIC_SET_CODES);
+        }
+
+        @Override
+        public Update call() {
+            if (!mayBeEncoded()) {
+                value = AtomicSetEditor.applyChanges(additions, deletions);
+            }
+            return this;
+        }
+
+        @Override
+        void apply(NodeBuilder root, NodeBuilder node) throws CommitFailedException {
+            if (mayBeEncoded()) {
+                value = AtomicSetEditor.applyChanges(root, node, policy, additions, deletions);
+            }
+            if (value != null) {
+                checkSize(policy, value, set);
+            }
+            super.apply(root, node);
+        }
+    }
+
+    private static class LWWUpdate extends Update {
+        private PropertyState update;
+
+        LWWUpdate(String path) {
+            super(path);
+        }
+
+        @Override
+        void propertyAdded(PropertyState property) {
+            String name = property.getName();
+            if (name.startsWith(LWW_UPDATE)) {
+                update = property;
+                removals.add(name);
+            }
+        }
+
+        @Override
+        public Update call() {
+            value = LWWEditor.toValue(update);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static com.google.common.collect.Sets.newHashSet;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.apache.jackrabbit.oak.api.Type.LONGS;
+import static org.apache.jackrabbit.oak.api.Type.STRING;
+import static org.apache.jackrabbit.oak.api.Type.STRINGS;
+import static org.apache.jackrabbit.oak.plugins.memory.PropertyStates.createProperty;
+import static org.apache.jackrabbit.util.Text.escapeIllegalJcrChars;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Repository wide dictionary for encoding the members of string valued
+ * atomic sets as {@code long} codes.
+ * <p>
+ * Encoding is enabled per set by setting its {@code encoding} property to
+ * {@code dictionary}. The members of such sets are stored as codes in the
+ * hidden {@code :codes} property instead of in the {@code values} property.
+ * An existing {@code values} property is encoded on the next change to the
+ * set. The editor then merges additions and removals on codes, without
+ * hashing the member strings again.
+ * <p>
+ * The dictionary is kept in the hidden {@code :dictionary} node below the
+ * root. It is split into {@code 2^16} shards picked by a hash of the string,
+ * which are laid out as two levels of child nodes, e.g. {@code :dictionary/3f/a0}.
+ * For each string its shard holds a {@code s-<escaped string>} property with
+ * the code and a {@code c-<code>} property with the string. Each shard assigns
+ * its own codes from its {@code nextCode} property. The lower 16 bits of a code
+ * are the index of its shard. Adding a new string thus only rewrites a single
+ * small shard and concurrent additions of different strings rarely conflict.
+ * Codes are never reassigned, which allows instances of this class to cache
+ * decoded strings indefinitely. Use {@link #getMembers(NodeState, NodeState)}
+ * to read the members of an encoded set.
+ */
+public class StringDictionary {
+    public static final String DICTIONARY = ":dictionary";
+    public static final String DICTIONARY_NEXT_CODE = "nextCode";
+    public static final String ENCODING = "encoding";
+    public static final String ENCODING_DICTIONARY = "dictionary";
+    public static final String ATOMIC_SET_CODES = ":codes";
+    public static final long DEFAULT_CACHE_SIZE = 100000;
+
+    private static final String STRING_PREFIX = "s-";
+    private static final String CODE_PREFIX = "c-";
+
+    private static final int SHARD_BITS = 16;
+    private static final int SHARD_MASK = (1 << SHARD_BITS) - 1;
+
+    private final Cache<Long, String> decoded;
+
+    /**
+     * @param cacheSize  maximal number of decoded strings to cache
+     */
+    public StringDictionary(long cacheSize) {
+        decoded = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    public StringDictionary() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @return  {@code true} if the members of {@code set} should be dictionary encoded
+     */
+    public static boolean isEncoded(NodeBuilder set) {
+        PropertyState encoding = set.getProperty(ENCODING);
+        return encoding != null && ENCODING_DICTIONARY.equals(encoding.getValue(STRING));
+    }
+
+    /**
+     * @return  {@code true} if the members of {@code set} should be dictionary encoded
+     */
+    public static boolean isEncoded(NodeState set) {
+        PropertyState encoding = set.getProperty(ENCODING);
+        return encoding != null && ENCODING_DICTIONARY.equals(encoding.getValue(STRING));
+    }
+
+    /**
+     * Apply additions and deletions to the codes of a set.
+     * @param root       builder of the root node, which holds the dictionary
+     * @param codes      the current {@code :codes} property of the set or {@code null}
+     * @param additions  string values to add
+     * @param deletions  string values to remove
+     * @return  the new {@code :codes} property
+     */
+    static PropertyState applyChanges(NodeBuilder root, PropertyState codes,
+            List<PropertyState> additions, List<PropertyState> deletions) {
+        Set<Long> values = newHashSet();
+        if (codes != null) {
+            Iterables.addAll(values, codes.getValue(LONGS));
+        }
+        for (PropertyState addition : additions) {
+            for (String value : getStrings(addition)) {
+                values.add(encode(root, value));
+            }
+        }
+        for (PropertyState deletion : deletions) {
+            for (String value : getStrings(deletion)) {
+                PropertyState code = getShard(root, getShard(value))
+                        .getProperty(STRING_PREFIX + escapeIllegalJcrChars(value));
+                if (code != null) {
+                    values.remove(code.getValue(LONG));
+                }
+            }
+        }
+        return createProperty(ATOMIC_SET_CODES, values, LONGS);
+    }
+
+    /**
+     * @return  {@code true} if {@code property} holds strings, which can be encoded
+     */
+    static boolean isString(PropertyState property) {
+        Type<?> type = property.getType();
+        return (type.isArray() ? type.getBaseType() : type) == STRING;
+    }
+
+    private static Iterable<String> getStrings(PropertyState property) {
+        return property.isArray()
+            ? property.getValue(STRINGS)
+            : Collections.singleton(property.getValue(STRING));
+    }
+
+    private static long encode(NodeBuilder root, String value) {
+        String name = STRING_PREFIX + escapeIllegalJcrChars(value);
+        int shard = getShard(value);
+        PropertyState code = getShard(root, shard).getProperty(name);
+        if (code != null) {
+            return code.getValue(LONG);
+        }
+
+        NodeBuilder dictionary = root.child(DICTIONARY)
+                .child(getLevel(shard >>> 8)).child(getLevel(shard));
+        PropertyState next = dictionary.getProperty(DICTIONARY_NEXT_CODE);
+        long index = next == null ? 0 : next.getValue(LONG);
+        long newCode = (index << SHARD_BITS) | shard;
+        dictionary.setProperty(DICTIONARY_NEXT_CODE, index + 1);
+        dictionary.setProperty(name, newCode);
+        dictionary.setProperty(CODE_PREFIX + newCode, value);
+        return newCode;
+    }
+
+    /**
+     * @return  index of the shard holding {@code value}
+     */
+    private static int getShard(String value) {
+        return Hashing.murmur3_32().hashString(value, Charsets.UTF_8).asInt() & SHARD_MASK;
+    }
+
+    private static NodeBuilder getShard(NodeBuilder root, int shard) {
+        return root.getChildNode(DICTIONARY)
+                .getChildNode(getLevel(shard >>> 8)).getChildNode(getLevel(shard));
+    }
+
+    private static NodeState getShard(NodeState root, int shard) {
+        return root.getChildNode(DICTIONARY)
+                .getChildNode(getLevel(shard >>> 8)).getChildNode(getLevel(shard));
+    }
+
+    /**
+     * @return  name of the child node for the lower 8 bits of {@code bits}
+     */
+    private static String getLevel(int bits) {
+        return String.format("%02x", bits & 0xff);
+    }
+
+    /**
+     * @param root  root node state holding the dictionary
+     * @param code  a code
+     * @return  the string encoded by {@code code} or {@code null} if none
+     */
+    public String decode(NodeState root, long code) {
+        String value = decoded.getIfPresent(code);
+        if (value == null) {
+            PropertyState property = getShard(root, (int) (code & SHARD_MASK)).getProperty(CODE_PREFIX + code);
+            if (property != null) {
+                value = property.getValue(STRING);
+                decoded.put(code, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @param root  root node state holding the dictionary
+     * @param set   node state of a {@code mix:atomicSet}
+     * @return  the members of {@code set} decoded if the set is dictionary encoded
+     */
+    public List<String> getMembers(NodeState root, NodeState set) {
+        List<String> members = Lists.newArrayList();
+        PropertyState codes = set.getProperty(ATOMIC_SET_CODES);
+        if (codes != null) {
+            for (long code : codes.getValue(LONGS)) {
+                String value = decode(root, code);
+                if (value != null) {
+                    members.add(value);
+                }
+            }
+        }
+        PropertyState values = set.getProperty(AtomicSetEditor.ATOMIC_SET_VALUES);
+        if (values != null) {
+            Iterables.addAll(members, values.getValue(STRINGS));
+        }
+        return members;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.CrdtType.ATOMIC_COUNTER;
+import static michid.crdt.plugins.CrdtType.ATOMIC_SET;
+import static michid.crdt.plugins.CrdtType.LWW_REGISTER;
+import static michid.crdt.plugins.CrdtType.MV_REGISTER;
+import static michid.crdt.plugins.CrdtType.getTypes;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.apache.jackrabbit.oak.api.Type.STRING;
+import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_INCREMENT;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorProvider;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of an {@link Observer} that records anonymized CRDT operations
+ * to an append-only binary trace file. The operations are collected by the read
+ * only editors of {@link #getEditorProvider()}. Installed next to the CRDT editors
+ * they see the raw operations ({@code oak:increment}, {@code add-}, {@code remove-}
+ * and {@code update-} properties and writes to MV registers) before these are
+ * materialized. As editors also run for commits that are retried or fail later
+ * on, the operations of a commit are only written once the commit is reported
+ * to {@link #contentChanged(NodeState, CommitInfo)}. Commits are correlated by
+ * the identity of their {@link CommitInfo}, where the operations of the last
+ * attempt of a commit win. Commits without commit info are not recorded. For a
+ * recorder to see a commit, it must be registered as {@code Observer} of the
+ * repository in addition to its editor provider.
+ * <p>
+ * The trace contains the shape of the operations but no content: nodes are
+ * identified by a sequence number assigned on first occurrence and values are
+ * replaced by salted hashes. The salt is random per recorder such that equal
+ * values map to equal hashes within a trace but hashes cannot be correlated
+ * across traces.
+ * <p>
+ * The trace starts with a header ({@link #MAGIC}, {@link #VERSION}) followed by
+ * a sequence of commits. Each commit consists of {@link #OP_COMMIT}, the time
+ * since the previous commit in milliseconds and the number of operations,
+ * followed by the operations. Each operation consists of its opcode, the node
+ * id and its argument: the delta for {@link #OP_INCREMENT} and the number of
+ * values followed by their hashes for all other operations. All numbers are
+ * variable length encoded.
+ *
+ * @see michid.crdt.TraceReplayer
+ */
+public class TraceRecorder implements Observer, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(TraceRecorder.class);
+
+    public static final int MAGIC = 0x43524454;  // CRDT
+    public static final int VERSION = 1;
+
+    public static final int OP_COMMIT = 0;
+    public static final int OP_INCREMENT = 1;
+    public static final int OP_SET_ADD = 2;
+    public static final int OP_SET_REMOVE = 3;
+    public static final int OP_LWW_UPDATE = 4;
+    public static final int OP_MV_WRITE = 5;
+
+    private final Map<String, Integer> nodeIds = Maps.newHashMap();
+    private final HashFunction hash = Hashing.murmur3_32(new SecureRandom().nextInt());
+    private final DataOutputStream out;
+
+    /** Operations of commits not yet reported as successful. Weak keys compare by identity. */
+    private final Cache<CommitInfo, Commit> pending = CacheBuilder.newBuilder().weakKeys().build();
+
+    private long lastCommit;
+    private long commitCount;
+    private boolean closed;
+
+    /**
+     * Create a new recorder appending to {@code file}. A header is written if
+     * the file is empty.
+     * @param file  trace file
+     * @throws IOException
+     */
+    public TraceRecorder(File file) throws IOException {
+        boolean empty = !file.exists() || file.length() == 0;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        if (empty) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        }
+    }
+
+    /**
+     * @return  the editor provider collecting the operations of each commit
+     */
+    public EditorProvider getEditorProvider() {
+        return new EditorProvider() {
+            @Override
+            public Editor getRootEditor(NodeState before, NodeState after, NodeBuilder builder,
+                    CommitInfo info) throws CommitFailedException {
+                if (isClosed() || info == null || info == CommitInfo.EMPTY) {
+                    return null;
+                } else {
+                    // Discard the operations of a previous attempt of this commit
+                    pending.invalidate(info);
+                    return new RecordingEditor(new Commit(info), "/");
+                }
+            }
+        };
+    }
+
+    @Override
+    public void contentChanged(NodeState root, CommitInfo info) {
+        if (info != null && info != CommitInfo.EMPTY) {
+            Commit commit = pending.getIfPresent(info);
+            if (commit != null) {
+                pending.invalidate(info);
+                write(commit);
+            }
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return  number of commits recorded so far
+     */
+    public synchronized long getCommitCount() {
+        return commitCount;
+    }
+
+    /**
+     * Flush recorded commits to the trace file
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flush and close the trace file. Subsequent commits are not recorded.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        out.close();
+    }
+
+    private synchronized int getNodeId(String path) {
+        Integer id = nodeIds.get(path);
+        if (id == null) {
+            id = nodeIds.size();
+            nodeIds.put(path, id);
+        }
+        return id;
+    }
+
+    private synchronized void write(Commit commit) {
+        if (closed || commit.count == 0) {
+            return;
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            out.writeByte(OP_COMMIT);
+            writeVarLong(out, lastCommit == 0 ? 0 : now - lastCommit);
+            writeVarLong(out, commit.count);
+            commit.bytes.writeTo(out);
+            lastCommit = now;
+            commitCount++;
+        } catch (IOException e) {
+            // Never fail a commit because of tracing
+            LOG.warn("Failed to write trace. Stopping trace recording.", e);
+            closed = true;
+        }
+    }
+
+    /**
+     * Write {@code value} as unsigned variable length quantity
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read an unsigned variable length quantity
+     */
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length quantity");
+    }
+
+    /**
+     * Zig-zag encode signed {@code value} such that values of small magnitude
+     * have a short variable length encoding.
+     */
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Inverse of {@link #zigZag(long)}
+     */
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Operations of a single commit. Written to the trace file as a whole
+     * once the commit has been persisted.
+     */
+    private static class Commit {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final CommitInfo info;
+        int count;
+
+        Commit(CommitInfo info) {
+            this.info = info;
+        }
+    }
+
+    private class RecordingEditor extends DefaultEditor {
+        private final Commit commit;
+        private final String path;
+
+        private Set<CrdtType> types;
+
+        RecordingEditor(Commit commit, String path) {
+            this.commit = commit;
+            this.path = path;
+        }
+
+        @Override
+        public void enter(NodeState before, NodeState after) {
+            types = getTypes(after);
+        }
+
+        @Override
+        public void leave(NodeState before, NodeState after) {
+            if ("/".equals(path) && commit.count > 0) {
+                pending.put(commit.info, commit);
+            }
+        }
+
+        @Override
+        public void propertyAdded(PropertyState after) throws CommitFailedException {
+            record(after);
+        }
+
+        @Override
+        public void propertyChanged(PropertyState before, PropertyState after) throws CommitFailedException {
+            record(after);
+        }
+
+        private void record(PropertyState property) throws CommitFailedException {
+            if (types.isEmpty()) {
+                return;
+            }
+
+            String name = property.getName();
+            try {
+                if (types.contains(ATOMIC_COUNTER) && PROP_INCREMENT.equals(name)) {
+                    writeOp(OP_INCREMENT);
+                    writeVarLong(commit.out, zigZag(property.getValue(LONG)));
+                } else if (types.contains(ATOMIC_SET) && name.startsWith(ATOMIC_SET_ADD)) {
+                    writeOp(OP_SET_ADD);
+                    writeHashes(property);
+                } else if (types.contains(ATOMIC_SET) && name.startsWith(ATOMIC_SET_REMOVE)) {
+                    writeOp(OP_SET_REMOVE);
+                    writeHashes(property);
+                } else if (types.contains(LWW_REGISTER) && name.startsWith(LWW_UPDATE)) {
+                    writeOp(OP_LWW_UPDATE);
+                    writeHashes(property);
+                } else if (types.contains(MV_REGISTER) && !name.startsWith("jcr:") && !name.startsWith(":")) {
+                    writeOp(OP_MV_WRITE);
+                    writeHashes(property);
+                }
+            } catch (IOException e) {
+                // Cannot happen as we are writing to memory
+                throw new CommitFailedException(CommitFailedException.OAK, 0, "Failed to record operation", e);
+            }
+        }
+
+        private void writeOp(int op) throws IOException {
+            commit.count++;
+            commit.out.writeByte(op);
+            writeVarLong(commit.out, getNodeId(path));
+        }
+
+        private void writeHashes(PropertyState property) throws IOException {
+            writeVarLong(commit.out, property.count());
+            for (int k = 0; k < property.count(); k++) {
+                String value = property.getValue(STRING, k);
+                writeVarLong(commit.out, hash.hashString(value, UTF_8).asInt() & 0xffffffffL);
+            }
+        }
+
+        @Override
+        public Editor childNodeAdded(String name, NodeState after) {
+            return name.startsWith(":") ? null : new RecordingEditor(commit, concat(path, name));
+        }
+
+        @Override
+        public Editor childNodeChanged(String name, NodeState before, NodeState after) {
+            return name.startsWith(":") ? null : new RecordingEditor(commit, concat(path, name));
+        }
+
+        @Override
+        public Editor childNodeDeleted(String name, NodeState before) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt.plugins;
+
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.CrdtType.TWO_PHASE_SET;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.apache.jackrabbit.oak.api.Type.STRING;
+import static org.apache.jackrabbit.util.Text.escapeIllegalJcrChars;
+import static org.apache.jackrabbit.util.Text.unescapeIllegalJcrChars;
+
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Implementation of a {@link Editor} such that nodes of type
+ * {@code mix:twoPhaseSet} behave like a two phase set: a member can be
+ * added once and removed once. Once removed it cannot be added again.
+ * <p>
+ * Additions and removals are recorded via the {@code add-} and
+ * {@code remove-} properties, respectively. Each member is stored in its
+ * own {@code e-} property named after the escaped member. Its value is
+ * {@code 1} for a member and {@code 0} for a tombstone. Concurrent changes
+ * to different members therefore touch different properties and concurrent
+ * changes to the same member merge by taking the minimum, see
+ * {@link ElementSetConflictHandler}.
+ */
+public class TwoPhaseSetEditor extends CrdtEditor {
+    public static final String MIX_TWO_PHASE_SET = "mix:twoPhaseSet";
+    public static final String MIX_TWO_PHASE_SET_CND = '[' + MIX_TWO_PHASE_SET + "]  mixin";
+    public static final String ELEMENT = "e-";
+
+    private static final long MEMBER = 1;
+    private static final long TOMBSTONE = 0;
+
+    public TwoPhaseSetEditor(NodeBuilder builder) {
+        super(builder);
+    }
+
+    public TwoPhaseSetEditor(NodeBuilder builder, CrdtPolicy policy) {
+        super(builder, policy);
+    }
+
+    private TwoPhaseSetEditor(TwoPhaseSetEditor parent, String name, CrdtPolicy policy) {
+        super(parent, name, policy);
+    }
+
+    @Override
+    protected Editor newChildEditor(String name, CrdtPolicy policy) {
+        return new TwoPhaseSetEditor(this, name, policy);
+    }
+
+    @Override
+    public void propertyAdded(PropertyState after) throws CommitFailedException {
+        String name = after.getName();
+        if (name.startsWith(ATOMIC_SET_ADD) && isType(TWO_PHASE_SET)) {
+            update(after, MEMBER);
+            getBuilder().removeProperty(name);
+        } else if (name.startsWith(ATOMIC_SET_REMOVE) && isType(TWO_PHASE_SET)) {
+            update(after, TOMBSTONE);
+            getBuilder().removeProperty(name);
+        }
+    }
+
+    private void update(PropertyState delta, long state) {
+        NodeBuilder builder = getBuilder();
+        for (int k = 0; k < delta.count(); k++) {
+            String name = ELEMENT + escapeIllegalJcrChars(delta.getValue(STRING, k));
+            PropertyState element = builder.getProperty(name);
+            builder.setProperty(name, element == null ? state : merge(element.getValue(LONG), state));
+        }
+    }
+
+    /**
+     * Merge two states of the same member
+     * @return  the minimum of {@code state1} and {@code state2}
+     */
+    public static long merge(long state1, long state2) {
+        return Math.min(state1, state2);
+    }
+
+    /**
+     * @param node  a node of type {@code mix:twoPhaseSet}
+     * @return  the members of the set
+     */
+    public static Set<String> getMembers(NodeState node) {
+        Set<String> members = Sets.newHashSet();
+        for (PropertyState element : node.getProperties()) {
+            String name = element.getName();
+            if (name.startsWith(ELEMENT) && element.getValue(LONG) == MEMBER) {
+                members.add(unescapeIllegalJcrChars(name.substring(ELEMENT.length())));
+            }
+        }
+        return members;
+    }
+}
@@ -26,10 +26,9 @@ import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
 import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
 import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
 import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
-import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET_CND;
 import static org.junit.Assert.assertEquals;
 
-import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -37,13 +36,15 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
 import javax.jcr.Node;
+import javax.jcr.PropertyIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
+import javax.jcr.ValueFactory;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.util.concurrent.ListenableFutureTask;
 import michid.crdt.plugins.AtomicSetEditorProvider;
-import org.apache.jackrabbit.commons.cnd.ParseException;
 import org.apache.jackrabbit.oak.jcr.Jcr;
 import org.junit.Before;
 import org.junit.Test;
@@ -57,10 +58,9 @@ public class AtomicSetTest extends TestBase {
     }
 
     @Before
-    public void setup() throws RepositoryException, IOException, ParseException {
+    public void setup() throws RepositoryException {
         Session session = createAdminSession();
         try {
-            registerNodeType(session, MIX_ATOMIC_SET_CND);
             Node root = session.getRootNode();
             Node set = root.addNode("set");
             set.addMixin(MIX_ATOMIC_SET);
@@ -87,6 +87,86 @@ public class AtomicSetTest extends TestBase {
         }
     }
 
+    @Test
+    public void bulk() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            ValueFactory vf = session.getValueFactory();
+            Node set = session.getNode("/set");
+            set.setProperty(ATOMIC_SET_ADD + 1, new Value[] {
+                    vf.createValue(1), vf.createValue(2), vf.createValue(3)});
+            set.setProperty(ATOMIC_SET_REMOVE + 1, new Value[] {vf.createValue(2)});
+            session.save();
+            assertEquals(newHashSet(1L, 3L), toLongs(session.getProperty("/set/" + ATOMIC_SET_VALUES).getValues()));
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void importValues() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            final ValueFactory vf = session.getValueFactory();
+            Iterator<Value> values = new AbstractIterator<Value>() {
+                private long next;
+
+                @Override
+                protected Value computeNext() {
+                    return next < 2500
+                        ? vf.createValue(next++)
+                        : endOfData();
+                }
+            };
+            assertEquals(2500, new AtomicSetImporter(session, "/set", 1000).importValues(values));
+
+            Set<Long> expected = newHashSet();
+            for (long k = 0; k < 2500; k++) {
+                expected.add(k);
+            }
+            assertEquals(expected, toLongs(session.getProperty("/set/" + ATOMIC_SET_VALUES).getValues()));
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void repeatedImports() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            // On a node that is not an atomic set the add- properties are not
+            // merged away, such that each import leaves its chunks behind
+            session.getRootNode().addNode("plain");
+            session.save();
+            ValueFactory vf = session.getValueFactory();
+            new AtomicSetImporter(session, "/plain", 100).importValues(range(vf, 0, 150));
+            new AtomicSetImporter(session, "/plain", 100).importValues(range(vf, 150, 300));
+
+            Set<Long> imported = newHashSet();
+            PropertyIterator chunks = session.getNode("/plain").getProperties(ATOMIC_SET_ADD + "*");
+            assertEquals(4, chunks.getSize());
+            while (chunks.hasNext()) {
+                imported.addAll(toLongs(chunks.nextProperty().getValues()));
+            }
+            assertEquals(300, imported.size());
+        } finally {
+            session.logout();
+        }
+    }
+
+    private static Iterator<Value> range(final ValueFactory vf, final long from, final long to) {
+        return new AbstractIterator<Value>() {
+            private long next = from;
+
+            @Override
+            protected Value computeNext() {
+                return next < to
+                    ? vf.createValue(next++)
+                    : endOfData();
+            }
+        };
+    }
+
     private static Set<Long> toLongs(Value[] values) throws RepositoryException {
         Set<Long> longs = newHashSet();
         for (Value value : values) {
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static michid.crdt.CausalityTracker.CAUSALITY;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.google.common.collect.Lists;
+import michid.crdt.CausalityTracker.Token;
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CausalityTrackerTest extends TestBase {
+    private final CausalityTracker tracker = new CausalityTracker("node1");
+
+    /** Second cluster node sharing the store, which only sees changes on {@link LaggingObserver#catchUp()} */
+    private final CausalityTracker remote = new CausalityTracker("node2");
+    private final LaggingObserver remoteObserver = new LaggingObserver(remote);
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr
+                .with(new AtomicSetEditorProvider())
+                .with(tracker.getCommitHook())
+                .with(remote.getCommitHook())
+                .with(tracker)
+                .with(remoteObserver);
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            session.getRootNode().addNode("set").addMixin(MIX_ATOMIC_SET);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void saveAndAwait() throws RepositoryException, InterruptedException {
+        Token before = tracker.getToken();
+        Token token = add("a");
+        assertTrue(token.getClock("node1") > before.getClock("node1"));
+        assertTrue(token.covers(before));
+        assertFalse(before.covers(token));
+
+        Session session = createAdminSession();
+        try {
+            assertTrue(tracker.await(session, token, 0, MILLISECONDS));
+            assertEquals(1, session.getProperty("/set/values").getValues().length);
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void timeout() throws InterruptedException {
+        Token ahead = Token.fromString("node1:" + (tracker.getToken().getClock("node1") + 100));
+        assertFalse(tracker.await(ahead, 10, MILLISECONDS));
+        assertFalse(tracker.await(Token.fromString("node2:1"), 10, MILLISECONDS));
+    }
+
+    @Test
+    public void awaitPending() throws Exception {
+        final Token next = Token.fromString("node1:" + (tracker.getToken().getClock("node1") + 1));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> seen = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws InterruptedException {
+                    return tracker.await(next, 10, SECONDS);
+                }
+            });
+            add("b");
+            assertTrue(seen.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void laggingClusterNode() throws Exception {
+        final Token token = add(tracker, "c");
+        assertFalse(remote.await(token, 10, MILLISECONDS));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> seen = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws InterruptedException {
+                    return remote.await(token, 10, SECONDS);
+                }
+            });
+            remoteObserver.catchUp();
+            assertTrue(seen.get());
+        } finally {
+            executor.shutdown();
+        }
+
+        // Tokens of the lagging node cover its own saves
+        Token remoteToken = add(remote, "d");
+        assertEquals(1, remoteToken.getClock("node2"));
+        assertTrue(remoteToken.covers(token));
+        assertFalse(remote.getToken().covers(remoteToken));
+        assertTrue(tracker.await(remoteToken, 0, MILLISECONDS));
+        remoteObserver.catchUp();
+        assertTrue(remote.await(remoteToken, 0, MILLISECONDS));
+    }
+
+    @Test
+    public void plainSaveKeepsClocks() throws RepositoryException {
+        Token token = add(tracker, "e");
+        NodeState clocks = getNodeStore().getRoot().getChildNode(CAUSALITY);
+
+        Session session = createAdminSession();
+        try {
+            session.getNode("/set").setProperty("add-f", "f");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        assertEquals(clocks, getNodeStore().getRoot().getChildNode(CAUSALITY));
+        assertEquals(token, tracker.getToken());
+
+        // The plain save is covered by the next token of the same cluster node
+        Token next = add(tracker, "g");
+        assertEquals(token.getClock("node1") + 1, next.getClock("node1"));
+    }
+
+    @Test
+    public void serialize() {
+        Token token = Token.fromString("node2:7,node1:42");
+        assertEquals("node1:42,node2:7", token.toString());
+        assertEquals(token, Token.fromString(token.toString()));
+        assertEquals(Token.EMPTY, Token.fromString(""));
+
+        Token merged = token.merge(Token.fromString("node1:3,node3:1"));
+        assertEquals("node1:42,node2:7,node3:1", merged.toString());
+        assertTrue(merged.covers(token));
+    }
+
+    private Token add(String value) throws RepositoryException {
+        return add(tracker, value);
+    }
+
+    private Token add(CausalityTracker clusterNode, String value) throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            session.getNode("/set").setProperty("add-" + value, value);
+            return clusterNode.save(session);
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Forwards root states to an observer only when asked to
+     */
+    private static class LaggingObserver implements Observer {
+        private final Observer observer;
+        private final List<NodeState> pending = Lists.newArrayList();
+
+        LaggingObserver(Observer observer) {
+            this.observer = observer;
+        }
+
+        @Override
+        public synchronized void contentChanged(NodeState root, CommitInfo info) {
+            pending.add(root);
+        }
+
+        synchronized void catchUp() {
+            for (NodeState root : pending) {
+                observer.contentChanged(root, CommitInfo.EMPTY);
+            }
+            pending.clear();
+        }
+    }
+}
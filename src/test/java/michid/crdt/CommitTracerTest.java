@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import michid.crdt.plugins.CommitTracer;
+import michid.crdt.plugins.CommitTracer.Trace;
+import michid.crdt.plugins.MVConflictHandler;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitTracerTest extends TestBase {
+    private static final int CAPACITY = 4;
+
+    private final CommitTracer tracer = new CommitTracer(1, CAPACITY);
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr
+                .with(tracer.wrap("atomicSet", new AtomicSetEditorProvider()))
+                .with(tracer.wrap(new MVConflictHandler()))
+                .with(tracer);
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            root.addNode("set").addMixin(MIX_ATOMIC_SET);
+            root.addNode("mv").addMixin(MIX_MV_REGISTER);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void traceEditors() throws RepositoryException {
+        long count = tracer.getTraceCount();
+        for (int k = 0; k < 2 * CAPACITY; k++) {
+            Session session = createAdminSession();
+            try {
+                session.getNode("/set").setProperty("add-" + k, k);
+                session.save();
+            } finally {
+                session.logout();
+            }
+        }
+
+        assertEquals(count + 2 * CAPACITY, tracer.getTraceCount());
+        List<Trace> traces = tracer.getTraces();
+        assertEquals(CAPACITY, traces.size());
+        Trace trace = traces.get(CAPACITY - 1);
+        assertEquals(0, trace.getRetries());
+        assertEquals(0, trace.getConflictCount());
+        assertTrue(trace.getEditorNanos().containsKey("atomicSet"));
+        assertTrue(trace.getHookNanos() >= trace.getEditorNanos().get("atomicSet"));
+        assertTrue(trace.getNodes().contains("/set [" + MIX_ATOMIC_SET + ']'));
+    }
+
+    @Test
+    public void traceConflicts() throws RepositoryException {
+        Session s1 = createAdminSession();
+        Session s2 = createAdminSession();
+        try {
+            s1.getNode("/mv").setProperty("value", new String[] {"a"});
+            s2.getNode("/mv").setProperty("value", new String[] {"b"});
+            s1.save();
+            s2.save();
+        } finally {
+            s1.logout();
+            s2.logout();
+        }
+
+        List<Trace> traces = tracer.getTraces();
+        Trace trace = traces.get(traces.size() - 1);
+        assertTrue(trace.getConflictCount() > 0);
+        assertTrue(trace.getConflictNanos() > 0);
+    }
+
+    @Test
+    public void dump() throws IOException {
+        File file = File.createTempFile("commit", ".trace");
+        try {
+            tracer.dump(file);
+            List<String> lines = Files.readLines(file, Charsets.UTF_8);
+            assertEquals(tracer.getTraces().size(), lines.size());
+            assertTrue(lines.get(0).contains("hookMs="));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static com.google.common.collect.Sets.newHashSet;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER;
+import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER;
+import static michid.crdt.plugins.StringDictionary.ENCODING;
+import static michid.crdt.plugins.StringDictionary.ENCODING_DICTIONARY;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_INCREMENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import com.google.common.collect.Sets;
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import michid.crdt.plugins.CrdtChangeFeed;
+import michid.crdt.plugins.CrdtDelta;
+import michid.crdt.plugins.LWWEditorProvider;
+import michid.crdt.plugins.MVConflictHandler;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrdtChangeFeedTest extends TestBase {
+    private final AtomicSetEditorProvider setProvider = new AtomicSetEditorProvider();
+    private final CrdtChangeFeed feed = new CrdtChangeFeed(100, setProvider.getDictionary());
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr
+                .with(setProvider)
+                .with(new LWWEditorProvider())
+                .with(new MVConflictHandler())
+                .with(feed);
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            root.addNode("set").addMixin(MIX_ATOMIC_SET);
+            root.addNode("lww").addMixin(MIX_LWW_REGISTER);
+            root.addNode("counter").addMixin("mix:atomicCounter");
+            root.addNode("mv").addMixin(MIX_MV_REGISTER);
+            Node encoded = root.addNode("encoded");
+            encoded.addMixin(MIX_ATOMIC_SET);
+            encoded.setProperty(ENCODING, ENCODING_DICTIONARY);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void deltas() throws RepositoryException, InterruptedException {
+        Session session = createAdminSession();
+        try {
+            session.getNode("/set").setProperty(ATOMIC_SET_ADD + 1, 1);
+            session.getNode("/set").setProperty(ATOMIC_SET_ADD + 2, 2);
+            session.save();
+            CrdtDelta.SetDelta setDelta = (CrdtDelta.SetDelta) feed.poll(10, SECONDS);
+            assertEquals("/set", setDelta.getPath());
+            assertEquals(newHashSet(1L, 2L), setDelta.getAdded());
+            assertTrue(setDelta.getRemoved().isEmpty());
+
+            session.getNode("/set").setProperty(ATOMIC_SET_REMOVE + 1, 1);
+            session.getNode("/set").setProperty(ATOMIC_SET_REMOVE + 3, 3);
+            session.save();
+            setDelta = (CrdtDelta.SetDelta) feed.poll(10, SECONDS);
+            assertTrue(setDelta.getAdded().isEmpty());
+            assertEquals(Collections.<Object>singleton(1L), setDelta.getRemoved());
+
+            session.getNode("/counter").setProperty(PROP_INCREMENT, 5);
+            session.save();
+            assertEquals(5, ((CrdtDelta.CounterDelta) feed.poll(10, SECONDS)).getDelta());
+
+            session.getNode("/lww").setProperty(LWW_UPDATE + 1, "one");
+            session.save();
+            CrdtDelta.LWWDelta lwwDelta = (CrdtDelta.LWWDelta) feed.poll(10, SECONDS);
+            assertNull(lwwDelta.getBefore());
+            assertEquals("one", lwwDelta.getAfter());
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void encodedSetDeltas() throws RepositoryException, InterruptedException {
+        Session session = createAdminSession();
+        try {
+            session.getNode("/encoded").setProperty(ATOMIC_SET_ADD + 1, new String[] {"a", "b"});
+            session.save();
+            CrdtDelta.SetDelta setDelta = (CrdtDelta.SetDelta) feed.poll(10, SECONDS);
+            assertEquals("/encoded", setDelta.getPath());
+            assertEquals(newHashSet((Object) "a", "b"), setDelta.getAdded());
+            assertTrue(setDelta.getRemoved().isEmpty());
+
+            session.getNode("/encoded").setProperty(ATOMIC_SET_REMOVE + 1, "a");
+            session.save();
+            setDelta = (CrdtDelta.SetDelta) feed.poll(10, SECONDS);
+            assertTrue(setDelta.getAdded().isEmpty());
+            assertEquals(Collections.<Object>singleton("a"), setDelta.getRemoved());
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void interrupted() throws RepositoryException, InterruptedException {
+        final NodeState before = getNodeStore().getRoot();
+        Session session = createAdminSession();
+        try {
+            session.getNode("/set").setProperty(ATOMIC_SET_ADD + 1, 1);
+            session.getNode("/counter").setProperty(PROP_INCREMENT, 5);
+            session.getNode("/lww").setProperty(LWW_UPDATE + 1, "one");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        final NodeState after = getNodeStore().getRoot();
+
+        // A feed of capacity 1 blocks on the second delta
+        final CrdtChangeFeed blocked = new CrdtChangeFeed(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        Thread observer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                blocked.contentChanged(before, CommitInfo.EMPTY);
+                blocked.contentChanged(after, CommitInfo.EMPTY);
+                interrupted.set(Thread.interrupted());
+            }
+        });
+        observer.start();
+        while (observer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        observer.interrupt();
+        observer.join();
+        assertTrue(interrupted.get());
+
+        // The next change is diffed against the state before the interrupted diff
+        Thread next = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                blocked.contentChanged(after, CommitInfo.EMPTY);
+            }
+        });
+        next.start();
+        Set<String> paths = newHashSet();
+        for (int k = 0; k < 4 && paths.size() < 3; k++) {
+            CrdtDelta delta = blocked.poll(10, SECONDS);
+            if (delta == null) {
+                fail("Missing deltas, got " + paths);
+            }
+            paths.add(delta.getPath());
+        }
+        next.join();
+        assertEquals(newHashSet("/set", "/counter", "/lww"), paths);
+    }
+
+    @Test
+    public void mvDeltas() throws RepositoryException, InterruptedException {
+        Session s1 = createAdminSession();
+        Session s2 = createAdminSession();
+        try {
+            setMV(s1, 1);
+            s1.save();
+            CrdtDelta.MVDelta mvDelta = (CrdtDelta.MVDelta) feed.poll(10, SECONDS);
+            assertEquals("/mv", mvDelta.getPath());
+            assertEquals(emptySet(), mvDelta.getBefore());
+            assertEquals(singleton((Object) 1L), mvDelta.getValues());
+            assertFalse(mvDelta.isWidened());
+
+            // Concurrent writes widen the register
+            s2.refresh(false);
+            setMV(s1, 2);
+            setMV(s2, 3);
+            s1.save();
+            mvDelta = (CrdtDelta.MVDelta) feed.poll(10, SECONDS);
+            assertEquals(singleton((Object) 2L), mvDelta.getValues());
+            assertFalse(mvDelta.isWidened());
+            s2.save();
+            mvDelta = (CrdtDelta.MVDelta) feed.poll(10, SECONDS);
+            assertEquals(singleton((Object) 2L), mvDelta.getBefore());
+            assertEquals(newHashSet((Object) 2L, 3L), mvDelta.getValues());
+            assertTrue(mvDelta.isWidened());
+
+            // A write to a widened register replaces all its values
+            s1.refresh(false);
+            setMV(s1, 4);
+            s1.save();
+            mvDelta = (CrdtDelta.MVDelta) feed.poll(10, SECONDS);
+            assertEquals(newHashSet((Object) 2L, 3L), mvDelta.getBefore());
+            assertEquals(singleton((Object) 4L), mvDelta.getValues());
+            assertFalse(mvDelta.isWidened());
+        } finally {
+            s1.logout();
+            s2.logout();
+        }
+    }
+
+    @Test
+    public void mvDeltaWidened() {
+        assertFalse(mvDelta(newHashSet(), newHashSet(1)).isWidened());
+        assertFalse(mvDelta(newHashSet(1), newHashSet(2)).isWidened());
+        assertFalse(mvDelta(newHashSet(1, 2), newHashSet(3)).isWidened());
+        assertFalse(mvDelta(newHashSet(1, 2), newHashSet(1)).isWidened());
+        assertFalse(mvDelta(newHashSet(1, 2), newHashSet(3, 4)).isWidened());
+        assertTrue(mvDelta(newHashSet(1), newHashSet(1, 2)).isWidened());
+        assertTrue(mvDelta(newHashSet(1, 2), newHashSet(2, 3)).isWidened());
+    }
+
+    private static CrdtDelta.MVDelta mvDelta(Set<?> before, Set<?> after) {
+        return new CrdtDelta.MVDelta("/mv", Sets.<Object>newHashSet(before), Sets.<Object>newHashSet(after));
+    }
+
+    private static void setMV(Session session, long value) throws RepositoryException {
+        session.getNode("/mv").setProperty("value", new Value[] {session.getValueFactory().createValue(value)});
+    }
+
+}
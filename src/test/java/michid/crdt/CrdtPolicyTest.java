@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static michid.crdt.plugins.CrdtType.ATOMIC_SET;
+import static michid.crdt.plugins.CrdtType.LWW_REGISTER;
+import static michid.crdt.plugins.StringDictionary.ATOMIC_SET_CODES;
+import static michid.crdt.plugins.TwoPhaseSetEditor.MIX_TWO_PHASE_SET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.google.common.collect.ImmutableSet;
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import michid.crdt.plugins.CrdtPolicy;
+import michid.crdt.plugins.CrdtPolicyService;
+import michid.crdt.plugins.TwoPhaseSetEditorProvider;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrdtPolicyTest extends TestBase {
+    private final CrdtPolicyService policyService = new CrdtPolicyService();
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr
+                .with(new AtomicSetEditorProvider(policyService))
+                .with(new TwoPhaseSetEditorProvider(policyService));
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            root.addNode("hot").addNode("set").addMixin(MIX_ATOMIC_SET);
+            root.addNode("cold").addNode("set").addMixin(MIX_ATOMIC_SET);
+            root.getNode("cold").addNode("twoPhaseSet").addMixin(MIX_TWO_PHASE_SET);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void parse() {
+        CrdtPolicy policy = CrdtPolicy.parse(ImmutableSet.of(ATOMIC_SET),
+                "/a;maxSize=10",
+                "/a/*/c;encoding=dictionary",
+                "/a/b;enabled=false",
+                "/a/b/c;maxSize=5");
+
+        assertEquals(Long.MAX_VALUE, policy.getMaxSize());
+        assertEquals(10, policy.getPolicy("/a/x/y").getMaxSize());
+        assertTrue(policy.getPolicy("/a/x/c/d").isDictionaryEncoded());
+        assertFalse(policy.getPolicy("/a/x/d").isDictionaryEncoded());
+        assertFalse(policy.getPolicy("/a/b").isEnabled());
+
+        // Explicit names override and also match wildcards
+        CrdtPolicy c = policy.getPolicy("/a/b/c");
+        assertEquals(5, c.getMaxSize());
+        assertTrue(c.isDictionaryEncoded());
+        assertTrue(policy.getPolicy("/z/a").isEnabled());
+    }
+
+    @Test
+    public void typed() {
+        String[] entries = {"/a;maxSize=10", "/a/b;type=mix:atomicSet;enabled=false"};
+        CrdtPolicy set = CrdtPolicy.parse(ImmutableSet.of(ATOMIC_SET), entries);
+        CrdtPolicy lww = CrdtPolicy.parse(ImmutableSet.of(LWW_REGISTER), entries);
+
+        assertFalse(set.getPolicy("/a/b").isEnabled());
+        assertTrue(lww.getPolicy("/a/b").isEnabled());
+
+        // Keys not applying to a type are ignored for untyped entries
+        assertEquals(10, set.getPolicy("/a").getMaxSize());
+        assertEquals(Long.MAX_VALUE, lww.getPolicy("/a").getMaxSize());
+    }
+
+    @Test
+    public void invalid() {
+        for (String entry : new String[] {"a;maxSize=1", "/a;maxSize=x", "/a;unknown=1", "/a;encoding=zip",
+                "/a;type=mix:lwwRegister;maxSize=1", "/a;type=mix:twoPhaseSet;encoding=dictionary",
+                "/a;type=mix:atomicCounter;enabled=false", "/a;type=mix:unknown"}) {
+            try {
+                CrdtPolicy.validate(entry);
+                fail("Expected invalid policy: " + entry);
+            } catch (IllegalArgumentException expected) { }
+        }
+    }
+
+    @Test
+    public void hotReload() throws RepositoryException {
+        policyService.setPolicies("/hot;encoding=dictionary;maxSize=2", "/cold;enabled=false");
+
+        add("/hot/set", "a", "b");
+        assertTrue(getNodeStore().getRoot().getChildNode("hot").getChildNode("set").hasProperty(ATOMIC_SET_CODES));
+        try {
+            add("/hot/set", "c");
+            fail("Expected maxSize to be exceeded");
+        } catch (RepositoryException expected) { }
+
+        // Disabled subtrees are not processed by any of the editors
+        add("/cold/set", "a");
+        assertFalse(getNodeStore().getRoot().getChildNode("cold").getChildNode("set").hasProperty(ATOMIC_SET_VALUES));
+        add("/cold/twoPhaseSet", "a");
+        assertTrue(getNodeStore().getRoot().getChildNode("cold").getChildNode("twoPhaseSet").hasProperty(ATOMIC_SET_ADD + "a"));
+
+        // Policy changes apply to the next commit
+        policyService.setPolicies();
+        add("/hot/set", "c");
+        assertEquals(3, getNodeStore().getRoot().getChildNode("hot").getChildNode("set")
+                .getProperty(ATOMIC_SET_CODES).count());
+        add("/cold/set", "b");
+        assertTrue(getNodeStore().getRoot().getChildNode("cold").getChildNode("set").hasProperty(ATOMIC_SET_VALUES));
+    }
+
+    private void add(String path, String... values) throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            session.getNode(path).setProperty(ATOMIC_SET_ADD + values[0], values);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static java.util.Arrays.asList;
+import static michid.crdt.plugins.CrdtType.ATOMIC_COUNTER;
+import static michid.crdt.plugins.CrdtType.ATOMIC_SET;
+import static michid.crdt.plugins.CrdtType.LWW_REGISTER;
+import static michid.crdt.plugins.CrdtType.getTypes;
+import static org.apache.jackrabbit.JcrConstants.JCR_MIXINTYPES;
+import static org.apache.jackrabbit.oak.api.Type.NAMES;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import michid.crdt.plugins.CrdtType;
+import michid.crdt.plugins.CrdtTypeResolver;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.Test;
+
+public class CrdtTypeTest {
+
+    @Test
+    public void types() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        assertTrue(getTypes(builder).isEmpty());
+
+        builder.setProperty(JCR_MIXINTYPES, asList("mix:referenceable", ATOMIC_SET.getMixin()), NAMES);
+        assertEquals(ImmutableSet.of(ATOMIC_SET), getTypes(builder));
+        assertEquals(ImmutableSet.of(ATOMIC_SET), getTypes(builder.getNodeState()));
+
+        builder.setProperty(JCR_MIXINTYPES, asList(ATOMIC_COUNTER.getMixin(), LWW_REGISTER.getMixin()), NAMES);
+        assertEquals(ImmutableSet.of(ATOMIC_COUNTER, LWW_REGISTER), getTypes(builder));
+    }
+
+    @Test
+    public void register() {
+        CrdtType type = CrdtType.register("mix:testType");
+        assertSame(type, CrdtType.register("mix:testType"));
+        assertSame(type, CrdtType.get("mix:testType"));
+
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.setProperty(JCR_MIXINTYPES, asList("mix:testType"), NAMES);
+        assertEquals(ImmutableSet.of(type), getTypes(builder));
+    }
+
+    @Test
+    public void resolver() {
+        CrdtTypeResolver resolver = new CrdtTypeResolver();
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.setProperty(JCR_MIXINTYPES, asList(ATOMIC_SET.getMixin()), NAMES);
+        assertTrue(resolver.isType(builder, ATOMIC_SET));
+        assertSame(resolver.getTypes(builder), resolver.getTypes(builder));
+    }
+}
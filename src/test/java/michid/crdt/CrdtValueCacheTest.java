@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static michid.crdt.plugins.StringDictionary.ATOMIC_SET_CODES;
+import static michid.crdt.plugins.StringDictionary.ENCODING;
+import static michid.crdt.plugins.StringDictionary.ENCODING_DICTIONARY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.apache.jackrabbit.oak.api.Type.STRINGS;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.plugins.segment.RecordId;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentPropertyState;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrdtValueCacheTest extends TestBase {
+    private final AtomicSetEditorProvider provider = new AtomicSetEditorProvider();
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr.with(provider);
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            Node set = root.addNode("set");
+            set.addMixin(MIX_ATOMIC_SET);
+            set.setProperty(ATOMIC_SET_ADD + 1, 3);
+            set.setProperty(ATOMIC_SET_ADD + 2, 1);
+            set.setProperty(ATOMIC_SET_ADD + 3, 2);
+            Node encoded = root.addNode("encoded");
+            encoded.addMixin(MIX_ATOMIC_SET);
+            encoded.setProperty(ENCODING, ENCODING_DICTIONARY);
+            encoded.setProperty(ATOMIC_SET_ADD + 1, new String[] {"b", "a"});
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void cache() throws RepositoryException {
+        CrdtValueCache cache = new CrdtValueCache(getNodeStore(), 1000);
+        assertNull(cache.get("/set", "missing"));
+
+        MaterializedValue values = cache.get("/set", ATOMIC_SET_VALUES);
+        assertTrue(values.isLong());
+        assertArrayEquals(new long[] {1, 2, 3}, values.toLongArray());
+        assertTrue(values.contains(2));
+        assertFalse(values.contains(4));
+        assertSame(values, cache.get("/set", ATOMIC_SET_VALUES));
+        assertEquals(1, cache.getHitCount());
+
+        Session session = createAdminSession();
+        try {
+            session.getNode("/set").setProperty(ATOMIC_SET_REMOVE + 1, 2);
+            session.save();
+        } finally {
+            session.logout();
+        }
+        assertArrayEquals(new long[] {1, 3}, cache.get("/set", ATOMIC_SET_VALUES).toLongArray());
+    }
+
+    @Test
+    public void encodedSet() throws RepositoryException {
+        CrdtValueCache cache = new CrdtValueCache(getNodeStore(), 1000, provider.getDictionary());
+        MaterializedValue values = cache.get("/encoded", ATOMIC_SET_VALUES);
+        assertTrue(values.contains("a"));
+        assertTrue(values.contains("b"));
+        assertEquals(2, values.size());
+        assertSame(values, cache.get("/encoded", ATOMIC_SET_VALUES));
+
+        Session session = createAdminSession();
+        try {
+            session.getNode("/encoded").setProperty(ATOMIC_SET_REMOVE + 1, "a");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        values = cache.get("/encoded", ATOMIC_SET_VALUES);
+        assertFalse(values.contains("a"));
+        assertTrue(values.contains("b"));
+    }
+
+    @Test
+    public void sharedRecord() {
+        // A plain string valued set may share the record of the codes of an
+        // encoded set. Reading that record as strings must not return the
+        // decoded members and vice versa.
+        RecordId codes = ((SegmentPropertyState) getNodeStore().getRoot()
+                .getChildNode("encoded").getProperty(ATOMIC_SET_CODES)).getRecordId();
+        CrdtValueCache.Key plain = new CrdtValueCache.Key(codes, STRINGS, false);
+        CrdtValueCache.Key decoded = new CrdtValueCache.Key(codes, STRINGS, true);
+        assertFalse(plain.equals(decoded));
+        assertEquals(plain, new CrdtValueCache.Key(codes, STRINGS, false));
+        assertEquals(decoded, new CrdtValueCache.Key(codes, STRINGS, true));
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static java.lang.management.ManagementFactory.getThreadMXBean;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ThreadMXBean;
+
+import michid.crdt.plugins.AtomicSetEditor;
+import michid.crdt.plugins.FlagEditor;
+import michid.crdt.plugins.LWWEditor;
+import michid.crdt.plugins.LWWElementSetEditor;
+import michid.crdt.plugins.OrderedSetEditor;
+import michid.crdt.plugins.TwoPhaseSetEditor;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorDiff;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Regression test for the allocation rate of the CRDT editors on commits
+ * without CRDT changes. The bytes allocated by each editor while processing
+ * a commit changing many plain nodes are compared to those of an editor that
+ * only traverses the changes. The difference per changed node must stay
+ * within {@link #MAX_BYTES_PER_NODE}. The editors still allocate one small
+ * editor instance per changed node, which this bound leaves room for, but
+ * not for builders, collections or property copies.
+ * <p>
+ * Skipped on JVMs not supporting per thread allocation accounting.
+ */
+public class EditorAllocationTest extends TestBase {
+    private static final int NODES = 1000;
+    private static final int WARMUP = 200;
+    private static final int ROUNDS = 200;
+    private static final long MAX_BYTES_PER_NODE = 64;
+
+    private interface EditorFactory {
+        Editor newEditor(NodeBuilder builder);
+    }
+
+    private static final EditorFactory TRAVERSAL = new EditorFactory() {
+        @Override
+        public Editor newEditor(NodeBuilder builder) {
+            return new DefaultEditor() {
+                @Override
+                public Editor childNodeAdded(String name, NodeState after) {
+                    return this;
+                }
+
+                @Override
+                public Editor childNodeChanged(String name, NodeState before, NodeState after) {
+                    return this;
+                }
+            };
+        }
+    };
+
+    private NodeState before;
+    private NodeState after;
+
+    @Before
+    public void setup() throws CommitFailedException {
+        NodeStore store = getNodeStore();
+        NodeBuilder builder = store.getRoot().builder();
+        NodeBuilder tree = builder.child("tree");
+        for (int k = 0; k < NODES; k++) {
+            tree.child("n" + k).setProperty("p", 0L);
+        }
+        before = store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+        builder = before.builder();
+        tree = builder.child("tree");
+        for (int k = 0; k < NODES; k++) {
+            tree.child("n" + k).setProperty("p", 1L);
+        }
+        after = store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    }
+
+    @Test
+    public void atomicSet() {
+        assertAllocation("atomic set", new EditorFactory() {
+            @Override
+            public Editor newEditor(NodeBuilder builder) {
+                return new AtomicSetEditor(builder);
+            }
+        });
+    }
+
+    @Test
+    public void lwwRegister() {
+        assertAllocation("lww register", new EditorFactory() {
+            @Override
+            public Editor newEditor(NodeBuilder builder) {
+                return new LWWEditor(builder);
+            }
+        });
+    }
+
+    @Test
+    public void twoPhaseSet() {
+        assertAllocation("two phase set", new EditorFactory() {
+            @Override
+            public Editor newEditor(NodeBuilder builder) {
+                return new TwoPhaseSetEditor(builder);
+            }
+        });
+    }
+
+    @Test
+    public void lwwElementSet() {
+        assertAllocation("lww element set", new EditorFactory() {
+            @Override
+            public Editor newEditor(NodeBuilder builder) {
+                return new LWWElementSetEditor(builder, 0);
+            }
+        });
+    }
+
+    @Test
+    public void orderedSet() {
+        assertAllocation("ordered set", new EditorFactory() {
+            @Override
+            public Editor newEditor(NodeBuilder builder) {
+                return new OrderedSetEditor(builder);
+            }
+        });
+    }
+
+    @Test
+    public void flag() {
+        assertAllocation("flag", new EditorFactory() {
+            @Override
+            public Editor newEditor(NodeBuilder builder) {
+                return new FlagEditor(builder);
+            }
+        });
+    }
+
+    private void assertAllocation(String name, EditorFactory factory) {
+        ThreadMXBean threadMXBean = getThreadMXBean();
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+        assumeTrue(bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        measure(bean, TRAVERSAL, WARMUP);
+        measure(bean, factory, WARMUP);
+        long baseline = measure(bean, TRAVERSAL, ROUNDS);
+        long allocated = measure(bean, factory, ROUNDS);
+
+        double perNode = (allocated - baseline) / (double) ROUNDS / NODES;
+        assertTrue(name + " allocates " + perNode + " bytes per node", perNode <= MAX_BYTES_PER_NODE);
+    }
+
+    private long measure(com.sun.management.ThreadMXBean bean, EditorFactory factory, int rounds) {
+        long id = Thread.currentThread().getId();
+        long start = bean.getThreadAllocatedBytes(id);
+        for (int k = 0; k < rounds; k++) {
+            CommitFailedException e = EditorDiff.process(factory.newEditor(after.builder()), before, after);
+            if (e != null) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return bean.getThreadAllocatedBytes(id) - start;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static java.util.Arrays.asList;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.LWWElementSetEditor.MIX_LWW_ELEMENT_SET;
+import static michid.crdt.plugins.TwoPhaseSetEditor.MIX_TWO_PHASE_SET;
+import static org.apache.jackrabbit.JcrConstants.JCR_MIXINTYPES;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.apache.jackrabbit.oak.api.Type.LONGS;
+import static org.apache.jackrabbit.oak.api.Type.NAMES;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.apache.jackrabbit.oak.plugins.memory.PropertyStates.createProperty;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import michid.crdt.plugins.ElementSetConflictHandler;
+import michid.crdt.plugins.LWWElementSetEditor;
+import michid.crdt.plugins.LWWElementSetEditorProvider;
+import michid.crdt.plugins.TwoPhaseSetEditor;
+import michid.crdt.plugins.TwoPhaseSetEditorProvider;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.spi.commit.PartialConflictHandler.Resolution;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ElementSetTest extends TestBase {
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr
+                .with(new TwoPhaseSetEditorProvider())
+                .with(new LWWElementSetEditorProvider())
+                .with(new ElementSetConflictHandler());
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            root.addNode("twoPhaseSet").addMixin(MIX_TWO_PHASE_SET);
+            root.addNode("lwwSet").addMixin(MIX_LWW_ELEMENT_SET);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void twoPhaseSet() throws RepositoryException {
+        update("/twoPhaseSet", ATOMIC_SET_ADD, "a", "b/c", "d");
+        update("/twoPhaseSet", ATOMIC_SET_REMOVE, "a");
+        assertEquals(ImmutableSet.of("b/c", "d"), getTwoPhaseSetMembers());
+
+        // Removed members cannot be added again
+        update("/twoPhaseSet", ATOMIC_SET_ADD, "a");
+        assertEquals(ImmutableSet.of("b/c", "d"), getTwoPhaseSetMembers());
+    }
+
+    @Test
+    public void lwwElementSet() throws RepositoryException {
+        update("/lwwSet", ATOMIC_SET_ADD, "a", "b/c", "d");
+        update("/lwwSet", ATOMIC_SET_REMOVE, "a");
+        assertEquals(ImmutableSet.of("b/c", "d"), getLWWElementSetMembers());
+
+        // Removed members can be added again
+        update("/lwwSet", ATOMIC_SET_ADD, "a");
+        assertEquals(ImmutableSet.of("a", "b/c", "d"), getLWWElementSetMembers());
+    }
+
+    @Test
+    public void mergeTwoPhaseSet() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.setProperty(JCR_MIXINTYPES, asList(MIX_TWO_PHASE_SET), NAMES);
+        Resolution resolution = new ElementSetConflictHandler().changeChangedProperty(builder,
+                createProperty("e-a", 1L), createProperty("e-a", 0L));
+        assertEquals(Resolution.MERGED, resolution);
+        assertEquals(0L, (long) builder.getProperty("e-a").getValue(LONG));
+    }
+
+    @Test
+    public void mergeLWWElementSet() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.setProperty(JCR_MIXINTYPES, asList(MIX_LWW_ELEMENT_SET), NAMES);
+        Resolution resolution = new ElementSetConflictHandler().addExistingProperty(builder,
+                createProperty("e-a", asList(5L, 2L), LONGS), createProperty("e-a", asList(3L, 4L), LONGS));
+        assertEquals(Resolution.MERGED, resolution);
+        assertEquals(asList(5L, 4L), ImmutableList.copyOf(builder.getProperty("e-a").getValue(LONGS)));
+    }
+
+    @Test
+    public void otherProperty() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.setProperty(JCR_MIXINTYPES, asList(MIX_TWO_PHASE_SET), NAMES);
+        assertEquals(null, new ElementSetConflictHandler().changeChangedProperty(builder,
+                createProperty("other", 1L), createProperty("other", 0L)));
+    }
+
+    private void update(String path, String prefix, String... members) throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            session.getNode(path).setProperty(prefix + 1, members);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    private Set<String> getTwoPhaseSetMembers() {
+        return TwoPhaseSetEditor.getMembers(getNode("twoPhaseSet"));
+    }
+
+    private Set<String> getLWWElementSetMembers() {
+        return LWWElementSetEditor.getMembers(getNode("lwwSet"));
+    }
+
+    private NodeState getNode(String name) {
+        return getNodeStore().getRoot().getChildNode(name);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.FlagEditor.FLAG_TOKENS;
+import static michid.crdt.plugins.FlagEditor.MIX_DISABLE_WINS_FLAG;
+import static michid.crdt.plugins.FlagEditor.MIX_ENABLE_WINS_FLAG;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER;
+import static org.apache.jackrabbit.oak.api.Type.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.google.common.collect.Lists;
+import michid.crdt.plugins.FlagEditorProvider;
+import michid.crdt.plugins.FlagMirror;
+import michid.crdt.plugins.LWWEditorProvider;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlagTest extends TestBase {
+    private final FlagMirror mirror = new FlagMirror();
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr
+                .with(new FlagEditorProvider())
+                .with(new LWWEditorProvider())
+                .with(mirror);
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            root.addNode("ew").addMixin(MIX_ENABLE_WINS_FLAG);
+            root.addNode("dw").addMixin(MIX_DISABLE_WINS_FLAG);
+            root.addNode("config").addMixin(MIX_LWW_REGISTER);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void enableDisable() throws RepositoryException {
+        for (String flag : new String[] {"/ew", "/dw"}) {
+            assertFalse(isEnabled(flag));
+            enable(flag);
+            assertTrue(isEnabled(flag));
+            enable(flag);
+            assertTrue(isEnabled(flag));
+            disable(flag);
+            assertFalse(isEnabled(flag));
+            enable(flag);
+            assertTrue(isEnabled(flag));
+        }
+    }
+
+    @Test
+    public void enableWins() throws RepositoryException {
+        enable("/ew");
+        concurrentEnableDisable("/ew");
+        assertTrue(isEnabled("/ew"));
+
+        // The enable not observed by the disable is left
+        Session session = createAdminSession();
+        try {
+            assertEquals(1, session.getProperty("/ew/" + FLAG_TOKENS).getValues().length);
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void disableWins() throws RepositoryException {
+        enable("/dw");
+        concurrentEnableDisable("/dw");
+        assertFalse(isEnabled("/dw"));
+    }
+
+    @Test
+    public void boundedTokens() throws RepositoryException {
+        for (int k = 0; k < 20; k++) {
+            enable("/ew");
+            disable("/dw");
+        }
+        assertEquals(1, getTokenCount("/ew"));
+        assertEquals(1, getTokenCount("/dw"));
+
+        disable("/ew");
+        enable("/dw");
+        assertEquals(0, getTokenCount("/ew"));
+        assertEquals(0, getTokenCount("/dw"));
+    }
+
+    private int getTokenCount(String flag) throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            return session.getProperty(flag + '/' + FLAG_TOKENS).getValues().length;
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void mirror() throws RepositoryException {
+        final List<String> changed = Lists.newArrayList();
+        mirror.addListener(new FlagMirror.Listener() {
+            @Override
+            public void changed(String path) {
+                changed.add(path);
+            }
+        });
+        mirror.subscribe("/ew");
+        mirror.subscribe("/config");
+        assertFalse(mirror.isEnabled("/ew"));
+
+        enable("/ew");
+        assertTrue(mirror.isEnabled("/ew"));
+        assertEquals(Lists.newArrayList("/ew"), changed);
+
+        Session session = createAdminSession();
+        try {
+            session.getNode("/config").setProperty(LWW_UPDATE + 1, "v1");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        assertEquals("v1", mirror.getValue("/config").getValue(STRING));
+
+        disable("/ew");
+        assertFalse(mirror.isEnabled("/ew"));
+        assertFalse(mirror.isEnabled("/dw"));
+        assertEquals(Lists.newArrayList("/ew", "/config", "/ew"), changed);
+    }
+
+    private void concurrentEnableDisable(String flag) throws RepositoryException {
+        Session s1 = createAdminSession();
+        Session s2 = createAdminSession();
+        try {
+            Flags.disable(s1.getNode(flag));
+            Flags.enable(s2.getNode(flag));
+            s1.save();
+            s2.save();
+        } finally {
+            s1.logout();
+            s2.logout();
+        }
+    }
+
+    private void enable(String flag) throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Flags.enable(session.getNode(flag));
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    private void disable(String flag) throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Flags.disable(session.getNode(flag));
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    private boolean isEnabled(String flag) throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            return Flags.isEnabled(session.getNode(flag));
+        } finally {
+            session.logout();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Sets.newHashSet;
+import static com.google.common.util.concurrent.Futures.allAsList;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_COUNTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.value.ValueFactoryImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GroupCommitTest extends TestBase {
+    private static final ValueFactory VALUES = ValueFactoryImpl.getInstance();
+
+    private GroupCommit groupCommit;
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr.with(new AtomicSetEditorProvider());
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            root.addNode("set").addMixin(MIX_ATOMIC_SET);
+            root.addNode("counter").addMixin("mix:atomicCounter");
+            root.addNode("plain");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        groupCommit = new GroupCommit(getRepository(), getAdminCredentials());
+    }
+
+    @After
+    public void closeGroupCommit() {
+        groupCommit.close();
+    }
+
+    @Test
+    public void groupCommit() throws ExecutionException, InterruptedException, RepositoryException {
+        List<ListenableFuture<Void>> futures = newArrayList();
+        Set<Long> expectedSet = newHashSet();
+        for (long k = 0; k < 100; k++) {
+            futures.add(groupCommit.increment("/counter", k));
+            futures.add(groupCommit.add("/set", VALUES.createValue(k)));
+            expectedSet.add(k);
+        }
+        for (long k = 0; k < 100; k += 2) {
+            futures.add(groupCommit.remove("/set", VALUES.createValue(k)));
+            expectedSet.remove(k);
+        }
+        allAsList(futures).get();
+
+        // Operations are submitted faster than they are committed
+        assertTrue(groupCommit.getCommitCount() < futures.size());
+
+        Session session = createAdminSession();
+        try {
+            assertEquals(4950, session.getProperty("/counter/" + PROP_COUNTER).getLong());
+            Set<Long> values = newHashSet();
+            for (Value value : session.getProperty("/set/" + ATOMIC_SET_VALUES).getValues()) {
+                values.add(value.getLong());
+            }
+            assertEquals(expectedSet, values);
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void removeThenAdd() throws ExecutionException, InterruptedException, RepositoryException {
+        allAsList(
+            groupCommit.add("/set", VALUES.createValue(42L)),
+            groupCommit.remove("/set", VALUES.createValue(42L)),
+            groupCommit.add("/set", VALUES.createValue(42L))).get();
+
+        Session session = createAdminSession();
+        try {
+            Value[] values = session.getProperty("/set/" + ATOMIC_SET_VALUES).getValues();
+            assertEquals(1, values.length);
+            assertEquals(42L, values[0].getLong());
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonCrdt() throws Throwable {
+        try {
+            groupCommit.increment("/plain", 1).get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test
+    public void close() {
+        List<ListenableFuture<Void>> futures = newArrayList();
+        for (long k = 0; k < 100; k++) {
+            futures.add(groupCommit.increment("/counter", 1));
+        }
+        groupCommit.close();
+        try {
+            groupCommit.increment("/counter", 1);
+            fail("Expected submit to be rejected after close");
+        } catch (IllegalStateException expected) { }
+
+        // Every operation submitted before closing completes
+        for (ListenableFuture<Void> future : futures) {
+            assertTrue(future.isDone());
+        }
+    }
+
+}
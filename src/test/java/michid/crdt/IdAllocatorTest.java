@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.google.common.collect.Sets;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditorProvider;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EditorHook;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IdAllocatorTest extends TestBase {
+    private final CommitHook hook = new EditorHook(new AtomicCounterEditorProvider());
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            session.getRootNode().addNode("ids").addMixin("mix:atomicCounter");
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void unique() throws Exception {
+        final Set<Long> ids = Sets.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final IdAllocator allocator = new IdAllocator(getNodeStore(), hook, "/ids", "owner");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = newArrayList();
+            for (int k = 0; k < 4; k++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int n = 0; n < 10000; n++) {
+                            assertTrue(ids.add(allocator.next()));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            allocator.close();
+        }
+        assertEquals(40000, ids.size());
+        assertTrue(allocator.getLeaseCount() < 40000 / IdAllocator.MIN_BLOCK_SIZE);
+    }
+
+    @Test
+    public void distinctOwners() throws Exception {
+        IdAllocator allocator1 = new IdAllocator(getNodeStore(), hook, "/ids", "owner1");
+        IdAllocator allocator2 = new IdAllocator(getNodeStore(), hook, "/ids", "owner2");
+        Set<Long> ids = Sets.newHashSet();
+        for (int k = 0; k < 1000; k++) {
+            assertTrue(ids.add(allocator1.next()));
+            assertTrue(ids.add(allocator2.next()));
+        }
+        allocator1.close();
+        allocator2.close();
+    }
+
+    @Test
+    public void resumeAfterClose() throws Exception {
+        IdAllocator allocator = new IdAllocator(getNodeStore(), hook, "/ids", "owner");
+        long last = 0;
+        for (int k = 0; k < 5; k++) {
+            last = allocator.next();
+        }
+        allocator.close();
+
+        allocator = new IdAllocator(getNodeStore(), hook, "/ids", "owner");
+        assertEquals(last + 1, allocator.next());
+        assertEquals(0, allocator.getLeaseCount());
+        allocator.close();
+    }
+
+    @Test
+    public void crash() throws Exception {
+        IdAllocator crashed = new IdAllocator(getNodeStore(), hook, "/ids", "owner");
+        Set<Long> ids = Sets.newHashSet();
+        for (int k = 0; k < 5; k++) {
+            ids.add(crashed.next());
+        }
+
+        // No close: the rest of the block is lost and the new instance leases a new one
+        IdAllocator allocator = new IdAllocator(getNodeStore(), hook, "/ids", "owner");
+        for (int k = 0; k < 5; k++) {
+            assertFalse(ids.contains(allocator.next()));
+        }
+        assertEquals(1, allocator.getLeaseCount());
+        allocator.close();
+    }
+
+    @Test
+    public void crashAfterResume() throws Exception {
+        IdAllocator allocator = new IdAllocator(getNodeStore(), hook, "/ids", "owner");
+        allocator.next();
+        allocator.close();
+
+        IdAllocator crashed = new IdAllocator(getNodeStore(), hook, "/ids", "owner");
+        Set<Long> ids = Sets.newHashSet();
+        for (int k = 0; k < 5; k++) {
+            ids.add(crashed.next());
+        }
+
+        // The resumed instance removed the mark such that ids are not handed out twice
+        allocator = new IdAllocator(getNodeStore(), hook, "/ids", "owner");
+        for (int k = 0; k < 5; k++) {
+            assertFalse(ids.contains(allocator.next()));
+        }
+        allocator.close();
+    }
+
+    @Test
+    public void nextAfterClose() throws Exception {
+        IdAllocator allocator = new IdAllocator(getNodeStore(), hook, "/ids", "owner");
+        long first = allocator.next();
+        allocator.close();
+        try {
+            allocator.next();
+            fail("Expected allocator to be closed");
+        } catch (IllegalStateException expected) { }
+
+        // The ids claimed by close are handed out by the next allocator only
+        allocator = new IdAllocator(getNodeStore(), hook, "/ids", "owner");
+        assertEquals(first + 1, allocator.next());
+        allocator.close();
+    }
+
+    @Test
+    public void commitsPerBlock() throws Exception {
+        final AtomicInteger commits = new AtomicInteger();
+        CommitHook countingHook = new CommitHook() {
+            @Override
+            public NodeState processCommit(NodeState before, NodeState after, CommitInfo info)
+                    throws CommitFailedException {
+                commits.incrementAndGet();
+                return hook.processCommit(before, after, info);
+            }
+        };
+
+        IdAllocator allocator = new IdAllocator(getNodeStore(), countingHook, "/ids", "owner");
+        for (int k = 0; k < IdAllocator.MIN_BLOCK_SIZE; k++) {
+            allocator.next();
+        }
+        assertEquals(1, allocator.getLeaseCount());
+        assertEquals(1, commits.get());
+
+        // Nothing to reclaim on close as the block is used up
+        allocator.close();
+        assertEquals(1, commits.get());
+        assertFalse(getNodeStore().getRoot().getChildNode("ids").getChildNode(IdAllocator.LEASES)
+                .getChildNode("owner").exists());
+    }
+}
@@ -22,17 +22,13 @@ package michid.crdt;
 import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
 import static michid.crdt.plugins.LWWEditor.LWW_VALUE;
 import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER;
-import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER_CND;
 import static org.junit.Assert.assertEquals;
 
-import java.io.IOException;
-
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
 import michid.crdt.plugins.LWWEditorProvider;
-import org.apache.jackrabbit.commons.cnd.ParseException;
 import org.apache.jackrabbit.oak.jcr.Jcr;
 import org.junit.Before;
 import org.junit.Test;
@@ -40,10 +36,9 @@ import org.junit.Test;
 public class LWWTest extends TestBase {
 
     @Before
-    public void setup() throws RepositoryException, IOException, ParseException {
+    public void setup() throws RepositoryException {
         Session session = createAdminSession();
         try {
-            registerNodeType(session, MIX_LWW_REGISTER_CND);
             Node root = session.getRootNode();
             Node lww = root.addNode("lww");
             lww.addMixin(MIX_LWW_REGISTER);
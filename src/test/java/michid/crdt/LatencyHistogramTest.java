@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void empty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long k = 0; k < 10; k++) {
+            histogram.record(k);
+        }
+        assertEquals(10, histogram.getCount());
+        assertEquals(4, histogram.getPercentile(0.5));
+        assertEquals(9, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void negativeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long k = 1; k <= 100000; k++) {
+            histogram.record(k * 1000);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertWithin(50000000, histogram.getPercentile(0.5));
+        assertWithin(99000000, histogram.getPercentile(0.99));
+        assertWithin(99900000, histogram.getPercentile(0.999));
+        assertWithin(100000000, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void largeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertWithin(Long.MAX_VALUE, histogram.getPercentile(1));
+    }
+
+    /**
+     * Percentiles are lower bounds of their bucket, which is at most 1/16 of the value wide
+     */
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected " + expected + " but was " + actual,
+                actual <= expected && actual >= expected - expected / 16);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.LoadGenerator.Operation.COUNTER;
+import static michid.crdt.LoadGenerator.Operation.LWW;
+import static michid.crdt.LoadGenerator.Operation.MV;
+import static michid.crdt.LoadGenerator.Operation.SET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.RepositoryException;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void defaults() {
+        LoadGenerator generator = LoadGenerator.fromArgs(null, null);
+        assertEquals(8, generator.getWorkers());
+        assertEquals(60, generator.getDuration());
+        assertEquals(5, generator.getReport());
+        assertEquals(1000, generator.getRange());
+        assertEquals(ImmutableMap.of(COUNTER, 1, SET, 1, LWW, 1, MV, 1), generator.getWeights());
+    }
+
+    @Test
+    public void fromArgs() {
+        LoadGenerator generator = LoadGenerator.fromArgs(null, null,
+                "--workers=16", "--duration=120", "--report=10", "--range=50", "--mix=counter:4, set:3,LWW:2");
+        assertEquals(16, generator.getWorkers());
+        assertEquals(120, generator.getDuration());
+        assertEquals(10, generator.getReport());
+        assertEquals(50, generator.getRange());
+        assertEquals(ImmutableMap.of(COUNTER, 4, SET, 3, LWW, 2), generator.getWeights());
+    }
+
+    @Test
+    public void invalidArgs() {
+        String[][] invalid = {
+                {"workers=16"}, {"--workers"}, {"--workers=many"}, {"--mix=counter"},
+                {"--mix=counter:1:2"}, {"--mix=unknown:1"}, {"--mix=counter:0"}};
+        for (String[] args : invalid) {
+            try {
+                LoadGenerator.fromArgs(null, null, args);
+                fail("Expected invalid arguments: " + args[0]);
+            } catch (IllegalArgumentException expected) { }
+        }
+    }
+
+    @Test
+    public void intervalReset() {
+        LoadGenerator generator = LoadGenerator.fromArgs(null, null);
+        generator.record(1000);
+        generator.record(2000);
+        assertEquals(2, generator.nextInterval().getCount());
+
+        generator.record(3000);
+        LatencyHistogram interval = generator.nextInterval();
+        assertEquals(1, interval.getCount());
+        assertEquals(0, generator.nextInterval().getCount());
+        assertEquals(3, generator.getOperationCount());
+    }
+
+    @Test
+    public void errors() {
+        LoadGenerator generator = LoadGenerator.fromArgs(null, null);
+        generator.error(new InvalidItemStateException());
+        generator.error(new InvalidItemStateException());
+        generator.error(new RepositoryException());
+        generator.error(new NumberFormatException());
+        assertEquals(4, generator.getErrorCount());
+        assertEquals(ImmutableMap.of("InvalidItemStateException", 2L, "RepositoryException", 1L,
+                "NumberFormatException", 1L), generator.getErrors());
+    }
+}
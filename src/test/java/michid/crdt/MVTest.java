@@ -19,13 +19,22 @@
 
 package michid.crdt;
 
+import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Sets.newHashSet;
+import static java.util.Arrays.asList;
 import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER;
-import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER_CND;
+import static michid.crdt.plugins.MVConflictHandler.MV_MAX_VALUES;
+import static michid.crdt.plugins.MVConflictHandler.MV_OVERFLOW_POLICY;
+import static org.apache.jackrabbit.JcrConstants.JCR_MIXINTYPES;
+import static org.apache.jackrabbit.oak.api.Type.LONGS;
+import static org.apache.jackrabbit.oak.api.Type.NAMES;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.apache.jackrabbit.oak.plugins.memory.PropertyStates.createProperty;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
-import java.io.IOException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
@@ -36,20 +45,23 @@ import javax.jcr.Session;
 import javax.jcr.Value;
 import javax.jcr.ValueFactory;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import michid.crdt.plugins.MVConflictHandler;
-import org.apache.jackrabbit.commons.cnd.ParseException;
+import michid.crdt.plugins.MVConflictHandler.OverflowListener;
+import michid.crdt.plugins.MVConflictHandler.OverflowPolicy;
 import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.spi.commit.PartialConflictHandler.Resolution;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.junit.Before;
 import org.junit.Test;
 
 public class MVTest extends TestBase {
 
     @Before
-    public void setup() throws RepositoryException, IOException, ParseException {
+    public void setup() throws RepositoryException {
         Session session = createAdminSession();
         try {
-            registerNodeType(session, MIX_MV_REGISTER_CND);
             Node root = session.getRootNode();
             Node mv = root.addNode("mv");
             mv.addMixin(MIX_MV_REGISTER);
@@ -179,6 +191,88 @@ public class MVTest extends TestBase {
         }
     }
 
+    @Test
+    public void unboundedByDefault() {
+        MVConflictHandler handler = new MVConflictHandler();
+        List<Long> ours = newArrayList();
+        List<Long> theirs = newArrayList();
+        for (long k = 0; k < 500; k++) {
+            ours.add(k);
+            theirs.add(-k - 1);
+        }
+        NodeBuilder builder = newRegister();
+        assertEquals(Resolution.MERGED, handler.changeChangedProperty(builder,
+                createProperty("value", ours, LONGS), createProperty("value", theirs, LONGS)));
+        assertEquals(1000, builder.getProperty("value").count());
+        assertEquals(0, handler.getOverflowCount());
+    }
+
+    @Test
+    public void overflowKeepNewest() {
+        MVConflictHandler handler = new MVConflictHandler();
+        NodeBuilder builder = newRegister();
+        builder.setProperty(MV_MAX_VALUES, 2L);
+        assertEquals(Resolution.MERGED, handler.changeChangedProperty(builder,
+                createProperty("value", asList(1L), LONGS), createProperty("value", asList(2L, 3L), LONGS)));
+        assertEquals(ImmutableList.of(1L, 2L), ImmutableList.copyOf(builder.getProperty("value").getValue(LONGS)));
+        assertEquals(1, handler.getOverflowCount());
+    }
+
+    @Test
+    public void overflowLWW() {
+        MVConflictHandler handler = new MVConflictHandler();
+        NodeBuilder builder = newRegister();
+        builder.setProperty(MV_MAX_VALUES, 2L);
+        builder.setProperty(MV_OVERFLOW_POLICY, OverflowPolicy.LWW.getName());
+        assertEquals(Resolution.OURS, handler.changeChangedProperty(builder,
+                createProperty("value", asList(1L), LONGS), createProperty("value", asList(2L, 3L), LONGS)));
+    }
+
+    @Test
+    public void malformedMaxValues() {
+        MVConflictHandler handler = new MVConflictHandler(2, OverflowPolicy.KEEP_NEWEST, OverflowListener.NOOP);
+        NodeBuilder builder = newRegister();
+        builder.setProperty(MV_MAX_VALUES, "many");
+        assertEquals(Resolution.MERGED, handler.changeChangedProperty(builder,
+                createProperty("value", asList(1L), LONGS), createProperty("value", asList(2L, 3L), LONGS)));
+        assertEquals(2, builder.getProperty("value").count());
+        assertEquals(1, handler.getOverflowCount());
+
+        // Numeric strings are still honoured
+        builder = newRegister();
+        builder.setProperty(MV_MAX_VALUES, "3");
+        assertEquals(Resolution.MERGED, handler.changeChangedProperty(builder,
+                createProperty("value", asList(1L), LONGS), createProperty("value", asList(2L, 3L), LONGS)));
+        assertEquals(3, builder.getProperty("value").count());
+        assertEquals(1, handler.getOverflowCount());
+    }
+
+    @Test
+    public void overflowReject() {
+        final List<Integer> overflows = newArrayList();
+        MVConflictHandler handler = new MVConflictHandler(1, OverflowPolicy.REJECT,
+                new OverflowListener() {
+                    @Override
+                    public void overflow(String name, int count, int maxValues, OverflowPolicy policy) {
+                        overflows.add(count);
+                    }
+                });
+        NodeBuilder builder = newRegister();
+        assertNull(handler.addExistingProperty(builder,
+                createProperty("value", asList(1L), LONGS), createProperty("value", asList(2L), LONGS)));
+        assertEquals(ImmutableList.of(2), overflows);
+
+        // No overflow
+        assertEquals(Resolution.MERGED, handler.addExistingProperty(builder,
+                createProperty("value", asList(1L), LONGS), createProperty("value", asList(1L), LONGS)));
+    }
+
+    private static NodeBuilder newRegister() {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.setProperty(JCR_MIXINTYPES, asList(MIX_MV_REGISTER), NAMES);
+        return builder;
+    }
+
     private Session newSession() throws ExecutionException, InterruptedException {
         return run(new Callable<Session>() {
             @Override
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.OrderedSetEditor.MAX_CHUNK_SIZE;
+import static michid.crdt.plugins.OrderedSetEditor.MIX_ORDERED_SET;
+import static michid.crdt.plugins.OrderedSetEditor.ORDERED_SET_CHUNKS;
+import static michid.crdt.plugins.OrderedSetEditor.ORDERED_SET_VALUES;
+import static org.apache.jackrabbit.oak.api.Type.STRING;
+import static org.apache.jackrabbit.oak.api.Type.STRINGS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import michid.crdt.plugins.OrderedSetEditorProvider;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.plugins.segment.RecordId;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OrderedSetTest extends TestBase {
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr.with(new OrderedSetEditorProvider());
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            root.addNode("orderedSet").addMixin(MIX_ORDERED_SET);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void addRemove() throws RepositoryException {
+        update(ATOMIC_SET_ADD, "c", "a", "b");
+        update(ATOMIC_SET_REMOVE, "b");
+        update(ATOMIC_SET_ADD, "d");
+
+        OrderedSet<String> set = getSet();
+        assertEquals(3, set.size());
+        assertEquals(ImmutableList.of("a", "c", "d"), ImmutableList.copyOf(set.members()));
+    }
+
+    @Test
+    public void queries() throws RepositoryException {
+        TreeSet<String> expected = new TreeSet<String>();
+        Random rnd = new Random(42);
+        for (int k = 0; k < 10; k++) {
+            List<String> members = Lists.newArrayList();
+            for (int i = 0; i < 500; i++) {
+                members.add(Integer.toString(rnd.nextInt(100000), 36));
+            }
+            expected.addAll(members);
+            update(ATOMIC_SET_ADD, members.toArray(new String[members.size()]));
+        }
+
+        OrderedSet<String> set = getSet();
+        assertEquals(expected.size(), set.size());
+        assertEquals(ImmutableList.copyOf(expected), ImmutableList.copyOf(set.members()));
+        assertTrue(getChunkCount() > 1);
+        assertChunkSizes();
+
+        assertEquals(ImmutableList.copyOf(expected.subSet("a", "c")),
+                ImmutableList.copyOf(set.range("a", "c")));
+        assertEquals(ImmutableList.copyOf(expected.headSet("5")),
+                ImmutableList.copyOf(set.range(null, "5")));
+        assertEquals(ImmutableList.copyOf(expected.subSet("1a", "1b")),
+                ImmutableList.copyOf(OrderedSet.prefix(getNode(), "1a")));
+
+        for (String member : ImmutableList.of("0", "1a", "m", "zzzz", expected.last())) {
+            long rank = expected.headSet(member).size();
+            assertEquals(rank, set.rank(member));
+            assertEquals(expected.ceiling(member), set.get(rank));
+        }
+        assertEquals(null, set.get(expected.size()));
+    }
+
+    @Test
+    public void merge() throws RepositoryException {
+        List<String> members = Lists.newArrayList();
+        for (int k = 0; k < 4 * MAX_CHUNK_SIZE; k++) {
+            members.add(String.format("m%05d", k));
+        }
+        update(ATOMIC_SET_ADD, members.toArray(new String[members.size()]));
+        int chunks = getChunkCount();
+        assertTrue(chunks >= 4);
+
+        List<String> removed = members.subList(10, members.size() - 10);
+        update(ATOMIC_SET_REMOVE, removed.toArray(new String[removed.size()]));
+        assertEquals(1, getChunkCount());
+        assertEquals(20, getSet().size());
+        assertEquals("m00010", getSet().get(10));
+        assertChunkSizes();
+    }
+
+    @Test
+    public void importValues() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            List<Value> values = Lists.newArrayList();
+            for (int k = 0; k < 4 * MAX_CHUNK_SIZE; k++) {
+                values.add(session.getValueFactory().createValue(String.format("m%05d", k)));
+            }
+            AtomicSetImporter importer = new AtomicSetImporter(session, "/orderedSet", MAX_CHUNK_SIZE);
+            assertEquals(3 * MAX_CHUNK_SIZE, importer.importValues(values.subList(0, 3 * MAX_CHUNK_SIZE).iterator()));
+            assertEquals(3 * MAX_CHUNK_SIZE, getSet().size());
+            assertChunkSizes();
+
+            // Importing members past the last chunk does not rewrite the other chunks
+            String first = getNode().getProperty(ORDERED_SET_CHUNKS).getValue(STRING, 0);
+            RecordId firstChunk = getRecordId(getNode().getChildNode(first));
+            importer.importValues(values.subList(3 * MAX_CHUNK_SIZE, values.size()).iterator());
+            assertEquals(4 * MAX_CHUNK_SIZE, getSet().size());
+            assertEquals("m00000", getSet().get(0));
+            assertEquals(firstChunk, getRecordId(getNode().getChildNode(first)));
+            assertChunkSizes();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void invalidMembers() throws RepositoryException {
+        update(ATOMIC_SET_ADD, "a", "b");
+        Session session = createAdminSession();
+        try {
+            Node set = session.getNode("/orderedSet");
+            set.setProperty(ATOMIC_SET_ADD + 1, 42);
+            assertRejected(session);
+
+            set.setProperty(ATOMIC_SET_ADD + 1, session.getValueFactory().createBinary(
+                    new ByteArrayInputStream(new byte[] {1, 2, 3})));
+            assertRejected(session);
+
+            // Binaries have no natural order, not even in an empty set
+            session.getRootNode().addNode("empty").addMixin(MIX_ORDERED_SET);
+            session.save();
+            session.getNode("/empty").setProperty(ATOMIC_SET_ADD + 1, session.getValueFactory().createBinary(
+                    new ByteArrayInputStream(new byte[] {1, 2, 3})));
+            assertRejected(session);
+        } finally {
+            session.logout();
+        }
+        assertEquals(ImmutableList.of("a", "b"), ImmutableList.copyOf(getSet().members()));
+    }
+
+    private static void assertRejected(Session session) throws RepositoryException {
+        try {
+            session.save();
+            fail("Expected invalid member to be rejected");
+        } catch (RepositoryException expected) {
+            session.refresh(false);
+        }
+    }
+
+    private void update(String prefix, String... members) throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            session.getNode("/orderedSet").setProperty(prefix + 1, members);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    private int getChunkCount() {
+        PropertyState chunks = getNode().getProperty(ORDERED_SET_CHUNKS);
+        return chunks == null ? 0 : chunks.count();
+    }
+
+    private void assertChunkSizes() {
+        NodeState node = getNode();
+        for (String chunk : node.getProperty(ORDERED_SET_CHUNKS).getValue(STRINGS)) {
+            assertTrue(node.getChildNode(chunk).getProperty(ORDERED_SET_VALUES).count() <= MAX_CHUNK_SIZE);
+        }
+    }
+
+    private static RecordId getRecordId(NodeState node) {
+        return ((SegmentNodeState) node).getRecordId();
+    }
+
+    private OrderedSet<String> getSet() {
+        return new OrderedSet<String>(getNode(), STRING);
+    }
+
+    private NodeState getNode() {
+        return getNodeStore().getRoot().getChildNode("orderedSet");
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static com.google.common.collect.Sets.newHashSet;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static michid.crdt.plugins.LWWEditor.LWW_VALUE;
+import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import com.google.common.collect.ImmutableSet;
+import michid.crdt.plugins.CrdtPolicyService;
+import michid.crdt.plugins.ParallelCrdtHook;
+import michid.crdt.plugins.StringDictionary;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelCrdtTest extends TestBase {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final CrdtPolicyService policyService = new CrdtPolicyService();
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr.with(new ParallelCrdtHook(executor, 2, policyService));
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            for (int k = 0; k < 50; k++) {
+                root.addNode("set" + k).addMixin(MIX_ATOMIC_SET);
+                root.addNode("lww" + k).addMixin(MIX_LWW_REGISTER);
+            }
+            Node both = root.addNode("both");
+            both.addMixin(MIX_ATOMIC_SET);
+            both.addMixin(MIX_LWW_REGISTER);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void parallel() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            for (int k = 0; k < 50; k++) {
+                Node set = session.getNode("/set" + k);
+                set.setProperty(ATOMIC_SET_ADD + 1, k);
+                set.setProperty(ATOMIC_SET_ADD + 2, k + 1);
+                set.setProperty(ATOMIC_SET_REMOVE + 1, k + 1);
+                session.getNode("/lww" + k).setProperty(LWW_UPDATE + 1, k);
+            }
+            session.save();
+        } finally {
+            session.logout();
+        }
+
+        session = createAdminSession();
+        try {
+            for (int k = 0; k < 50; k++) {
+                Set<Long> values = newHashSet();
+                for (Value value : session.getProperty("/set" + k + '/' + ATOMIC_SET_VALUES).getValues()) {
+                    values.add(value.getLong());
+                }
+                assertEquals(newHashSet((long) k), values);
+                assertFalse(session.getNode("/set" + k).hasProperty(ATOMIC_SET_ADD + 1));
+                assertEquals(k, session.getProperty("/lww" + k + '/' + LWW_VALUE).getLong());
+                assertFalse(session.getNode("/lww" + k).hasProperty(LWW_UPDATE + 1));
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void setAndRegister() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node both = session.getNode("/both");
+            both.setProperty(ATOMIC_SET_ADD + 1, 1);
+            both.setProperty(LWW_UPDATE + 1, 2);
+            session.save();
+
+            assertEquals(1, both.getProperty(ATOMIC_SET_VALUES).getValues()[0].getLong());
+            assertEquals(2, both.getProperty(LWW_VALUE).getLong());
+            assertFalse(both.hasProperty(ATOMIC_SET_ADD + 1));
+            assertFalse(both.hasProperty(LWW_UPDATE + 1));
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void policy() throws RepositoryException {
+        policyService.setPolicies("/set0;encoding=dictionary;maxSize=2", "/set1;enabled=false");
+        Session session = createAdminSession();
+        try {
+            session.getNode("/set0").setProperty(ATOMIC_SET_ADD + 1, new String[] {"a", "b"});
+            session.getNode("/set1").setProperty(ATOMIC_SET_ADD + 1, 1);
+            session.getNode("/lww1").setProperty(LWW_UPDATE + 1, 1);
+            session.save();
+
+            NodeState root = getNodeStore().getRoot();
+            assertEquals(ImmutableSet.of("a", "b"), ImmutableSet.copyOf(
+                    new StringDictionary().getMembers(root, root.getChildNode("set0"))));
+            assertFalse(root.getChildNode("set0").hasProperty(ATOMIC_SET_VALUES));
+            assertTrue(root.getChildNode("set1").hasProperty(ATOMIC_SET_ADD + 1));
+            assertFalse(root.getChildNode("set1").hasProperty(ATOMIC_SET_VALUES));
+            assertEquals(1, session.getProperty("/lww1/" + LWW_VALUE).getLong());
+
+            session.getNode("/set0").setProperty(ATOMIC_SET_ADD + 2, "c");
+            try {
+                session.save();
+                fail("Expected maxSize to be exceeded");
+            } catch (RepositoryException expected) { }
+        } finally {
+            session.logout();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static com.google.common.collect.Sets.newHashSet;
+import static java.util.Arrays.asList;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static michid.crdt.plugins.LWWEditor.LWW_VALUE;
+import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER;
+import static michid.crdt.plugins.StringDictionary.ENCODING;
+import static michid.crdt.plugins.StringDictionary.ENCODING_DICTIONARY;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_COUNTER;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_INCREMENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.UnsupportedRepositoryOperationException;
+import javax.jcr.Value;
+
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import michid.crdt.plugins.LWWEditorProvider;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadYourWritesTest extends TestBase {
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr
+                .with(new AtomicSetEditorProvider())
+                .with(new LWWEditorProvider());
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            root.addNode("set").addMixin(MIX_ATOMIC_SET);
+            root.addNode("lww").addMixin(MIX_LWW_REGISTER);
+            root.addNode("counter").addMixin("mix:atomicCounter");
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void set() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node set = session.getNode("/set");
+            set.setProperty(ATOMIC_SET_ADD + 1, 1);
+            set.setProperty(ATOMIC_SET_ADD + 2, 2);
+            session.save();
+
+            set.setProperty(ATOMIC_SET_ADD + 3, 3);
+            set.setProperty(ATOMIC_SET_REMOVE + 1, 1);
+            assertEquals(newHashSet(2L, 3L), toLongs(ReadYourWrites.getSetValues(set)));
+
+            session.save();
+            assertEquals(newHashSet(2L, 3L), toLongs(asList(set.getProperty(ATOMIC_SET_VALUES).getValues())));
+            assertEquals(newHashSet(2L, 3L), toLongs(ReadYourWrites.getSetValues(set)));
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void encodedSet() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node set = session.getNode("/set");
+            set.setProperty(ENCODING, ENCODING_DICTIONARY);
+            set.setProperty(ATOMIC_SET_ADD + 1, "a");
+            session.save();
+            try {
+                ReadYourWrites.getSetValues(set);
+                fail("Expected dictionary encoded set to be rejected");
+            } catch (UnsupportedRepositoryOperationException expected) { }
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void lww() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node lww = session.getNode("/lww");
+            assertNull(ReadYourWrites.getLWWValue(lww));
+
+            lww.setProperty(LWW_UPDATE + 1, "one");
+            assertEquals("one", ReadYourWrites.getLWWValue(lww)[0].getString());
+
+            session.save();
+            assertEquals("one", lww.getProperty(LWW_VALUE).getString());
+            assertEquals("one", ReadYourWrites.getLWWValue(lww)[0].getString());
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void counter() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node counter = session.getNode("/counter");
+            counter.setProperty(PROP_INCREMENT, 5);
+            session.save();
+
+            counter.setProperty(PROP_INCREMENT, 3);
+            assertEquals(8, ReadYourWrites.getCounter(counter));
+
+            session.save();
+            assertEquals(8, counter.getProperty(PROP_COUNTER).getLong());
+            assertEquals(8, ReadYourWrites.getCounter(counter));
+        } finally {
+            session.logout();
+        }
+    }
+
+    private static Set<Long> toLongs(Iterable<Value> values) throws RepositoryException {
+        Set<Long> longs = newHashSet();
+        for (Value value : values) {
+            longs.add(value.getLong());
+        }
+        return longs;
+    }
+}
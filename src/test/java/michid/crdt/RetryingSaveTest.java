@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Sets.newHashSet;
+import static com.google.common.util.concurrent.Futures.allAsList;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import com.google.common.util.concurrent.ListenableFutureTask;
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RetryingSaveTest extends TestBase {
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr.with(new AtomicSetEditorProvider());
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            root.addNode("set").addMixin(MIX_ATOMIC_SET);
+            root.addNode("plain");
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void retry() throws RepositoryException, InterruptedException {
+        RetryingSave retryingSave = new RetryingSave(getRepository(), getAdminCredentials());
+
+        // Each of the first 3 attempts is interleaved with a conflicting save
+        final AtomicInteger conflicts = new AtomicInteger(3);
+        retryingSave.save("/plain", new RetryingSave.Update() {
+            @Override
+            public void apply(Node node) throws RepositoryException {
+                node.setProperty("p", "mine");
+                if (conflicts.getAndDecrement() > 0) {
+                    setConcurrently("/plain", "p", "theirs-" + conflicts.get());
+                }
+            }
+        });
+
+        assertEquals(1, retryingSave.getSaveCount());
+        assertEquals(3, retryingSave.getRetryCount());
+        assertEquals(0, retryingSave.getFailureCount());
+        assertTrue(retryingSave.getConflictRate("/plain") > 0);
+
+        Session session = createAdminSession();
+        try {
+            assertEquals("mine", session.getProperty("/plain/p").getString());
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void retriesExceeded() throws RepositoryException, InterruptedException {
+        RetryingSave retryingSave = new RetryingSave(getRepository(), getAdminCredentials(), 2, 1, 10, 1);
+        try {
+            retryingSave.save("/plain", new RetryingSave.Update() {
+                @Override
+                public void apply(Node node) throws RepositoryException {
+                    node.setProperty("p", "mine");
+                    setConcurrently("/plain", "p", "theirs-" + System.nanoTime());
+                }
+            });
+            fail("Expected save to fail after 2 retries");
+        } catch (RepositoryException expected) { }
+
+        assertEquals(0, retryingSave.getSaveCount());
+        assertEquals(2, retryingSave.getRetryCount());
+        assertEquals(1, retryingSave.getFailureCount());
+    }
+
+    @Test(timeout = 10000)
+    public void batch() throws RepositoryException, ExecutionException, InterruptedException {
+        RetryingSave retryingSave = new RetryingSave(getRepository(), getAdminCredentials(),
+                RetryingSave.DEFAULT_MAX_RETRIES, RetryingSave.DEFAULT_BASE_DELAY,
+                RetryingSave.DEFAULT_MAX_DELAY, -1);
+
+        // Hold the lock of the node with a first save until the other updates are queued
+        final CountDownLatch applying = new CountDownLatch(1);
+        final CountDownLatch queued = new CountDownLatch(1);
+        ListenableFutureTask<Void> first = save(retryingSave, new RetryingSave.Update() {
+            @Override
+            public void apply(Node node) throws RepositoryException {
+                applying.countDown();
+                try {
+                    queued.await();
+                } catch (InterruptedException e) {
+                    throw new RepositoryException(e);
+                }
+                node.setProperty(ATOMIC_SET_ADD + "first", -1L);
+            }
+        });
+        applying.await();
+        addAll(retryingSave, 100, queued);
+        first.get();
+
+        // The first save and a single batch of all other updates
+        assertEquals(0, retryingSave.getFailureCount());
+        assertEquals(2, retryingSave.getSaveCount());
+        assertEquals(100, retryingSave.getBatchedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void failingBatch() throws RepositoryException, InterruptedException {
+        RetryingSave retryingSave = new RetryingSave(getRepository(), getAdminCredentials(),
+                RetryingSave.DEFAULT_MAX_RETRIES, RetryingSave.DEFAULT_BASE_DELAY,
+                RetryingSave.DEFAULT_MAX_DELAY, -1);
+        List<ListenableFutureTask<Void>> tasks = newArrayList();
+        for (int k = 0; k < 10; k++) {
+            tasks.add(save(retryingSave, new RetryingSave.Update() {
+                @Override
+                public void apply(Node node) {
+                    throw new IllegalStateException("failing update");
+                }
+            }));
+        }
+
+        // All callers of the batch fail instead of waiting forever
+        for (ListenableFutureTask<Void> task : tasks) {
+            try {
+                task.get();
+                fail("Expected update to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    /**
+     * Set a property from another thread and session and wait for it to be saved
+     */
+    private void setConcurrently(final String path, final String name, final String value)
+            throws RepositoryException {
+        ListenableFutureTask<Void> task = ListenableFutureTask.create(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Session session = createAdminSession();
+                try {
+                    session.getNode(path).setProperty(name, value);
+                    session.save();
+                    return null;
+                } finally {
+                    session.logout();
+                }
+            }
+        });
+        new Thread(task).start();
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            throw new RepositoryException(e);
+        } catch (ExecutionException e) {
+            throw new RepositoryException(e.getCause());
+        }
+    }
+
+    private void addAll(RetryingSave retryingSave, int count, CountDownLatch started)
+            throws RepositoryException, ExecutionException, InterruptedException {
+        List<ListenableFutureTask<Void>> tasks = newArrayList();
+        Set<Long> expected = newHashSet();
+        for (long k = 0; k < count; k++) {
+            tasks.add(add(retryingSave, k));
+            expected.add(k);
+        }
+        while (retryingSave.getPendingCount("/set") < count) {
+            Thread.sleep(10);
+        }
+        started.countDown();
+        allAsList(tasks).get();
+
+        Session session = createAdminSession();
+        try {
+            Set<Long> values = newHashSet();
+            for (Value value : session.getProperty("/set/" + ATOMIC_SET_VALUES).getValues()) {
+                values.add(value.getLong());
+            }
+            expected.add(-1L);
+            assertEquals(expected, values);
+        } finally {
+            session.logout();
+        }
+    }
+
+    private static ListenableFutureTask<Void> add(RetryingSave retryingSave, final long value) {
+        return save(retryingSave, new RetryingSave.Update() {
+            @Override
+            public void apply(Node node) throws RepositoryException {
+                node.setProperty(ATOMIC_SET_ADD + value, value);
+            }
+        });
+    }
+
+    private static ListenableFutureTask<Void> save(final RetryingSave retryingSave, final RetryingSave.Update update) {
+        ListenableFutureTask<Void> task = ListenableFutureTask.create(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                retryingSave.save("/set", update);
+                return null;
+            }
+        });
+        new Thread(task).start();
+        return task;
+    }
+
+}
@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static michid.crdt.plugins.LWWEditor.LWW_VALUE;
+import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER;
+import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_COUNTER;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_INCREMENT;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+
+import javax.jcr.Credentials;
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.Node;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+/**
+ * Deterministic simulation of concurrent sessions updating CRDTs.
+ * <p>
+ * All sessions are driven from the calling thread. A {@link Random} seeded
+ * with the simulation's seed picks at each step a session and an action:
+ * a transient update to one of the CRDTs of the scenario, a save or a sync.
+ * A sync refreshes the session keeping its transient changes, which rebases
+ * them onto the current head. Saves of sessions that have not been synced
+ * with all preceding commits are counted as merges. A model of the expected
+ * values is maintained along the way and compared to the repository by
+ * {@link #verify()}.
+ * <p>
+ * As there is no thread scheduler involved, a run is fully determined by its
+ * seed. Failing runs are replayed by passing the seed reported on failure via
+ * the {@value #SEED_PROPERTY} system property.
+ */
+public class Simulation {
+    public static final String SEED_PROPERTY = "crdt.simulation.seed";
+    public static final String STEPS_PROPERTY = "crdt.simulation.steps";
+    public static final String REPORT_PROPERTY = "crdt.simulation.report";
+
+    public static final String COUNTER_PATH = "/counter";
+    public static final String SET_PATH = "/set";
+    public static final String LWW_PATH = "/lww";
+    public static final String MV_PATH = "/mv";
+
+    private static final int VALUE_RANGE = 32;
+    private static final int TRACE_TAIL = 20;
+
+    public enum Crdt {COUNTER, SET, LWW, MV}
+
+    private final Repository repository;
+    private final Credentials credentials;
+    private final long seed;
+    private final Random random;
+    private final List<Crdt> crdts;
+    private final List<SimSession> sessions = newArrayList();
+    private final List<String> trace = newArrayList();
+
+    // Model of the expected state
+    private long counter;
+    private final Set<Long> set = newHashSet();
+    private Long lww;
+    private final Set<Long> mvWritten = newHashSet();
+    private Long mvLast;
+
+    private long ops;
+    private long commits;
+    private long merges;
+    private long failures;
+    private long nanos;
+
+    /**
+     * @param repository  repository to run the simulation against
+     * @param credentials  credentials for logging in the simulated sessions
+     * @param seed  seed determining the run
+     * @param sessionCount  number of concurrent sessions
+     * @param crdts  the CRDTs to update
+     */
+    public Simulation(Repository repository, Credentials credentials, long seed,
+            int sessionCount, Crdt... crdts) throws RepositoryException {
+        this.repository = repository;
+        this.credentials = credentials;
+        this.seed = seed;
+        this.random = new Random(seed);
+        this.crdts = Arrays.asList(crdts);
+        for (int k = 0; k < sessionCount; k++) {
+            sessions.add(new SimSession(k, repository.login(credentials)));
+        }
+    }
+
+    /**
+     * @return  the seed from the {@value #SEED_PROPERTY} system property
+     *          or {@code defaultSeed} if not set.
+     */
+    public static long getSeed(long defaultSeed) {
+        return Long.getLong(SEED_PROPERTY, defaultSeed);
+    }
+
+    /**
+     * @return  the number of steps from the {@value #STEPS_PROPERTY} system property
+     *          or {@code defaultSteps} if not set.
+     */
+    public static int getSteps(int defaultSteps) {
+        return Integer.getInteger(STEPS_PROPERTY, defaultSteps);
+    }
+
+    /**
+     * @return  {@code true} if the {@value #REPORT_PROPERTY} system property asks
+     *          for printing the {@link #report(String) report} of each run.
+     */
+    public static boolean isReport() {
+        return Boolean.getBoolean(REPORT_PROPERTY);
+    }
+
+    /**
+     * Create the nodes for all CRDTs at their respective paths. The CRDT node
+     * types must already be registered, which {@link TestBase} takes care of.
+     */
+    public static void setup(Session session) throws Exception {
+        Node root = session.getRootNode();
+        root.addNode(COUNTER_PATH.substring(1)).addMixin("mix:atomicCounter");
+        root.addNode(SET_PATH.substring(1)).addMixin(MIX_ATOMIC_SET);
+        root.addNode(LWW_PATH.substring(1)).addMixin(MIX_LWW_REGISTER);
+        root.addNode(MV_PATH.substring(1)).addMixin(MIX_MV_REGISTER);
+        session.save();
+    }
+
+    /**
+     * Run the simulation for the given number of steps and save all
+     * sessions afterwards.
+     */
+    public Simulation run(int steps) throws RepositoryException {
+        long start = System.nanoTime();
+        for (int k = 0; k < steps; k++) {
+            SimSession session = sessions.get(random.nextInt(sessions.size()));
+            int action = random.nextInt(10);
+            if (action < 2) {
+                save(session);
+            } else if (action < 3) {
+                sync(session);
+            } else {
+                update(session, crdts.get(random.nextInt(crdts.size())));
+            }
+        }
+        for (SimSession session : sessions) {
+            save(session);
+        }
+        nanos += System.nanoTime() - start;
+        return this;
+    }
+
+    /**
+     * Verify that the repository converged to the expected state. Counters,
+     * sets and LWW registers are compared against the model. The values of
+     * a MV register depend on which updates were concurrent. It must contain
+     * the last value saved and may only contain values written before.
+     * @throws AssertionError  if the repository state differs from the expected one
+     */
+    public void verify() throws RepositoryException {
+        Session session = repository.login(credentials);
+        try {
+            if (crdts.contains(Crdt.COUNTER)) {
+                check("counter", counter, getLong(session, COUNTER_PATH + '/' + PROP_COUNTER, 0L));
+            }
+            if (crdts.contains(Crdt.SET)) {
+                check("set", set, getLongs(session, SET_PATH + '/' + ATOMIC_SET_VALUES));
+            }
+            if (crdts.contains(Crdt.LWW)) {
+                check("lww", lww, getLong(session, LWW_PATH + '/' + LWW_VALUE, null));
+            }
+            if (crdts.contains(Crdt.MV) && mvLast != null) {
+                Set<Long> values = getLongs(session, MV_PATH + "/value");
+                if (!values.contains(mvLast) || !mvWritten.containsAll(values)) {
+                    fail("mv", "values containing " + mvLast + " within " + mvWritten, values);
+                }
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Log out all sessions
+     */
+    public void dispose() {
+        for (SimSession session : sessions) {
+            session.session.logout();
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return  a one line summary of the run
+     */
+    public String report(String scenario) throws RepositoryException {
+        Session session = repository.login(credentials);
+        try {
+            return String.format("%-8s seed %-20d %6d ops %10.1f ops/s %6d commits %6d merges " +
+                    "%4d failures  set size %4d  mv size %3d",
+                    scenario, seed, ops, ops / (nanos / 1e9), commits, merges, failures,
+                    getLongs(session, SET_PATH + '/' + ATOMIC_SET_VALUES).size(),
+                    getLongs(session, MV_PATH + "/value").size());
+        } finally {
+            session.logout();
+        }
+    }
+
+    private void update(SimSession s, Crdt crdt) throws RepositoryException {
+        ops++;
+        long value = random.nextInt(VALUE_RANGE);
+        switch (crdt) {
+            case COUNTER:
+                long delta = value - VALUE_RANGE / 2;
+                s.increment += delta;
+                s.session.getNode(COUNTER_PATH).setProperty(PROP_INCREMENT, s.increment);
+                trace(s, "increment " + delta);
+                break;
+            case SET:
+                // At most one pending operation per value and session such that
+                // the outcome does not depend on the order within a commit
+                if (!s.setOps.containsKey(value)) {
+                    boolean add = random.nextBoolean();
+                    s.setOps.put(value, add);
+                    s.session.getNode(SET_PATH).setProperty(
+                            (add ? ATOMIC_SET_ADD : ATOMIC_SET_REMOVE) + s.id + '-' + ops, value);
+                    trace(s, (add ? "add " : "remove ") + value);
+                }
+                break;
+            case LWW:
+                s.lww = value;
+                s.session.getNode(LWW_PATH).setProperty(LWW_UPDATE + s.id + '-' + s.saves, value);
+                trace(s, "update " + value);
+                break;
+            case MV:
+                s.mv = value;
+                s.session.getNode(MV_PATH).setProperty("value",
+                        new Value[] {s.session.getValueFactory().createValue(value)});
+                trace(s, "write " + value);
+                break;
+        }
+    }
+
+    private void save(SimSession s) throws RepositoryException {
+        if (!s.session.hasPendingChanges()) {
+            return;
+        }
+
+        try {
+            s.session.save();
+        } catch (InvalidItemStateException e) {
+            failures++;
+            trace(s, "failed save " + e.getMessage());
+            s.session.refresh(false);
+            s.reset(commits);
+            return;
+        }
+
+        trace(s, "save");
+        if (s.base < commits) {
+            merges++;
+        }
+        commits++;
+        counter += s.increment;
+        for (Entry<Long, Boolean> op : s.setOps.entrySet()) {
+            if (op.getValue()) {
+                set.add(op.getKey());
+            } else {
+                set.remove(op.getKey());
+            }
+        }
+        if (s.lww != null) {
+            lww = s.lww;
+        }
+        if (s.mv != null) {
+            mvWritten.add(s.mv);
+            mvLast = s.mv;
+        }
+        s.saves++;
+        s.reset(commits);
+    }
+
+    private void sync(SimSession s) throws RepositoryException {
+        s.session.refresh(true);
+        s.base = commits;
+        trace(s, "sync");
+    }
+
+    private void trace(SimSession s, String step) {
+        trace.add("s" + s.id + ' ' + step);
+    }
+
+    private void check(String crdt, Object expected, Object actual) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            fail(crdt, expected, actual);
+        }
+    }
+
+    private void fail(String crdt, Object expected, Object actual) {
+        List<String> tail = trace.subList(Math.max(0, trace.size() - TRACE_TAIL), trace.size());
+        throw new AssertionError(crdt + " diverged: expected " + expected + " but was " + actual +
+                ". Replay with -D" + SEED_PROPERTY + '=' + seed + ". Last steps: " + tail);
+    }
+
+    private static Long getLong(Session session, String path, Long defaultValue) throws RepositoryException {
+        return session.propertyExists(path)
+            ? session.getProperty(path).getLong()
+            : defaultValue;
+    }
+
+    private static Set<Long> getLongs(Session session, String path) throws RepositoryException {
+        Set<Long> longs = newHashSet();
+        if (session.propertyExists(path)) {
+            for (Value value : session.getProperty(path).getValues()) {
+                longs.add(value.getLong());
+            }
+        }
+        return longs;
+    }
+
+    private static class SimSession {
+        final int id;
+        final Session session;
+
+        long base;
+        int saves;
+        long increment;
+        final Map<Long, Boolean> setOps = newLinkedHashMap();
+        Long lww;
+        Long mv;
+
+        SimSession(int id, Session session) {
+            this.id = id;
+            this.session = session;
+        }
+
+        void reset(long base) {
+            this.base = base;
+            increment = 0;
+            setOps.clear();
+            lww = null;
+            mv = null;
+        }
+    }
+}
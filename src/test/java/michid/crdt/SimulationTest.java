@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.Simulation.Crdt.COUNTER;
+import static michid.crdt.Simulation.Crdt.LWW;
+import static michid.crdt.Simulation.Crdt.MV;
+import static michid.crdt.Simulation.Crdt.SET;
+
+import javax.jcr.Session;
+
+import michid.crdt.Simulation.Crdt;
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import michid.crdt.plugins.LWWEditorProvider;
+import michid.crdt.plugins.MVConflictHandler;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Convergence tests for all CRDT types using the deterministic {@link Simulation}.
+ * Runs are reproducible by seed, see {@link Simulation#SEED_PROPERTY}. The number
+ * of steps can be increased through {@link Simulation#STEPS_PROPERTY} to turn these
+ * tests into a convergence benchmark. Reports are printed when
+ * {@link Simulation#REPORT_PROPERTY} is set.
+ */
+public class SimulationTest extends TestBase {
+    private static final int SESSIONS = 4;
+    private static final int STEPS = Simulation.getSteps(500);
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr
+                .with(new AtomicSetEditorProvider())
+                .with(new LWWEditorProvider())
+                .with(new MVConflictHandler());
+    }
+
+    @Before
+    public void setup() throws Exception {
+        Session session = createAdminSession();
+        try {
+            Simulation.setup(session);
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void counter() throws Exception {
+        simulate("counter", 1, COUNTER);
+    }
+
+    @Test
+    public void set() throws Exception {
+        simulate("set", 2, SET);
+    }
+
+    @Test
+    public void lww() throws Exception {
+        simulate("lww", 3, LWW);
+    }
+
+    @Test
+    public void mv() throws Exception {
+        simulate("mv", 4, MV);
+    }
+
+    @Test
+    public void mixed() throws Exception {
+        simulate("mixed", 5, COUNTER, SET, LWW, MV);
+    }
+
+    private void simulate(String scenario, long defaultSeed, Crdt... crdts) throws Exception {
+        Simulation simulation = new Simulation(getRepository(), getAdminCredentials(),
+                Simulation.getSeed(defaultSeed), SESSIONS, crdts);
+        try {
+            simulation.run(STEPS).verify();
+            if (Simulation.isReport()) {
+                System.out.println(simulation.report(scenario));
+            }
+        } finally {
+            simulation.dispose();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore.newSegmentNodeStore;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.Files;
+import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotImageTest {
+    private final AtomicInteger initializations = new AtomicInteger();
+
+    private File directory;
+    private SnapshotImage image;
+
+    @Before
+    public void setup() {
+        directory = Files.createTempDir();
+        image = newImage();
+    }
+
+    private SnapshotImage newImage() {
+        return new SnapshotImage(new File(directory, "image"), new SnapshotImage.Initializer() {
+            @Override
+            public void initialize(NodeStore store) throws Exception {
+                initializations.incrementAndGet();
+                NodeBuilder builder = store.getRoot().builder();
+                builder.child("initialized");
+                store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        SnapshotImage.delete(directory);
+    }
+
+    @Test
+    public void buildOnce() throws Exception {
+        assertFalse(image.exists());
+        image.build();
+        assertTrue(image.exists());
+        newImage().build();
+        assertEquals(1, initializations.get());
+    }
+
+    @Test
+    public void openCopies() throws Exception {
+        FileStore store1 = image.open(new File(directory, "copy1"));
+        try {
+            NodeStore nodeStore = newSegmentNodeStore(store1).create();
+            assertTrue(nodeStore.getRoot().hasChildNode("initialized"));
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            builder.child("changed");
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        } finally {
+            store1.close();
+        }
+
+        // Changes to a copy affect neither the image nor other copies
+        FileStore store2 = newImage().open(new File(directory, "copy2"));
+        try {
+            NodeStore nodeStore = newSegmentNodeStore(store2).create();
+            assertTrue(nodeStore.getRoot().hasChildNode("initialized"));
+            assertFalse(nodeStore.getRoot().hasChildNode("changed"));
+        } finally {
+            store2.close();
+        }
+        assertEquals(1, initializations.get());
+    }
+
+    @Test
+    public void openExistingStore() throws Exception {
+        File copy = new File(directory, "copy");
+        FileStore store = image.open(copy);
+        try {
+            NodeStore nodeStore = newSegmentNodeStore(store).create();
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            builder.child("changed");
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        } finally {
+            store.close();
+        }
+
+        // Opening the same directory again keeps the changes instead of copying the image
+        store = image.open(copy);
+        try {
+            NodeStore nodeStore = newSegmentNodeStore(store).create();
+            assertTrue(nodeStore.getRoot().hasChildNode("initialized"));
+            assertTrue(nodeStore.getRoot().hasChildNode("changed"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void refuseNonEmptyDirectory() throws Exception {
+        File other = new File(directory, "other");
+        assertTrue(other.mkdirs());
+        Files.write(new byte[] {1}, new File(other, "data"));
+        try {
+            image.open(other);
+            fail("Expected non empty directory to be refused");
+        } catch (IOException expected) { }
+        assertEquals(1, other.list().length);
+    }
+
+    @Test
+    public void imageNameDependsOnContent() {
+        File image = SegmentStores.getSnapshotImage("test", "a", "b");
+        assertEquals(image, SegmentStores.getSnapshotImage("test", "a", "b"));
+        assertFalse(image.equals(SegmentStores.getSnapshotImage("test", "a", "c")));
+        assertFalse(image.equals(SegmentStores.getSnapshotImage("other", "a", "b")));
+        assertTrue(image.getName().startsWith("test-"));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET_CND;
+import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER;
+import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER_CND;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import com.google.common.io.Files;
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import michid.crdt.plugins.MVConflictHandler;
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
+import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
+import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
+import org.junit.Test;
+
+/**
+ * Benchmark comparing the costs of the atomic set and the multi value register
+ * on a {@link MemoryStore} and on a {@link FileStore}. For the latter the bytes
+ * written per operation and the cost of compaction are reported as well.
+ * <p>
+ * This class is not picked up by the default test run. Run it explicitly with
+ * {@code mvn test -Dtest=StoreBenchmark}.
+ */
+public class StoreBenchmark {
+    private static final int OPS = Integer.getInteger("crdt.benchmark.ops", 2000);
+
+    private interface Workload {
+        void setup(Session session) throws Exception;
+        void run(Session s1, Session s2, int k) throws RepositoryException;
+    }
+
+    private static final Workload ATOMIC_SET = new Workload() {
+        @Override
+        public void setup(Session session) throws Exception {
+            TestBase.registerNodeType(session, MIX_ATOMIC_SET_CND);
+            session.getRootNode().addNode("set").addMixin(MIX_ATOMIC_SET);
+            session.save();
+        }
+
+        @Override
+        public void run(Session s1, Session s2, int k) throws RepositoryException {
+            s1.getNode("/set").setProperty(ATOMIC_SET_ADD + k, k);
+            s1.save();
+        }
+    };
+
+    private static final Workload MV_REGISTER = new Workload() {
+        @Override
+        public void setup(Session session) throws Exception {
+            TestBase.registerNodeType(session, MIX_MV_REGISTER_CND);
+            session.getRootNode().addNode("mv").addMixin(MIX_MV_REGISTER);
+            session.save();
+        }
+
+        @Override
+        public void run(Session s1, Session s2, int k) throws RepositoryException {
+            // Two concurrent writes such that the register widens
+            s1.getNode("/mv").setProperty("value", new Value[] {s1.getValueFactory().createValue(k)});
+            s2.getNode("/mv").setProperty("value", new Value[] {s2.getValueFactory().createValue(-k)});
+            s1.save();
+            s2.save();
+        }
+    };
+
+    @Test
+    public void atomicSet() throws Exception {
+        run("atomic set", ATOMIC_SET);
+    }
+
+    @Test
+    public void mvRegister() throws Exception {
+        run("mv register", MV_REGISTER);
+    }
+
+    private static void run(String name, Workload workload) throws Exception {
+        run(name, workload, new MemoryStore());
+        File directory = Files.createTempDir();
+        try {
+            run(name, workload, SegmentStores.newFileStore(directory));
+        } finally {
+            SnapshotImage.delete(directory);
+        }
+    }
+
+    private static void run(String name, Workload workload, SegmentStore store) throws Exception {
+        Repository repository = new Jcr(SegmentNodeStore.newSegmentNodeStore(store).create())
+                .with(new AtomicSetEditorProvider())
+                .with(new MVConflictHandler())
+                .createRepository();
+        try {
+            Session s1 = repository.login(TestBase.getAdminCredentials());
+            Session s2 = repository.login(TestBase.getAdminCredentials());
+            try {
+                workload.setup(s1);
+                long sizeBefore = size(store);
+                long start = System.nanoTime();
+                for (int k = 0; k < OPS; k++) {
+                    workload.run(s1, s2, k);
+                }
+                long nanos = System.nanoTime() - start;
+                long sizeAfter = size(store);
+
+                if (store instanceof FileStore) {
+                    FileStore fileStore = (FileStore) store;
+                    long compactStart = System.nanoTime();
+                    fileStore.compact();
+                    fileStore.cleanup();
+                    long compactNanos = System.nanoTime() - compactStart;
+                    long sizeCompacted = size(store);
+                    System.out.printf("%-12s %-6s %6d ops %10.1f ops/s %10.1f bytes/op  " +
+                            "size %10d  compacted %10d  compaction %8.1f ms%n",
+                            name, "file", OPS, OPS / (nanos / 1e9), (sizeAfter - sizeBefore) / (double) OPS,
+                            sizeAfter, sizeCompacted, compactNanos / 1e6);
+                } else {
+                    System.out.printf("%-12s %-6s %6d ops %10.1f ops/s%n",
+                            name, "memory", OPS, OPS / (nanos / 1e9));
+                }
+            } finally {
+                s1.logout();
+                s2.logout();
+            }
+        } finally {
+            if (repository instanceof JackrabbitRepository) {
+                ((JackrabbitRepository) repository).shutdown();
+            }
+            store.close();
+        }
+    }
+
+    private static long size(SegmentStore store) throws IOException {
+        if (store instanceof FileStore) {
+            FileStore fileStore = (FileStore) store;
+            fileStore.flush();
+            return fileStore.size();
+        } else {
+            return -1;
+        }
+    }
+}
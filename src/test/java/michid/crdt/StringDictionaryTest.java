@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static michid.crdt.plugins.StringDictionary.ATOMIC_SET_CODES;
+import static michid.crdt.plugins.StringDictionary.DICTIONARY;
+import static michid.crdt.plugins.StringDictionary.DICTIONARY_NEXT_CODE;
+import static michid.crdt.plugins.StringDictionary.ENCODING;
+import static michid.crdt.plugins.StringDictionary.ENCODING_DICTIONARY;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import michid.crdt.plugins.StringDictionary;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.plugins.segment.RecordId;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StringDictionaryTest extends TestBase {
+    private final AtomicSetEditorProvider provider = new AtomicSetEditorProvider();
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        return jcr.with(provider);
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            for (String name : new String[] {"set1", "set2", "plain"}) {
+                root.addNode(name).addMixin(MIX_ATOMIC_SET);
+            }
+            root.getNode("set1").setProperty(ENCODING, ENCODING_DICTIONARY);
+            root.getNode("set2").setProperty(ENCODING, ENCODING_DICTIONARY);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void encode() throws RepositoryException {
+        update("/set1", ATOMIC_SET_ADD, "a", "b/c", "d e", "");
+        update("/set2", ATOMIC_SET_ADD, "a", "d e", "f");
+        update("/set1", ATOMIC_SET_REMOVE, "a", "unknown");
+
+        assertEquals(ImmutableSet.of("b/c", "d e", ""), getMembers("set1"));
+        assertEquals(ImmutableSet.of("a", "d e", "f"), getMembers("set2"));
+
+        NodeState set1 = getNode("set1");
+        assertFalse(set1.hasProperty(ATOMIC_SET_VALUES));
+        assertEquals(3, set1.getProperty(ATOMIC_SET_CODES).count());
+
+        // Both sets share the codes of their common members
+        long codes = 0;
+        for (NodeState shard : getShards()) {
+            codes += shard.getProperty(DICTIONARY_NEXT_CODE).getValue(LONG);
+        }
+        assertEquals(5, codes);
+    }
+
+    @Test
+    public void shards() throws RepositoryException {
+        update("/set1", ATOMIC_SET_ADD, "a");
+        List<NodeState> shards = getShards();
+        assertEquals(1, shards.size());
+        RecordId shard = ((SegmentNodeState) shards.get(0)).getRecordId();
+
+        // New strings go to other shards and leave the shard of "a" alone
+        update("/set2", ATOMIC_SET_ADD, "b", "c", "d", "e", "f", "g", "h");
+        assertEquals(8, getShards().size());
+        for (NodeState s : getShards()) {
+            if (s.hasProperty("s-a")) {
+                assertEquals(shard, ((SegmentNodeState) s).getRecordId());
+            } else {
+                assertEquals(1, (long) s.getProperty(DICTIONARY_NEXT_CODE).getValue(LONG));
+            }
+        }
+        assertEquals(ImmutableSet.of("b", "c", "d", "e", "f", "g", "h"), getMembers("set2"));
+    }
+
+    private List<NodeState> getShards() {
+        List<NodeState> shards = Lists.newArrayList();
+        NodeState dictionary = getNodeStore().getRoot().getChildNode(DICTIONARY);
+        assertFalse(dictionary.hasProperty(DICTIONARY_NEXT_CODE));
+        for (ChildNodeEntry level : dictionary.getChildNodeEntries()) {
+            for (ChildNodeEntry shard : level.getNodeState().getChildNodeEntries()) {
+                shards.add(shard.getNodeState());
+            }
+        }
+        return shards;
+    }
+
+    @Test
+    public void encodeExistingValues() throws RepositoryException {
+        update("/plain", ATOMIC_SET_ADD, "a", "b");
+        assertFalse(getNode("plain").hasProperty(ATOMIC_SET_CODES));
+
+        Session session = createAdminSession();
+        try {
+            session.getNode("/plain").setProperty(ENCODING, ENCODING_DICTIONARY);
+            session.save();
+        } finally {
+            session.logout();
+        }
+        update("/plain", ATOMIC_SET_ADD, "c");
+
+        assertTrue(getNode("plain").hasProperty(ATOMIC_SET_CODES));
+        assertFalse(getNode("plain").hasProperty(ATOMIC_SET_VALUES));
+        assertEquals(ImmutableSet.of("a", "b", "c"), getMembers("plain"));
+    }
+
+    @Test
+    public void rejectNonStrings() throws RepositoryException {
+        update("/set1", ATOMIC_SET_ADD, "a");
+        Session session = createAdminSession();
+        try {
+            session.getNode("/set1").setProperty(ATOMIC_SET_ADD + 1, 42);
+            try {
+                session.save();
+                fail("Expected non string member to be rejected");
+            } catch (RepositoryException expected) { }
+        } finally {
+            session.logout();
+        }
+        assertFalse(getNode("set1").hasProperty(ATOMIC_SET_VALUES));
+        assertEquals(ImmutableSet.of("a"), getMembers("set1"));
+    }
+
+    @Test
+    public void decodeCache() throws RepositoryException {
+        update("/set1", ATOMIC_SET_ADD, "a");
+        StringDictionary dictionary = provider.getDictionary();
+        NodeState root = getNodeStore().getRoot();
+        long code = getNode("set1").getProperty(ATOMIC_SET_CODES).getValue(LONG, 0);
+        assertEquals("a", dictionary.decode(root, code));
+
+        // Decoded values are served from the cache
+        NodeState empty = root.getChildNode("nonExisting");
+        assertEquals("a", dictionary.decode(empty, code));
+        assertEquals(null, dictionary.decode(empty, code + 1));
+    }
+
+    private void update(String path, String prefix, String... members) throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            session.getNode(path).setProperty(prefix + 1, members);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    private Set<String> getMembers(String name) {
+        return ImmutableSet.copyOf(provider.getDictionary().getMembers(getNodeStore().getRoot(), getNode(name)));
+    }
+
+    private NodeState getNode(String name) {
+        return getNodeStore().getRoot().getChildNode(name);
+    }
+}
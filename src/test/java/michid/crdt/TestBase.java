@@ -19,9 +19,18 @@
 
 package michid.crdt;
 
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET_CND;
+import static michid.crdt.plugins.FlagEditor.MIX_DISABLE_WINS_FLAG_CND;
+import static michid.crdt.plugins.FlagEditor.MIX_ENABLE_WINS_FLAG_CND;
+import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER_CND;
+import static michid.crdt.plugins.LWWElementSetEditor.MIX_LWW_ELEMENT_SET_CND;
+import static michid.crdt.plugins.MVConflictHandler.MIX_MV_REGISTER_CND;
+import static michid.crdt.plugins.OrderedSetEditor.MIX_ORDERED_SET_CND;
+import static michid.crdt.plugins.TwoPhaseSetEditor.MIX_TWO_PHASE_SET_CND;
 import static org.apache.jackrabbit.commons.cnd.CndImporter.registerNodeTypes;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
@@ -30,16 +39,44 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
 
+import com.google.common.io.Files;
 import org.apache.jackrabbit.api.JackrabbitRepository;
 import org.apache.jackrabbit.commons.cnd.ParseException;
 import org.apache.jackrabbit.oak.jcr.Jcr;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
 import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
 import org.junit.After;
 import org.junit.Ignore;
 
 @Ignore("This abstract base class does not have any tests")
 public abstract class TestBase {
+
+    private static final String[] CRDT_CNDS = {
+            MIX_ATOMIC_SET_CND, MIX_LWW_REGISTER_CND, MIX_MV_REGISTER_CND, MIX_TWO_PHASE_SET_CND,
+            MIX_LWW_ELEMENT_SET_CND, MIX_ORDERED_SET_CND, MIX_ENABLE_WINS_FLAG_CND,
+            MIX_DISABLE_WINS_FLAG_CND};
+
+    /**
+     * Snapshot image of an initialized repository with all CRDT node types registered
+     */
+    private static final SnapshotImage IMAGE = new SnapshotImage(
+            SegmentStores.getSnapshotImage("test", CRDT_CNDS), new SnapshotImage.Initializer() {
+        @Override
+        public void initialize(NodeStore store) throws Exception {
+            Repository repository = new Jcr(store).createRepository();
+            try {
+                registerCrdtNodeTypes(repository);
+            } finally {
+                ((JackrabbitRepository) repository).shutdown();
+            }
+        }
+    });
+
+    private volatile File directory;
+    private volatile SegmentStore segmentStore;
+    private volatile NodeStore nodeStore;
     private volatile Repository repository;
 
     @After
@@ -48,6 +85,49 @@ public abstract class TestBase {
             ((JackrabbitRepository) repository).shutdown();
         }
         repository = null;
+        nodeStore = null;
+        if (segmentStore != null) {
+            segmentStore.close();
+            segmentStore = null;
+        }
+        if (directory != null) {
+            SnapshotImage.delete(directory);
+            directory = null;
+        }
+    }
+
+    /**
+     * Register all CRDT node types with {@code repository}
+     */
+    private static void registerCrdtNodeTypes(Repository repository)
+            throws RepositoryException, ParseException, IOException {
+        Session session = repository.login(getAdminCredentials());
+        try {
+            for (String cnd : CRDT_CNDS) {
+                registerNodeType(session, cnd);
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Create the segment store backing the repository of a test. This is a
+     * {@link MemoryStore} unless a file store is configured through
+     * {@link SegmentStores}, in which case a file store in a new temporary
+     * directory is created. For a snapshot store that directory starts from
+     * a copy of {@link #IMAGE}, which already has all CRDT node types registered.
+     */
+    private SegmentStore createSegmentStore() throws IOException {
+        if (SegmentStores.isFileStore()) {
+            directory = Files.createTempDir();
+            return SegmentStores.newFileStore(directory);
+        } else if (SegmentStores.isSnapshotStore()) {
+            directory = Files.createTempDir();
+            return IMAGE.open(directory);
+        } else {
+            return new MemoryStore();
+        }
     }
 
     protected Jcr initJcr(Jcr jcr) {
@@ -56,13 +136,30 @@ public abstract class TestBase {
 
     protected final Repository getRepository() {
         if (repository == null) {
-            repository = initJcr(new Jcr(SegmentNodeStore.newSegmentNodeStore(
-                new MemoryStore()).create()))
+            try {
+                segmentStore = createSegmentStore();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            nodeStore = SegmentNodeStore.newSegmentNodeStore(segmentStore).create();
+            repository = initJcr(new Jcr(nodeStore))
                     .createRepository();
+            if (!SegmentStores.isSnapshotStore()) {
+                try {
+                    registerCrdtNodeTypes(repository);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
         }
         return repository;
     }
 
+    protected final NodeStore getNodeStore() {
+        getRepository();
+        return nodeStore;
+    }
+
     protected final Session createAdminSession() throws RepositoryException {
         return getRepository().login(getAdminCredentials());
     }
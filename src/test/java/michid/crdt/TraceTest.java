@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package michid.crdt;
+
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_ADD;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_REMOVE;
+import static michid.crdt.plugins.AtomicSetEditor.ATOMIC_SET_VALUES;
+import static michid.crdt.plugins.AtomicSetEditor.MIX_ATOMIC_SET;
+import static michid.crdt.plugins.LWWEditor.LWW_UPDATE;
+import static michid.crdt.plugins.LWWEditor.LWW_VALUE;
+import static michid.crdt.plugins.LWWEditor.MIX_LWW_REGISTER;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_COUNTER;
+import static org.apache.jackrabbit.oak.plugins.atomic.AtomicCounterEditor.PROP_INCREMENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import michid.crdt.plugins.AtomicSetEditorProvider;
+import michid.crdt.plugins.LWWEditorProvider;
+import michid.crdt.plugins.TraceRecorder;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorProvider;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TraceTest extends TestBase {
+    private static final String FAIL = "fail";
+
+    private File trace;
+    private TraceRecorder recorder;
+
+    @Override
+    protected Jcr initJcr(Jcr jcr) {
+        try {
+            trace = File.createTempFile("crdt", ".trace");
+            recorder = new TraceRecorder(trace);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return jcr
+                .with(new AtomicSetEditorProvider())
+                .with(new LWWEditorProvider())
+                .with(recorder.getEditorProvider())
+                .with(recorder)
+                .with(new FailingEditorProvider());
+    }
+
+    @Before
+    public void setup() throws RepositoryException {
+        Session session = createAdminSession();
+        try {
+            Node root = session.getRootNode();
+            root.addNode("counter").addMixin("mix:atomicCounter");
+            root.addNode("set").addMixin(MIX_ATOMIC_SET);
+            root.addNode("lww").addMixin(MIX_LWW_REGISTER);
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @After
+    public void deleteTrace() {
+        trace.delete();
+    }
+
+    @Test
+    public void recordAndReplay() throws RepositoryException, IOException, InterruptedException {
+        Session session = createAdminSession();
+        try {
+            for (int k = 1; k <= 3; k++) {
+                session.getNode("/counter").setProperty(PROP_INCREMENT, k);
+                session.save();
+            }
+            for (int k = 1; k <= 3; k++) {
+                session.getNode("/set").setProperty(ATOMIC_SET_ADD + k, k);
+                session.save();
+            }
+            session.getNode("/set").setProperty(ATOMIC_SET_REMOVE + 2, 2);
+            session.save();
+            session.getNode("/lww").setProperty(LWW_UPDATE + 1, "secret");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        assertEquals(8, recorder.getCommitCount());
+        recorder.close();
+
+        // Replay sequentially such that the removal comes after the addition
+        TraceReplayer replayer = new TraceReplayer(getRepository(), getAdminCredentials(), 1, 0);
+        assertEquals(8, replayer.replay(trace));
+        assertEquals(8, replayer.getOperationCount());
+        assertEquals(0, replayer.getErrorCount());
+
+        session = createAdminSession();
+        try {
+            int nodes = 0;
+            NodeIterator replayed = session.getNode(TraceReplayer.REPLAY_PATH).getNodes();
+            while (replayed.hasNext()) {
+                Node node = replayed.nextNode();
+                nodes++;
+                if (node.isNodeType("mix:atomicCounter")) {
+                    assertEquals(6, node.getProperty(PROP_COUNTER).getLong());
+                } else if (node.isNodeType(MIX_ATOMIC_SET)) {
+                    assertEquals(2, node.getProperty(ATOMIC_SET_VALUES).getValues().length);
+                } else {
+                    assertTrue(node.isNodeType(MIX_LWW_REGISTER));
+                    assertTrue(node.hasProperty(LWW_VALUE));
+                }
+            }
+            assertEquals(3, nodes);
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void failedCommits() throws RepositoryException, IOException, InterruptedException {
+        long count = recorder.getCommitCount();
+        Session session = createAdminSession();
+        try {
+            session.getNode("/set").setProperty(ATOMIC_SET_ADD + 1, 1);
+            session.getNode("/set").setProperty(FAIL, true);
+            try {
+                session.save();
+                fail("Expected commit to fail");
+            } catch (RepositoryException expected) { }
+            assertEquals(count, recorder.getCommitCount());
+
+            session.refresh(false);
+            session.getNode("/set").setProperty(ATOMIC_SET_ADD + 2, 2);
+            session.save();
+            assertEquals(count + 1, recorder.getCommitCount());
+        } finally {
+            session.logout();
+        }
+        recorder.close();
+
+        TraceReplayer replayer = new TraceReplayer(getRepository(), getAdminCredentials(), 1, 0);
+        assertEquals(1, replayer.replay(trace));
+        assertEquals(1, replayer.getOperationCount());
+    }
+
+    /**
+     * Fails all commits adding a {@link #FAIL} property after the editors
+     * of the trace recorder have seen them.
+     */
+    private static class FailingEditorProvider implements EditorProvider {
+        @Override
+        public Editor getRootEditor(NodeState before, NodeState after, NodeBuilder builder, CommitInfo info) {
+            return new DefaultEditor() {
+                @Override
+                public void propertyAdded(PropertyState after) throws CommitFailedException {
+                    if (FAIL.equals(after.getName())) {
+                        throw new CommitFailedException(CommitFailedException.CONSTRAINT, 0, "Failing on purpose");
+                    }
+                }
+
+                @Override
+                public Editor childNodeChanged(String name, NodeState before, NodeState after) {
+                    return this;
+                }
+            };
+        }
+    }
+}